@@ -11,15 +11,18 @@
  *******************************************************************************/
 package org.eclipse.update.internal.configurator;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.net.*;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.eclipse.core.runtime.*;
 import org.eclipse.update.configurator.*;
-import org.w3c.dom.*;
 
 public class Configuration implements IConfigurationConstants {
 	
@@ -32,6 +35,7 @@ public class Configuration implements IConfigurationConstants {
 	private boolean isDirty;
 	private Configuration linkedConfig; // shared configuration
 	private URL associatedInstallURL = Utils.getInstallURL();
+	private ManifestCache manifestCache;
 	
 	public Configuration() {
 		this(new Date());
@@ -143,30 +147,29 @@ public class Configuration implements IConfigurationConstants {
 		return (SiteEntry[]) combinedSites.toArray(new SiteEntry[combinedSites.size()]);
 	}
 	
-	public Element toXML(Document doc) throws CoreException {	
+	public void toXML(Writer xmlWriter) throws CoreException {	
 		try {
-			Element configElement = doc.createElement(CFG);
-
-			configElement.setAttribute(CFG_VERSION, VERSION);
-			configElement.setAttribute(CFG_DATE, String.valueOf(date.getTime()));
+			Map attributes = new TreeMap();
+			attributes.put(CFG_VERSION, VERSION);
+			attributes.put(CFG_DATE, String.valueOf(date.getTime()));
 			String transitory = isTransient() ? "true" : "false"; //$NON-NLS-1$ //$NON-NLS-2$
-			configElement.setAttribute(CFG_TRANSIENT, transitory);
+			attributes.put(CFG_TRANSIENT, transitory);
 						
 			if (linkedConfig != null) {
 				// make externalized URL install relative 
-				configElement.setAttribute(CFG_SHARED_URL, Utils.makeRelative(getInstallURL(), linkedConfig.getURL()).toExternalForm());
+				attributes.put(CFG_SHARED_URL, Utils.makeRelative(getInstallURL(), linkedConfig.getURL()).toExternalForm());
 			}
+			XMLPrintHandler.printBeginElement(xmlWriter, CFG, attributes);
 
-			// collect site entries
+			// write site entries
 			SiteEntry[] list = (SiteEntry[]) sites.values().toArray(new SiteEntry[0]);
 			for (int i = 0; i < list.length; i++) {
 				if (linkedConfig != null && linkedConfig.getSiteEntry(list[i].getURL().toExternalForm()) != null)
 					continue;
-				Element siteElement = list[i].toXML(doc);
-				configElement.appendChild(siteElement);
+				list[i].toXML(xmlWriter);
 			}
-			
-			return configElement;
+
+			XMLPrintHandler.printEndElement(xmlWriter, CFG);
 			
 		} catch (Exception e) {
 			throw Utils.newCoreException("", e); //$NON-NLS-1$
@@ -232,4 +235,19 @@ public class Configuration implements IConfigurationConstants {
 	public void setInstallLocation(URL installURL) {
 		associatedInstallURL = installURL;
 	}
+
+	/**
+	 * Returns the cache of the plug-in manifests parsed for this configuration.
+	 * It is kept next to platform.xml, or in memory only when the configuration
+	 * is not in a local file.
+	 */
+	public synchronized ManifestCache getManifestCache() {
+		if (manifestCache == null) {
+			File directory = null;
+			if (url != null && "file".equals(url.getProtocol())) //$NON-NLS-1$
+				directory = new File(url.getFile().replace('/', File.separatorChar)).getParentFile();
+			manifestCache = new ManifestCache(directory);
+		}
+		return manifestCache;
+	}
 }
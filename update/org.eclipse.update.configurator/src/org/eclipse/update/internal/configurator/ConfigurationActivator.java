@@ -34,6 +34,9 @@ public class ConfigurationActivator implements BundleActivator, IBundleGroupProv
 	public static final String NAME_SPACE = "org.eclipse.update"; //$NON-NLS-1$
 	public static final String UPDATE_PREFIX = "update@"; //$NON-NLS-1$
 	private static final String INITIAL_PREFIX = "initial@"; //$NON-NLS-1$
+	private static final String INSTALL_THREADS_PROPERTY = "org.eclipse.update.install.threads"; //$NON-NLS-1$
+	// fewer bundles are installed on the calling thread
+	private static final int MIN_BUNDLES_PER_THREAD = 16;
 
 	// debug options
 	public static String OPTION_DEBUG = PI_CONFIGURATOR + "/debug"; //$NON-NLS-1$
@@ -188,6 +191,7 @@ public class ConfigurationActivator implements BundleActivator, IBundleGroupProv
 		if (reference != null)
 			start = (StartLevel) context.getService(reference);
 		try {
+			long time = System.currentTimeMillis();
 			// Get the list of cached bundles and compare with the ones to be installed.
 			// Uninstall all the cached bundles that do not appear on the new list
 			Bundle[] cachedBundles = context.getBundles();
@@ -197,6 +201,10 @@ public class ConfigurationActivator implements BundleActivator, IBundleGroupProv
 			List toRefresh = getUnresolvedBundles();
 
 			Bundle[] bundlesToUninstall = getBundlesToUninstall(cachedBundles, plugins);
+			// Get the urls to install
+			String[] bundlesToInstall = getBundlesToInstall(cachedBundles, plugins);
+			time = debugPhase("Computed bundle changes", time); //$NON-NLS-1$
+
 			for (int i = 0; i < bundlesToUninstall.length; i++) {
 				try {
 					if (DEBUG)
@@ -208,32 +216,25 @@ public class ConfigurationActivator implements BundleActivator, IBundleGroupProv
 					Utils.log(NLS.bind(Messages.ConfigurationActivator_uninstallBundle, (new String[] {bundlesToUninstall[i].getLocation()})));
 				}
 			}
+			time = debugPhase("Uninstalled " + bundlesToUninstall.length + " bundle(s)", time); //$NON-NLS-1$ //$NON-NLS-2$
 
-			// Get the urls to install
-			String[] bundlesToInstall = getBundlesToInstall(cachedBundles, plugins);
+			Bundle[] installed = installBundles(bundlesToInstall, start, startLevel);
 			ArrayList lazyActivationBundles = new ArrayList(bundlesToInstall.length);
-			for (int i = 0; i < bundlesToInstall.length; i++) {
-				try {
-					if (DEBUG)
-						Utils.debug("Installing " + bundlesToInstall[i]); //$NON-NLS-1$
-					URL bundleURL = new URL("reference:file:" + bundlesToInstall[i]); //$NON-NLS-1$
-					//Bundle target = context.installBundle(bundlesToInstall[i]);
-					Bundle target = context.installBundle(UPDATE_PREFIX + bundlesToInstall[i], bundleURL.openStream());
-					// any new bundle should be refreshed as well
-					toRefresh.add(target);
-					if (start != null)
-						start.setBundleStartLevel(target, startLevel);
-					// check the bundle manifest to see if it defines a lazy activation policy
-					if (hasLazyActivationPolicy(target))
-						lazyActivationBundles.add(target);
-				} catch (Exception e) {
-					if (!Utils.isAutomaticallyStartedBundle(bundlesToInstall[i]))
-						Utils.log(NLS.bind(Messages.ConfigurationActivator_installBundle, (new String[] {bundlesToInstall[i]})) + "   " + e.getMessage()); //$NON-NLS-1$
-				}
+			for (int i = 0; i < installed.length; i++) {
+				if (installed[i] == null)
+					continue;
+				// any new bundle should be refreshed as well
+				toRefresh.add(installed[i]);
+				// check the bundle manifest to see if it defines a lazy activation policy
+				if (hasLazyActivationPolicy(installed[i]))
+					lazyActivationBundles.add(installed[i]);
 			}
 			context.ungetService(reference);
+			time = debugPhase("Installed " + bundlesToInstall.length + " bundle(s)", time); //$NON-NLS-1$ //$NON-NLS-2$
+
 			removeInitialBundles(toRefresh, cachedBundles);
 			refreshPackages((Bundle[]) toRefresh.toArray(new Bundle[toRefresh.size()]));
+			time = debugPhase("Refreshed " + toRefresh.size() + " bundle(s)", time); //$NON-NLS-1$ //$NON-NLS-2$
 			// after resolving all the bundles; activate the bundles that have a lazy activation policy
 			for (Iterator activateBundles = lazyActivationBundles.iterator(); activateBundles.hasNext();) {
 				Bundle toActivate = (Bundle) activateBundles.next();
@@ -246,14 +247,109 @@ public class ConfigurationActivator implements BundleActivator, IBundleGroupProv
 						Utils.log(NLS.bind(Messages.ConfigurationActivator_installBundle, (new String[] {toActivate.getLocation()})) + "   " + e.getMessage()); //$NON-NLS-1$
 				}
 			}
+			debugPhase("Activated " + lazyActivationBundles.size() + " bundle(s)", time); //$NON-NLS-1$ //$NON-NLS-2$
 			// keep track of the last config successfully processed
 			writePlatformConfigurationTimeStamp();
+			// the plug-ins of every site were detected by now
+			if (configuration.isUpdateable())
+				PlatformSnapshot.write(configuration.getConfiguration(), configuration.getConfigurationLocation());
 			return true;
 		} catch (Exception e) {
 			return false;
 		}
 	}
 
+	/*
+	 * Installs the bundles at the given locations. Large batches are
+	 * installed on the number of threads given by the install threads
+	 * property. Returns the bundles in the order of their locations,
+	 * null for those that could not be installed.
+	 */
+	private Bundle[] installBundles(final String[] locations, final StartLevel start, final int startLevel) {
+		final Bundle[] installed = new Bundle[locations.length];
+		int threadCount = Math.min(getInstallThreads(), locations.length / MIN_BUNDLES_PER_THREAD);
+		if (threadCount <= 1) {
+			for (int i = 0; i < locations.length; i++)
+				installed[i] = installBundle(locations[i], start, startLevel);
+			return installed;
+		}
+
+		final int[] next = new int[] {0};
+		Runnable installer = new Runnable() {
+			public void run() {
+				while (true) {
+					int i;
+					synchronized (next) {
+						if (next[0] >= locations.length)
+							return;
+						i = next[0]++;
+					}
+					installed[i] = installBundle(locations[i], start, startLevel);
+				}
+			}
+		};
+		Thread[] workers = new Thread[threadCount - 1];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(installer, "Update configurator install " + i); //$NON-NLS-1$
+			workers[i].start();
+		}
+		// the calling thread takes its share
+		installer.run();
+		boolean interrupted = false;
+		for (int i = 0; i < workers.length; i++) {
+			while (workers[i].isAlive()) {
+				try {
+					workers[i].join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return installed;
+	}
+
+	private Bundle installBundle(String location, StartLevel start, int startLevel) {
+		try {
+			if (DEBUG)
+				Utils.debug("Installing " + location); //$NON-NLS-1$
+			// the framework reads the bundle in place, the stream does not copy it
+			URL bundleURL = new URL("reference:file:" + location); //$NON-NLS-1$
+			//Bundle target = context.installBundle(location);
+			Bundle target = context.installBundle(UPDATE_PREFIX + location, bundleURL.openStream());
+			if (start != null)
+				start.setBundleStartLevel(target, startLevel);
+			return target;
+		} catch (Exception e) {
+			if (!Utils.isAutomaticallyStartedBundle(location))
+				Utils.log(NLS.bind(Messages.ConfigurationActivator_installBundle, (new String[] {location})) + "   " + e.getMessage()); //$NON-NLS-1$
+			return null;
+		}
+	}
+
+	private static int getInstallThreads() {
+		String threads = context.getProperty(INSTALL_THREADS_PROPERTY);
+		if (threads == null)
+			return 1;
+		try {
+			return Integer.parseInt(threads.trim());
+		} catch (NumberFormatException e) {
+			return 1;
+		}
+	}
+
+	/*
+	 * Reports the time spent in a phase of installBundles when debugging,
+	 * and returns the start time of the next phase.
+	 */
+	private static long debugPhase(String phase, long start) {
+		long now = System.currentTimeMillis();
+		if (DEBUG)
+			Utils.debug(phase + " in " + (now - start) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		return now;
+	}
+
 	private static boolean hasLazyActivationPolicy(Bundle target) {
 		// check the bundle manifest to see if it defines a lazy activation policy
 		Dictionary headers = target.getHeaders(""); //$NON-NLS-1$
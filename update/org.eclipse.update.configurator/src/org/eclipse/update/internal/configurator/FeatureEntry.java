@@ -10,16 +10,19 @@
  *******************************************************************************/
 package org.eclipse.update.internal.configurator;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.net.*;
 import java.util.ArrayList;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.TreeMap;
 
 import org.eclipse.core.runtime.*;
 import org.eclipse.update.configurator.*;
 import org.eclipse.update.internal.configurator.branding.*;
 import org.osgi.framework.*;
-import org.w3c.dom.*;
 
 
 /**
@@ -152,39 +155,40 @@ public class FeatureEntry
 		return primary;
 	}
 
-	public Element toXML(Document doc) {
+	public void toXML(Writer xmlWriter) throws IOException {
 		URL installURL = getSite().getConfig().getInstallURL();	
 		
-		Element featureElement = doc.createElement(CFG_FEATURE_ENTRY);		
+		Map attributes = new TreeMap();
 		// write out feature entry settings
 		if (id != null)
-			featureElement.setAttribute(CFG_FEATURE_ENTRY_ID, id); 
+			attributes.put(CFG_FEATURE_ENTRY_ID, id); 
 		if (primary)
-			featureElement.setAttribute(CFG_FEATURE_ENTRY_PRIMARY, "true"); //$NON-NLS-1$
+			attributes.put(CFG_FEATURE_ENTRY_PRIMARY, "true"); //$NON-NLS-1$
 		if (version != null)
-			featureElement.setAttribute(CFG_FEATURE_ENTRY_VERSION, version); 
+			attributes.put(CFG_FEATURE_ENTRY_VERSION, version); 
 		if (pluginVersion != null && !pluginVersion.equals(version) && pluginVersion.length() > 0)
-			featureElement.setAttribute(CFG_FEATURE_ENTRY_PLUGIN_VERSION, pluginVersion); 
+			attributes.put(CFG_FEATURE_ENTRY_PLUGIN_VERSION, pluginVersion); 
 		if (pluginIdentifier != null && !pluginIdentifier.equals(id) && pluginIdentifier.length() > 0)
-			featureElement.setAttribute(CFG_FEATURE_ENTRY_PLUGIN_IDENTIFIER, pluginIdentifier);
+			attributes.put(CFG_FEATURE_ENTRY_PLUGIN_IDENTIFIER, pluginIdentifier);
 		if (application != null)
-			featureElement.setAttribute(CFG_FEATURE_ENTRY_APPLICATION, application);
+			attributes.put(CFG_FEATURE_ENTRY_APPLICATION, application);
 		if (url != null)
 			// make externalized URL install relative
-			featureElement.setAttribute(CFG_URL, Utils.makeRelative(installURL, url));
+			attributes.put(CFG_URL, Utils.makeRelative(installURL, url));
+		XMLPrintHandler.printBeginElement(xmlWriter, CFG_FEATURE_ENTRY, attributes);
 		
 		URL[] roots = getFeatureRootURLs();
 		for (int i=0; i<roots.length; i++) {
 			// make externalized URL install relative
 			String root = Utils.makeRelative(installURL, roots[i]).toExternalForm();
 			if (root.trim().length() > 0){
-				Element rootElement = doc.createElement(CFG_FEATURE_ENTRY_ROOT);
-				rootElement.appendChild(doc.createTextNode(root));
-				featureElement.appendChild(rootElement);
+				XMLPrintHandler.printBeginElement(xmlWriter, CFG_FEATURE_ENTRY_ROOT);
+				XMLPrintHandler.printText(xmlWriter, root);
+				XMLPrintHandler.printEndElement(xmlWriter, CFG_FEATURE_ENTRY_ROOT);
 			}
 		}
 		
-		return featureElement;
+		XMLPrintHandler.printEndElement(xmlWriter, CFG_FEATURE_ENTRY);
 	}
 	
 	public void setDescription(String description) {
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.configurator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Plug-in entries parsed from the manifests of the plug-ins of a
+ * configuration, kept in the configuration directory across sessions.
+ * <p>
+ * An entry is keyed by the path of the plug-in jar or directory and is
+ * only returned while the size and modification time recorded with it
+ * still match: those of the jar, or the total size and latest
+ * modification time of the directory and of its manifests. A plug-in
+ * added or changed is parsed again; the others are not opened. Plug-ins
+ * changed within a couple of seconds of being parsed are not cached.
+ */
+public class ManifestCache implements IConfigurationConstants {
+
+	private static final String CACHE_NAME = "manifest.cache"; //$NON-NLS-1$
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+	private static final int MAGIC = 0x4d414e46; // MANF
+	private static final int VERSION = 1;
+
+	private static class Entry {
+		long length;
+		long stamp;
+		String id;
+		String version;
+		boolean fragment;
+		String url;
+	}
+
+	private File file;
+	// path -> Entry
+	private Map entries;
+	private boolean dirty;
+
+	/**
+	 * Creates the cache of the configuration in the given directory,
+	 * or a cache kept in memory only if the directory is
+	 * <code>null</code>.
+	 */
+	public ManifestCache(File directory) {
+		this.file = directory == null ? null : new File(directory, CACHE_NAME);
+	}
+
+	/**
+	 * Returns the entry of the plug-in, or <code>null</code> if it was
+	 * not parsed before or it changed since.
+	 *
+	 * @param plugin the plug-in jar or directory
+	 */
+	public PluginEntry lookup(File plugin) {
+		Entry entry;
+		synchronized (this) {
+			if (entries == null)
+				load();
+			entry = (Entry) entries.get(plugin.getAbsolutePath());
+		}
+		// plug-ins are detected on several threads, check outside of the lock
+		if (entry == null || entry.length != getLength(plugin) || entry.stamp != PlatformSnapshot.getStamp(plugin))
+			return null;
+		PluginEntry pluginEntry = new PluginEntry();
+		pluginEntry.setPluginIdentifier(entry.id);
+		pluginEntry.setPluginVersion(entry.version);
+		pluginEntry.isFragment(entry.fragment);
+		pluginEntry.setURL(entry.url);
+		return pluginEntry;
+	}
+
+	/**
+	 * Records the entry parsed from the manifest of the plug-in. A
+	 * plug-in changed just before it was parsed is not recorded, as it
+	 * may change again without its stamp moving.
+	 *
+	 * @param plugin the plug-in jar or directory
+	 * @param pluginEntry the parsed entry
+	 */
+	public void store(File plugin, PluginEntry pluginEntry) {
+		Entry entry = new Entry();
+		entry.stamp = PlatformSnapshot.getStamp(plugin);
+		if (entry.stamp >= System.currentTimeMillis() - PlatformSnapshot.STAMP_MARGIN)
+			return;
+		entry.length = getLength(plugin);
+		entry.id = pluginEntry.getPluginIdentifier();
+		entry.version = pluginEntry.getPluginVersion();
+		entry.fragment = pluginEntry.isFragment();
+		entry.url = pluginEntry.getURL();
+		synchronized (this) {
+			if (entries == null)
+				load();
+			entries.put(plugin.getAbsolutePath(), entry);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Writes the cache if entries were added, dropping the entries of
+	 * plug-ins that no longer exist.
+	 */
+	public synchronized void save() {
+		if (!dirty || file == null)
+			return;
+		dirty = false;
+		for (Iterator iter = entries.keySet().iterator(); iter.hasNext();) {
+			if (!new File((String) iter.next()).exists())
+				iter.remove();
+		}
+
+		File temp = new File(file.getPath() + TEMP_SUFFIX);
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (Iterator iter = entries.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry mapEntry = (Map.Entry) iter.next();
+				Entry entry = (Entry) mapEntry.getValue();
+				out.writeUTF((String) mapEntry.getKey());
+				out.writeLong(entry.length);
+				out.writeLong(entry.stamp);
+				PlatformSnapshot.writeString(out, entry.id);
+				PlatformSnapshot.writeString(out, entry.version);
+				out.writeBoolean(entry.fragment);
+				PlatformSnapshot.writeString(out, entry.url);
+			}
+			out.close();
+			out = null;
+			file.delete();
+			if (!temp.renameTo(file))
+				temp.delete();
+		} catch (IOException e) {
+			Utils.debug("Unable to write manifest cache " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			temp.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+				temp.delete();
+			}
+		}
+	}
+
+	private void load() {
+		entries = new HashMap();
+		if (file == null || !file.isFile())
+			return;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return;
+			int count = in.readInt();
+			Map loaded = new HashMap(count);
+			for (int i = 0; i < count; i++) {
+				String path = in.readUTF();
+				Entry entry = new Entry();
+				entry.length = in.readLong();
+				entry.stamp = in.readLong();
+				entry.id = PlatformSnapshot.readString(in);
+				entry.version = PlatformSnapshot.readString(in);
+				entry.fragment = in.readBoolean();
+				entry.url = PlatformSnapshot.readString(in);
+				loaded.put(path, entry);
+			}
+			entries = loaded;
+		} catch (IOException e) {
+			Utils.debug("Unable to read manifest cache " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/*
+	 * Returns the size of the jar, or the total size of the manifests
+	 * of the directory.
+	 */
+	private static long getLength(File plugin) {
+		if (!plugin.isDirectory())
+			return plugin.length();
+		return new File(plugin, META_MANIFEST_MF).length() + new File(plugin, PLUGIN_XML).length() + new File(plugin, FRAGMENT_XML).length();
+	}
+}
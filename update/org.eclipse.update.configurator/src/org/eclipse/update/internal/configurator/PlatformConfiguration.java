@@ -32,17 +32,12 @@ import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.osgi.service.datalocation.Location;
 import org.eclipse.osgi.util.NLS;
 import org.eclipse.update.configurator.IPlatformConfiguration;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 /**
  * This class is responsible for providing the features and plugins (bundles) to 
@@ -71,6 +66,7 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 	private boolean featuresChangeStampIsValid;
 	private long pluginsChangeStamp;
 	private boolean pluginsChangeStampIsValid;
+	private SiteChangeTracker tracker;
 	//PAL nio optional
 	//private FileLock lock;
 	private Locker lock = null;
@@ -555,6 +551,10 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 	 * @see IPlatformConfiguration#refresh()
 	 */
 	public synchronized void refresh() {
+		if (tracker != null) {
+			refreshChangedSites();
+			return;
+		}
 		// Reset computed values. Will be lazily refreshed
 		// on next access
 		ISiteEntry[] sites = getConfiguredSites();
@@ -566,6 +566,26 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 		}
 	}
 
+	/*
+	 * Resets the sites the tracker saw changing, and picks up new link files.
+	 * The stamps of the other sites remain valid. The sites are not scanned
+	 * here, the last pass of the background thread is used.
+	 */
+	private void refreshChangedSites() {
+		if (tracker.consumeLinksChanged() && ConfigurationActivator.isReconciling())
+			configureExternalLinks();
+		String[] dirtySites = tracker.consumeDirtySites();
+		for (int i = 0; i < dirtySites.length; i++) {
+			SiteEntry site = config.getSiteEntry(dirtySites[i]);
+			if (site != null && site.isUpdateable())
+				site.refresh();
+		}
+		if (dirtySites.length > 0) {
+			featuresChangeStampIsValid = false;
+			pluginsChangeStampIsValid = false;
+		}
+	}
+
 	/*
 	 * @see IPlatformConfiguration#save()
 	 */
@@ -689,6 +709,7 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 
 				throw new IOException(NLS.bind(Messages.cfig_unableToSave, (new String[] {cfigTmp.getAbsolutePath()})));
 			}
+			PlatformSnapshot.write(config, cfigFileOriginal.toURL());
 		}
 	}
 
@@ -712,6 +733,8 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 				// otherwise, save the configuration with proper date
 				if (!currentPlatformConfiguration.isTransient())
 					currentPlatformConfiguration.save();
+			if (!currentPlatformConfiguration.isTransient())
+				currentPlatformConfiguration.tracker = SiteChangeTracker.start(currentPlatformConfiguration.config, currentPlatformConfiguration, currentPlatformConfiguration.getLinksDirectory());
 		}
 	}
 
@@ -720,6 +743,8 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 		// save platform configuration
 		PlatformConfiguration config = getCurrent();
 		if (config != null) {
+			if (config.tracker != null)
+				config.tracker.stop();
 			// only save if there are changes in the config
 			if (config.config.isDirty() && !config.isTransient()) {
 				try {
@@ -729,6 +754,9 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 					// will recover on next startup
 				}
 			}
+			// keep the plug-ins detected during this session
+			if (config.isUpdateable())
+				PlatformSnapshot.write(config.config, config.configLocation);
 		}
 	}
 
@@ -915,6 +943,20 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 		return pluginsChangeStamp;
 	}
 
+	/*
+	 * Returns the folder of the link files, or null if it is not local.
+	 */
+	private File getLinksDirectory() {
+		URL linkURL = getInstallURL();
+		if (!supportsDetection(linkURL, config.getInstallURL()))
+			return null;
+		try {
+			return new File(new URL(linkURL, LINKS + "/").getFile()); //$NON-NLS-1$
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
 	private void configureExternalLinks() {
 		URL linkURL = getInstallURL();
 		if (!supportsDetection(linkURL, config.getInstallURL()))
@@ -1083,7 +1125,11 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 			throw (Exception) e.getTargetException();
 		}
 
-		config = null;
+		// platform.xml did not change since the last snapshot
+		config = PlatformSnapshot.read(url, installLocation);
+		if (config != null)
+			return config;
+
 		Exception originalException = null;
 		try {
 			config = parser.parse(url, installLocation);
@@ -1213,23 +1259,13 @@ public class PlatformConfiguration implements IPlatformConfiguration, IConfigura
 	private void saveAsXML(OutputStream stream) throws CoreException, IOException {
 		BufferedWriter xmlWriter = new BufferedWriter(new OutputStreamWriter(stream, XML_ENCODING));
 		try {
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			factory.setExpandEntityReferences(false);
-			factory.setValidating(false);
-			factory.setIgnoringComments(true);
-			DocumentBuilder docBuilder = factory.newDocumentBuilder();
-			Document doc = docBuilder.newDocument();
-
 			if (config == null)
 				throw Utils.newCoreException(Messages.PlatformConfiguration_cannotSaveNonExistingConfig, null);
 
 			config.setDate(new Date());
-			Element configElement = config.toXML(doc);
-			doc.appendChild(configElement);
-
-			// This is not DBCS friendly... PAL
-			//XMLPrintHandler.printComment(xmlWriter,"Created on " + config.getDate().toString());
-			XMLPrintHandler.printNode(xmlWriter, doc, XML_ENCODING);
+			// write the elements as they are visited, without building a document
+			XMLPrintHandler.printHead(xmlWriter, XML_ENCODING);
+			config.toXML(xmlWriter);
 
 		} catch (Exception e) {
 			throw Utils.newCoreException("", e); //$NON-NLS-1$
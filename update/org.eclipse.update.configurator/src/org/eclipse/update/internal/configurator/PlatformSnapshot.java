@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.configurator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.update.configurator.IPlatformConfiguration.ISitePolicy;
+
+/**
+ * Binary copy of platform.xml and of the plug-ins detected on its sites.
+ * <p>
+ * The snapshot is written next to platform.xml, as platform.snapshot,
+ * whenever the configuration in memory matches the file. It records the
+ * modification time and size of platform.xml and holds the sites and
+ * feature entries as they would be read back from it, so loading a
+ * configuration whose platform.xml did not change skips the XML parser.
+ * <p>
+ * For each site whose plug-ins were detected, it also holds the plug-in
+ * entries along with the modification times of the plugins directory and
+ * of every plug-in manifest. When none of them changed, the entries are
+ * given to the site and its plug-ins are not detected again. Any other
+ * change falls back to the regular path: platform.xml is parsed, or the
+ * plug-ins of the site are detected, as before.
+ */
+public class PlatformSnapshot implements IConfigurationConstants {
+
+	private static final String SNAPSHOT_NAME = "platform.snapshot"; //$NON-NLS-1$
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+	private static final int MAGIC = 0x504c5346; // PLSF
+	private static final int VERSION = 1;
+	private static final String URL_PROPERTY = "org.eclipse.update.resolution_url"; //$NON-NLS-1$
+	// plug-ins changed this close to their detection are detected again,
+	// file system clocks are coarse
+	static final long STAMP_MARGIN = 2000;
+
+	/**
+	 * Returns the configuration held by the snapshot of the given
+	 * platform.xml, or <code>null</code> if there is no snapshot or it
+	 * does not match platform.xml.
+	 *
+	 * @param url the platform.xml URL
+	 * @param installLocation the install location
+	 */
+	public static Configuration read(URL url, URL installLocation) {
+		File xml = getFile(url);
+		if (xml == null || !xml.isFile())
+			return null;
+		File snapshot = new File(xml.getParentFile(), SNAPSHOT_NAME);
+		if (!snapshot.isFile())
+			return null;
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			if (in.readLong() != xml.lastModified() || in.readLong() != xml.length())
+				return null;
+			if (!String.valueOf(installLocation).equals(in.readUTF()))
+				return null;
+			Configuration config = readConfiguration(in, url, installLocation);
+			if (config != null) {
+				config.setLastModified(xml.lastModified());
+				Utils.debug("Using configuration snapshot " + snapshot); //$NON-NLS-1$
+			}
+			return config;
+		} catch (IOException e) {
+			Utils.debug("Unable to read configuration snapshot " + snapshot + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the snapshot of the configuration next to the given
+	 * platform.xml. Nothing is written if the configuration has changes
+	 * that are not in platform.xml yet.
+	 *
+	 * @param config the configuration
+	 * @param url the platform.xml URL
+	 */
+	public static void write(Configuration config, URL url) {
+		File xml = getFile(url);
+		if (xml == null || !xml.isFile())
+			return;
+		File snapshot = new File(xml.getParentFile(), SNAPSHOT_NAME);
+		if (config.isDirty() || config.isTransient() || config.getLinkedConfig() != null) {
+			snapshot.delete();
+			return;
+		}
+
+		File temp = new File(snapshot.getPath() + TEMP_SUFFIX);
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(xml.lastModified());
+			out.writeLong(xml.length());
+			out.writeUTF(String.valueOf(config.getInstallURL()));
+			writeConfiguration(out, config);
+			out.close();
+			out = null;
+			snapshot.delete();
+			if (!temp.renameTo(snapshot))
+				temp.delete();
+		} catch (IOException e) {
+			Utils.debug("Unable to write configuration snapshot " + snapshot + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			temp.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+				temp.delete();
+			}
+		}
+	}
+
+	/*
+	 * Writes the configuration as platform.xml holds it.
+	 */
+	private static void writeConfiguration(DataOutputStream out, Configuration config) throws IOException {
+		out.writeLong(config.getDate().getTime());
+		SiteEntry[] sites = config.getSites();
+		out.writeInt(sites.length);
+		for (int i = 0; i < sites.length; i++) {
+			SiteEntry site = sites[i];
+			out.writeUTF(Utils.makeRelative(Utils.getInstallURL(), site.getURL()).toString());
+			ISitePolicy policy = site.getSitePolicy();
+			out.writeInt(policy.getType());
+			String[] list = policy.getList();
+			out.writeInt(list.length);
+			for (int j = 0; j < list.length; j++)
+				out.writeUTF(list[j]);
+			out.writeBoolean(site.isUpdateable());
+			out.writeBoolean(site.isEnabled());
+			writeString(out, site.isExternallyLinkedSite() ? site.getLinkFileName().trim().replace(File.separatorChar, '/') : null);
+
+			URL installURL = config.getInstallURL();
+			FeatureEntry[] features = site.getFeatureEntries();
+			out.writeInt(features.length);
+			for (int j = 0; j < features.length; j++) {
+				FeatureEntry feature = features[j];
+				out.writeUTF(feature.getFeatureIdentifier());
+				writeString(out, feature.getFeatureVersion());
+				// platform.xml omits these when they match the feature
+				String pluginIdentifier = feature.getFeaturePluginIdentifier();
+				writeString(out, pluginIdentifier.equals(feature.getFeatureIdentifier()) ? null : pluginIdentifier);
+				writeString(out, feature.getFeaturePluginVersion());
+				out.writeBoolean(feature.canBePrimary());
+				writeString(out, feature.getFeatureApplication());
+				String url = feature.getURL() == null ? null : Utils.makeRelative(installURL, feature.getURL());
+				writeString(out, url == null || url.trim().length() == 0 ? null : url);
+			}
+			writePlugins(out, site);
+		}
+	}
+
+	private static Configuration readConfiguration(DataInputStream in, URL url, URL installLocation) throws IOException {
+		Configuration config = new Configuration(new Date(in.readLong()));
+		config.setURL(url);
+		config.setInstallLocation(installLocation);
+
+		String property = System.getProperty(URL_PROPERTY, ""); //$NON-NLS-1$
+		URL root = property == null || property.length() == 0 ? Utils.getInstallURL() : new URL(property);
+		int siteCount = in.readInt();
+		// SiteEntry -> List of PluginEntry, read before the sites are complete
+		Map plugins = new HashMap();
+		for (int i = 0; i < siteCount; i++) {
+			String urlString = in.readUTF();
+			URL siteURL = null;
+			try {
+				siteURL = new URL(urlString);
+			} catch (MalformedURLException e) {
+				siteURL = new URL(PlatformConfiguration.getInstallURL(), urlString);
+			}
+			siteURL = Utils.makeAbsolute(root, siteURL);
+			int type = in.readInt();
+			String[] list = new String[in.readInt()];
+			for (int j = 0; j < list.length; j++)
+				list[j] = in.readUTF();
+			SiteEntry site = new SiteEntry(siteURL, new SitePolicy(type, list));
+			site.setUpdateable(in.readBoolean());
+			site.setEnabled(in.readBoolean());
+			String linkFileName = readString(in);
+			if (linkFileName != null)
+				site.setLinkFileName(linkFileName.replace('/', File.separatorChar));
+			config.addSiteEntry(site.getURL().toExternalForm(), site);
+			// a site removed since the snapshot was written is dropped by the parser
+			if (!isValidSite(site, config))
+				return null;
+
+			int featureCount = in.readInt();
+			for (int j = 0; j < featureCount; j++) {
+				String id = in.readUTF();
+				String version = readString(in);
+				String pluginIdentifier = readString(in);
+				String pluginVersion = readString(in);
+				if (pluginVersion == null)
+					pluginVersion = version;
+				boolean primary = in.readBoolean();
+				String application = readString(in);
+				FeatureEntry feature = new FeatureEntry(id, version, pluginIdentifier, pluginVersion, primary, application, new URL[0]);
+				String featureURL = readString(in);
+				if (featureURL != null)
+					feature.setURL(featureURL);
+				site.addFeatureEntry(feature);
+			}
+			plugins.put(site, readPlugins(in, site));
+		}
+
+		SiteEntry[] sites = config.getSites();
+		for (int i = 0; i < sites.length; i++) {
+			sites[i].initialized();
+			Object[] detected = (Object[]) plugins.get(sites[i]);
+			if (detected != null)
+				sites[i].setDetectedPluginEntries((ArrayList) detected[0], ((Long) detected[1]).longValue());
+		}
+		return config;
+	}
+
+	/*
+	 * Writes the plug-ins detected on the site, with the stamps of the
+	 * plugins directory and of its children.
+	 */
+	private static void writePlugins(DataOutputStream out, SiteEntry site) throws IOException {
+		long detected = site.getPluginsDetectionTime();
+		PluginEntry[] entries = site.getDetectedPluginEntries();
+		File pluginsDir = getPluginsDirectory(site);
+		File[] children = pluginsDir == null ? null : pluginsDir.listFiles();
+		if (entries == null || children == null || pluginsDir.lastModified() >= detected - STAMP_MARGIN) {
+			out.writeBoolean(false);
+			return;
+		}
+		long[] stamps = new long[children.length];
+		for (int i = 0; i < children.length; i++) {
+			stamps[i] = getStamp(children[i]);
+			// changed while or after they were detected
+			if (stamps[i] >= detected - STAMP_MARGIN) {
+				out.writeBoolean(false);
+				return;
+			}
+		}
+
+		out.writeBoolean(true);
+		out.writeLong(detected);
+		out.writeLong(pluginsDir.lastModified());
+		out.writeInt(children.length);
+		for (int i = 0; i < children.length; i++) {
+			out.writeUTF(children[i].getName());
+			out.writeLong(stamps[i]);
+		}
+		out.writeInt(entries.length);
+		for (int i = 0; i < entries.length; i++) {
+			writeString(out, entries[i].getPluginIdentifier());
+			writeString(out, entries[i].getPluginVersion());
+			out.writeBoolean(entries[i].isFragment());
+			writeString(out, entries[i].getURL());
+		}
+	}
+
+	/*
+	 * Returns the detected plug-ins of the site and their detection time,
+	 * or null if the plugins directory changed since.
+	 */
+	private static Object[] readPlugins(DataInputStream in, SiteEntry site) throws IOException {
+		if (!in.readBoolean())
+			return null;
+		long detected = in.readLong();
+		long dirStamp = in.readLong();
+		Map stamps = new HashMap();
+		int childCount = in.readInt();
+		for (int i = 0; i < childCount; i++)
+			stamps.put(in.readUTF(), new Long(in.readLong()));
+		int entryCount = in.readInt();
+		ArrayList entries = new ArrayList(entryCount);
+		for (int i = 0; i < entryCount; i++) {
+			PluginEntry entry = new PluginEntry();
+			entry.setPluginIdentifier(readString(in));
+			entry.setPluginVersion(readString(in));
+			entry.isFragment(in.readBoolean());
+			entry.setURL(readString(in));
+			entries.add(entry);
+		}
+
+		File pluginsDir = getPluginsDirectory(site);
+		if (pluginsDir == null || pluginsDir.lastModified() != dirStamp)
+			return null;
+		File[] children = pluginsDir.listFiles();
+		if (children == null || children.length != childCount)
+			return null;
+		for (int i = 0; i < children.length; i++) {
+			Long stamp = (Long) stamps.get(children[i].getName());
+			if (stamp == null || stamp.longValue() != getStamp(children[i]))
+				return null;
+		}
+		return new Object[] {entries, new Long(detected)};
+	}
+
+	/*
+	 * Returns the modification time of a plug-in: the jar, or the latest
+	 * of the directory and the manifests the site would read.
+	 */
+	static long getStamp(File file) {
+		if (!file.isDirectory())
+			return file.lastModified();
+		long stamp = file.lastModified();
+		stamp = Math.max(stamp, new File(file, META_MANIFEST_MF).lastModified());
+		stamp = Math.max(stamp, new File(file, PLUGIN_XML).lastModified());
+		stamp = Math.max(stamp, new File(file, FRAGMENT_XML).lastModified());
+		return stamp;
+	}
+
+	private static File getPluginsDirectory(SiteEntry site) {
+		URL resolved = site.getResolvedURL();
+		if (!PlatformConfiguration.supportsDetection(resolved, site.getConfig().getInstallURL()))
+			return null;
+		File pluginsDir = new File(resolved.getFile(), PLUGINS);
+		return pluginsDir.isDirectory() ? pluginsDir : null;
+	}
+
+	private static boolean isValidSite(SiteEntry site, Configuration config) {
+		URL resolved = site.getResolvedURL();
+		if (!PlatformConfiguration.supportsDetection(resolved, config.getInstallURL()))
+			return false;
+		return new File(resolved.getFile().replace('/', File.separatorChar)).exists();
+	}
+
+	private static File getFile(URL url) {
+		if (url == null || !"file".equals(url.getProtocol())) //$NON-NLS-1$
+			return null;
+		return new File(url.getFile().replace('/', File.separatorChar));
+	}
+
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
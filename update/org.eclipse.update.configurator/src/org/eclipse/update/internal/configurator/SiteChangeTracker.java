@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.configurator;
+
+import java.io.File;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Watches the sites of a configuration and its links folder for changes.
+ * <p>
+ * A background thread computes the stamps of every site, its features
+ * and plugins directories, the feature manifests and the plug-ins in
+ * them, and of the link files, at a fixed interval. The sites whose
+ * stamps changed since the previous pass are kept in a dirty set, which
+ * <code>PlatformConfiguration.refresh()</code> consumes without waiting
+ * for a pass, so only those sites are reset and the cached stamps of the
+ * others stay valid. A change made within the interval before a refresh
+ * is picked up by the next one.
+ * <p>
+ * The tracker is only started when the
+ * <code>org.eclipse.update.watch.interval</code> system property gives
+ * the interval in milliseconds.
+ */
+public class SiteChangeTracker implements Runnable, IConfigurationConstants {
+
+	private static final String INTERVAL_PROPERTY = "org.eclipse.update.watch.interval"; //$NON-NLS-1$
+
+	private Configuration config;
+	// the lock of the platform configuration, which guards its sites
+	private Object configLock;
+	private File linksDir;
+	private long interval;
+	private Thread thread;
+	private boolean stopped;
+
+	// site URL -> Long stamp of the last pass
+	private Map stamps = new HashMap();
+	private long linksStamp;
+	// URLs of the sites that changed since the last refresh
+	private Set dirtySites = new HashSet();
+	private boolean linksChanged;
+
+	/**
+	 * Starts tracking the sites of the configuration if the interval
+	 * property is set.
+	 *
+	 * @param config the configuration
+	 * @param configLock the lock held while the sites of the configuration change
+	 * @param linksDir the links folder, or <code>null</code>
+	 * @return the tracker, or <code>null</code> if tracking is disabled
+	 */
+	public static SiteChangeTracker start(Configuration config, Object configLock, File linksDir) {
+		long interval = 0;
+		try {
+			String value = System.getProperty(INTERVAL_PROPERTY);
+			if (value != null)
+				interval = Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			Utils.debug("Invalid " + INTERVAL_PROPERTY + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		if (interval <= 0)
+			return null;
+
+		SiteChangeTracker tracker = new SiteChangeTracker(config, configLock, linksDir, interval);
+		// changes from now on are reported by the next pass
+		tracker.poll();
+		tracker.dirtySites.clear();
+		tracker.linksChanged = false;
+		tracker.thread = new Thread(tracker, "Update configurator site tracker"); //$NON-NLS-1$
+		tracker.thread.setDaemon(true);
+		tracker.thread.start();
+		return tracker;
+	}
+
+	private SiteChangeTracker(Configuration config, Object configLock, File linksDir, long interval) {
+		this.config = config;
+		this.configLock = configLock;
+		this.linksDir = linksDir;
+		this.interval = interval;
+	}
+
+	/**
+	 * Stops the background thread.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		notifyAll();
+	}
+
+	/**
+	 * Returns the URLs of the sites that changed since the last call,
+	 * and clears them.
+	 */
+	public synchronized String[] consumeDirtySites() {
+		String[] result = (String[]) dirtySites.toArray(new String[dirtySites.size()]);
+		dirtySites.clear();
+		return result;
+	}
+
+	/**
+	 * Returns <code>true</code> if link files were added, removed or
+	 * changed since the last call.
+	 */
+	public synchronized boolean consumeLinksChanged() {
+		boolean result = linksChanged;
+		linksChanged = false;
+		return result;
+	}
+
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				if (!stopped) {
+					try {
+						wait(interval);
+					} catch (InterruptedException e) {
+						// poll now
+					}
+				}
+				if (stopped)
+					return;
+			}
+			poll();
+		}
+	}
+
+	/**
+	 * Computes the stamps and marks what changed since the previous pass.
+	 * Called by the background thread.
+	 */
+	private void poll() {
+		SiteEntry[] sites;
+		synchronized (configLock) {
+			sites = config.getSites();
+		}
+		Map current = new HashMap(sites.length);
+		for (int i = 0; i < sites.length; i++) {
+			URL resolved = sites[i].getResolvedURL();
+			if (!PlatformConfiguration.supportsDetection(resolved, config.getInstallURL()))
+				continue;
+			File root = new File(resolved.getFile().replace('/', File.separatorChar));
+			current.put(sites[i].getURL().toExternalForm(), new Long(computeSiteStamp(root)));
+		}
+		long currentLinksStamp = linksDir == null ? 0 : computeLinksStamp(linksDir);
+
+		synchronized (this) {
+			for (int i = 0; i < sites.length; i++) {
+				String url = sites[i].getURL().toExternalForm();
+				Object stamp = current.get(url);
+				// sites added since the previous pass are reset when added
+				if (stamp != null && stamps.containsKey(url) && !stamp.equals(stamps.get(url)))
+					dirtySites.add(url);
+			}
+			stamps = current;
+			if (currentLinksStamp != linksStamp)
+				linksChanged = true;
+			linksStamp = currentLinksStamp;
+		}
+	}
+
+	/*
+	 * Returns a combination of the modification times of the plugins and
+	 * features directories of the site, of its feature manifests and of
+	 * its plug-ins, so a jar overwritten in place or a manifest changed
+	 * inside an unpacked plug-in changes the stamp even if it is older
+	 * than the others.
+	 */
+	private static long computeSiteStamp(File root) {
+		File pluginsDir = new File(root, PLUGINS);
+		long stamp = pluginsDir.lastModified();
+		File[] plugins = pluginsDir.listFiles();
+		for (int i = 0; plugins != null && i < plugins.length; i++)
+			stamp = 31 * stamp + PlatformSnapshot.getStamp(plugins[i]);
+		File featuresDir = new File(root, FEATURES);
+		stamp = 31 * stamp + featuresDir.lastModified();
+		File[] features = featuresDir.listFiles();
+		for (int i = 0; features != null && i < features.length; i++)
+			stamp = 31 * stamp + new File(features[i], FEATURE_XML).lastModified();
+		return stamp;
+	}
+
+	private static long computeLinksStamp(File linksDir) {
+		long stamp = linksDir.lastModified();
+		File[] links = linksDir.listFiles();
+		for (int i = 0; links != null && i < links.length; i++)
+			stamp = Math.max(stamp, links[i].lastModified());
+		return stamp;
+	}
+}
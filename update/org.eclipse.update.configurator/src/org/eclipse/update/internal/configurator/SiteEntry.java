@@ -19,6 +19,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.zip.*;
 
 import org.eclipse.core.runtime.*;
@@ -26,7 +27,6 @@ import org.eclipse.osgi.service.environment.*;
 import org.eclipse.osgi.util.NLS;
 import org.eclipse.update.configurator.*;
 import org.eclipse.update.configurator.IPlatformConfiguration.*;
-import org.w3c.dom.*;
 import org.xml.sax.*;
 
 
@@ -42,12 +42,17 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 	private long changeStamp;
 	private long featuresChangeStamp;
 	private long pluginsChangeStamp;
+	private long pluginsDetectionTime;
 	private String linkFileName;
 	private boolean enabled = true;
 	private Configuration config;
 	
 	private static FeatureParser featureParser = new FeatureParser();
 	private static PluginParser pluginParser = new PluginParser();
+	private static final String DETECTION_THREADS_PROPERTY = "org.eclipse.update.detection.threads"; //$NON-NLS-1$
+	private static final int DEFAULT_DETECTION_THREADS = 4;
+	// smaller sites are detected on the calling thread
+	private static final int MIN_PLUGINS_PER_THREAD = 32;
 	private static boolean isMacOS = Utils.getOS().equals(Constants.OS_MACOSX);
 
 	public SiteEntry(URL url) {
@@ -325,6 +330,7 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 			compareTimeStamps = true; // only pick up newer plugins
 		} else
 			pluginEntries = new ArrayList();
+		pluginsDetectionTime = System.currentTimeMillis();
 
 		if (!PlatformConfiguration.supportsDetection(resolvedURL, config.getInstallURL()))
 			return;
@@ -334,29 +340,56 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 		
 		if (pluginsDir.exists() && pluginsDir.isDirectory()) {
 			File[] files = pluginsDir.listFiles();
-			for (int i = 0; i < files.length; i++) {
-				if(files[i].isDirectory()){
-					detectUnpackedPlugin(files[i], compareTimeStamps);
-				}else if(files[i].getName().endsWith(".jar")){ //$NON-NLS-1$
-					detectPackedPlugin(files[i], compareTimeStamps);
-				}else{
-					// not bundle file
-				}
+			PluginEntry[] detected = new PluginEntry[files.length];
+			int threads = Math.min(getDetectionThreads(), files.length / MIN_PLUGINS_PER_THREAD);
+			if (threads > 1) {
+				new PluginDetector(files, detected, compareTimeStamps).detect(threads);
+			} else {
+				for (int i = 0; i < files.length; i++)
+					detected[i] = detectPlugin(files[i], compareTimeStamps, pluginParser);
 			}
+			// add in directory order, whichever thread detected the plug-in
+			for (int i = 0; i < detected.length; i++) {
+				if (detected[i] != null)
+					addPluginEntry(detected[i]);
+			}
+			config.getManifestCache().save();
 		} 
 		
 		Utils.debug(resolvedURL.toString() + " located  " + pluginEntries.size() + " plugin(s)"); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
+	/**
+	 * @param file a plugin jar or directory
+	 * @param compareTimeStamps set to true when looking for plugins changed since last time they were detected
+	 * @param parser the parser of plugin.xml and fragment.xml files
+	 * @return the plugin entry, or <code>null</code> if there is no plugin or it did not change
+	 */
+	private PluginEntry detectPlugin(File file, boolean compareTimeStamps, PluginParser parser) {
+		if(file.isDirectory()){
+			return detectUnpackedPlugin(file, compareTimeStamps, parser);
+		}else if(file.getName().endsWith(".jar")){ //$NON-NLS-1$
+			return detectPackedPlugin(file, compareTimeStamps, parser);
+		}else{
+			// not bundle file
+			return null;
+		}
+	}
+
 	/**
 	 * @param file a plugin jar
 	 * @param compareTimeStamps set to true when looking for plugins changed since last time they were detected
+	 * @param parser the parser of plugin.xml and fragment.xml files
 	 */
-	private void detectPackedPlugin(File file, boolean compareTimeStamps) {
+	private PluginEntry detectPackedPlugin(File file, boolean compareTimeStamps, PluginParser parser) {
 		// plugin to run directly from jar
 		if (compareTimeStamps && file.lastModified() <= pluginsChangeStamp) {
-			return;
+			return null;
 		}
+		ManifestCache cache = config.getManifestCache();
+		PluginEntry cached = cache.lookup(file);
+		if (cached != null)
+			return cached;
 		String entryName = META_MANIFEST_MF;
 		ZipFile z = null;
 		InputStream bundleManifestIn = null;
@@ -369,10 +402,8 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 				bundleManifestIn = z.getInputStream(new ZipEntry(entryName));
 				BundleManifest manifest = new BundleManifest(bundleManifestIn,
 						pluginURL);
-				if (manifest.exists()) {
-					addPluginEntry(manifest.getPluginEntry());
-					return;
-				}
+				if (manifest.exists())
+					return store(cache, file, manifest.getPluginEntry());
 			}
 			// no bundle manifest, check for plugin.xml or fragment.xml
 			entryName = PLUGIN_XML;
@@ -381,9 +412,7 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 			}
 			if (z.getEntry(entryName) != null) {
 				pluginManifestIn = z.getInputStream(new ZipEntry(entryName));
-				PluginEntry entry1 = pluginParser.parse(pluginManifestIn,
-						pluginURL);
-				addPluginEntry(entry1);
+				return store(cache, file, parser.parse(pluginManifestIn, pluginURL));
 			}
 		} catch (IOException e5) {
 			String pluginFileString2 = pluginURL + "!" + entryName; //$NON-NLS-1$
@@ -411,13 +440,23 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 				}
 			}
 		}
+		return null;
 	}
 	/**
 	 * @param file a plugin directory
 	 * @param compareTimeStamps set to true when looking for plugins changed since last time they were detected
+	 * @param parser the parser of plugin.xml and fragment.xml files
 	 */
-	private void detectUnpackedPlugin(File file, boolean compareTimeStamps) {
+	private PluginEntry detectUnpackedPlugin(File file, boolean compareTimeStamps, PluginParser parser) {
 		// unpacked plugin
+		ManifestCache cache = config.getManifestCache();
+		PluginEntry cached = cache.lookup(file);
+		if (cached != null) {
+			// the stamp of the directory and of its manifests
+			if (compareTimeStamps && PlatformSnapshot.getStamp(file) <= pluginsChangeStamp)
+				return null;
+			return cached;
+		}
 		long dirTimestamp = file.lastModified();
 		File pluginFile = new File(file, META_MANIFEST_MF);
 		try {
@@ -427,9 +466,8 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 				if (compareTimeStamps
 						&& dirTimestamp <= pluginsChangeStamp
 						&& pluginFile.lastModified() <= pluginsChangeStamp)
-					return;
-				PluginEntry entry = bundleManifest.getPluginEntry();
-				addPluginEntry(entry);
+					return null;
+				return store(cache, file, bundleManifest.getPluginEntry());
 			} else {
 				// no bundle manifest, check for plugin.xml or fragment.xml
 				pluginFile = new File(file, PLUGIN_XML);
@@ -447,9 +485,8 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 					if (compareTimeStamps 
 							&& dirTimestamp <= pluginsChangeStamp
 							&& pluginFile.lastModified() <= pluginsChangeStamp)
-						return;
-					PluginEntry entry = pluginParser.parse(pluginFile);
-					addPluginEntry(entry);
+						return null;
+					return store(cache, file, parser.parse(pluginFile));
 				}
 			}
 		} catch (IOException e) {
@@ -462,6 +499,89 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 			String pluginFileString = pluginFile.getAbsolutePath();
 			Utils.log(NLS.bind(Messages.InstalledSiteParser_ErrorParsingFile, (new String[] { pluginFileString })));
         }
+		return null;
+	}
+
+	/*
+	 * Records the entry parsed for the plug-in, so it is not parsed again
+	 * until it changes.
+	 */
+	private static PluginEntry store(ManifestCache cache, File file, PluginEntry entry) {
+		if (entry != null)
+			cache.store(file, entry);
+		return entry;
+	}
+
+	/*
+	 * Returns the number of threads detecting the plug-ins of a site.
+	 */
+	private static int getDetectionThreads() {
+		String threads = System.getProperty(DETECTION_THREADS_PROPERTY);
+		if (threads == null)
+			return DEFAULT_DETECTION_THREADS;
+		try {
+			return Integer.parseInt(threads.trim());
+		} catch (NumberFormatException e) {
+			return DEFAULT_DETECTION_THREADS;
+		}
+	}
+
+	/*
+	 * Detects the plug-ins of a directory listing on several threads.
+	 * The threads take the next file in turn and each parses with its
+	 * own parser, so they do not wait on the shared one. Each entry is
+	 * stored at the index of its file, keeping the listing order.
+	 */
+	private class PluginDetector {
+		private File[] files;
+		private PluginEntry[] detected;
+		private boolean compareTimeStamps;
+		private int next;
+
+		PluginDetector(File[] files, PluginEntry[] detected, boolean compareTimeStamps) {
+			this.files = files;
+			this.detected = detected;
+			this.compareTimeStamps = compareTimeStamps;
+		}
+
+		void detect(int threadCount) {
+			Thread[] workers = new Thread[threadCount - 1];
+			for (int i = 0; i < workers.length; i++) {
+				// the parser factory is shared, create the parsers here
+				final PluginParser parser = new PluginParser();
+				workers[i] = new Thread(new Runnable() {
+					public void run() {
+						detect(parser);
+					}
+				}, "Plug-in detection " + i); //$NON-NLS-1$
+				workers[i].setDaemon(true);
+				workers[i].start();
+			}
+			// the calling thread takes its share
+			detect(new PluginParser());
+			boolean interrupted = false;
+			for (int i = 0; i < workers.length; i++) {
+				while (workers[i].isAlive()) {
+					try {
+						workers[i].join();
+					} catch (InterruptedException e) {
+						// the entries are needed, keep waiting
+						interrupted = true;
+					}
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		private void detect(PluginParser parser) {
+			for (int i = nextIndex(); i != -1; i = nextIndex())
+				detected[i] = detectPlugin(files[i], compareTimeStamps, parser);
+		}
+
+		private synchronized int nextIndex() {
+			return next < files.length ? next++ : -1;
+		}
 	}
 
 	/**
@@ -645,6 +765,32 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 			detectPlugins();
 		return (PluginEntry[])pluginEntries.toArray(new PluginEntry[pluginEntries.size()]);
 	}
+
+	/**
+	 * Returns the plug-ins detected on the site, or <code>null</code> if
+	 * they were not detected yet. Does not trigger detection.
+	 */
+	synchronized PluginEntry[] getDetectedPluginEntries() {
+		if (pluginEntries == null)
+			return null;
+		return (PluginEntry[])pluginEntries.toArray(new PluginEntry[pluginEntries.size()]);
+	}
+
+	/**
+	 * Returns the time the plug-ins of the site were last detected.
+	 */
+	synchronized long getPluginsDetectionTime() {
+		return pluginsDetectionTime;
+	}
+
+	/**
+	 * Sets the plug-ins of the site to ones detected earlier, as if
+	 * they were detected at the given time.
+	 */
+	synchronized void setDetectedPluginEntries(ArrayList entries, long detectionTime) {
+		pluginEntries = entries;
+		pluginsDetectionTime = detectionTime;
+	}
 	
 	public void loadFromDisk(long lastChange) throws CoreException{
 		featuresChangeStamp = lastChange;
@@ -654,22 +800,22 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 	}
 	
 	/**
-	 * Saves state as xml content in a given parent element
-	 * @param doc
+	 * Writes state as xml content
+	 * @param xmlWriter
 	 */
-	public Element toXML(Document doc) {
+	public void toXML(Writer xmlWriter) throws IOException {
 
-		Element siteElement = doc.createElement(CFG_SITE);
+		Map attributes = new TreeMap();
 		
 		if (getURL() != null) {
 			URL toPersist = (config == null || config.isTransient()) ? getURL() : Utils.makeRelative(Utils.getInstallURL(), getURL());
-			siteElement.setAttribute(CFG_URL, toPersist.toString());
+			attributes.put(CFG_URL, toPersist.toString());
 		}
 		
-		siteElement.setAttribute(CFG_ENABLED, isEnabled() ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
-		siteElement.setAttribute(CFG_UPDATEABLE, isUpdateable() ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		attributes.put(CFG_ENABLED, isEnabled() ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		attributes.put(CFG_UPDATEABLE, isUpdateable() ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
 		if (isExternallyLinkedSite()) 
-			siteElement.setAttribute(CFG_LINK_FILE, getLinkFileName().trim().replace(File.separatorChar, '/')); 
+			attributes.put(CFG_LINK_FILE, getLinkFileName().trim().replace(File.separatorChar, '/')); 
 
 		int type = getSitePolicy().getType();
 		String typeString = CFG_POLICY_TYPE_UNKNOWN;
@@ -678,7 +824,7 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 		} catch (IndexOutOfBoundsException e) {
 			// ignore bad attribute ...
 		}
-		siteElement.setAttribute(CFG_POLICY, typeString); 
+		attributes.put(CFG_POLICY, typeString); 
 		String[] list = getSitePolicy().getList();
 		if (list.length > 0) {
 			StringBuffer sb = new StringBuffer(256);
@@ -687,19 +833,18 @@ public class SiteEntry implements IPlatformConfiguration.ISiteEntry, IConfigurat
 				sb.append(',');
 			}
 			sb.append(list[list.length-1]);
-			siteElement.setAttribute(CFG_LIST, sb.toString());
+			attributes.put(CFG_LIST, sb.toString());
 		}
+		XMLPrintHandler.printBeginElement(xmlWriter, CFG_SITE, attributes);
 //		// note: we don't save features inside the site element.
 		
-		// collect feature entries
+		// write feature entries
 //		configElement.setAttribute(CFG_FEATURE_ENTRY_DEFAULT, defaultFeature);
 		FeatureEntry[] feats = getFeatureEntries();
-		for (int i = 0; i < feats.length; i++) {
-			Element featureElement = feats[i].toXML(doc);
-			siteElement.appendChild(featureElement);
-		}
+		for (int i = 0; i < feats.length; i++)
+			feats[i].toXML(xmlWriter);
 		
-		return siteElement;
+		XMLPrintHandler.printEndElement(xmlWriter, CFG_SITE);
 	}
 	
 	private void validateFeatureEntries() {
@@ -12,6 +12,8 @@
 package org.eclipse.update.internal.configurator;
 
 import java.io.*;
+import java.util.Iterator;
+import java.util.Map;
 
 import org.w3c.dom.*;
 
@@ -34,6 +36,24 @@ public class XMLPrintHandler {
 
 	}
 
+	/**
+	 * Prints the start tag of an element with the given attributes, in the
+	 * iteration order of the map. A <code>TreeMap</code> prints them in name
+	 * order, the order printNode uses for the attributes of a DOM element.
+	 */
+	public static void printBeginElement(Writer xmlWriter, String name, Map attributes) throws IOException{
+		StringBuffer temp = new StringBuffer(name);
+		for (Iterator iter = attributes.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry attribute = (Map.Entry) iter.next();
+			temp.append(wrapAttributeForPrint((String) attribute.getKey(), (String) attribute.getValue()));
+		}
+		printBeginElement(xmlWriter, temp.toString());
+	}
+
+	public static void printText(Writer xmlWriter, String text) throws IOException{
+		xmlWriter.write(encode(text).toString());
+	}
+
 	public static void printEndElement(Writer xmlWriter, String elementString) throws IOException{
 		StringBuffer temp = new StringBuffer(XML_BEGIN_TAG);
 		temp.append(XML_SLASH).append(elementString).append(XML_END_TAG).append("\n"); //$NON-NLS-1$
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2006 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.jarprocessor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Properties;
+import java.util.jar.JarOutputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Unpacks .pack.gz files with the unpacker of the running VM, streaming
+ * the packed file into the jar without starting an unpack200 process.
+ * <p>
+ * The unpacker is only available on Java 5 or later VMs and is looked up
+ * reflectively. When it is not available, when unpack arguments are given
+ * for the file, or when it fails, the unpack200 command is run instead.
+ */
+public class InProcessUnpackStep extends UnpackStep {
+	private static Boolean canUnpackInProcess = null;
+	private static Method newUnpacker = null;
+	private static Method unpack = null;
+
+	/**
+	 * Returns <code>true</code> if .pack.gz files can be unpacked, in
+	 * process or with the unpack200 command.
+	 */
+	public static boolean canUnpack() {
+		return canUnpackInProcess() || UnpackStep.canUnpack();
+	}
+
+	public static synchronized boolean canUnpackInProcess() {
+		if (canUnpackInProcess != null)
+			return canUnpackInProcess.booleanValue();
+
+		canUnpackInProcess = Boolean.FALSE;
+		// a pack200 location or @none asks for the command
+		if (System.getProperty(Utils.PACK200_PROPERTY) != null)
+			return false;
+		try {
+			Class pack200 = Class.forName("java.util.jar.Pack200"); //$NON-NLS-1$
+			Class unpacker = Class.forName("java.util.jar.Pack200$Unpacker"); //$NON-NLS-1$
+			newUnpacker = pack200.getMethod("newUnpacker", new Class[0]); //$NON-NLS-1$
+			unpack = unpacker.getMethod("unpack", new Class[] {InputStream.class, JarOutputStream.class}); //$NON-NLS-1$
+			canUnpackInProcess = Boolean.TRUE;
+		} catch (ClassNotFoundException e) {
+			// not a Java 5 VM
+		} catch (NoSuchMethodException e) {
+			// not a Java 5 VM
+		}
+		return canUnpackInProcess.booleanValue();
+	}
+
+	public InProcessUnpackStep(Properties options) {
+		super(options);
+	}
+
+	public InProcessUnpackStep(Properties options, boolean verbose) {
+		super(options, verbose);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.update.jarprocessor.IProcessStep#recursionEffect(java.lang.String)
+	 */
+	public String recursionEffect(String entryName) {
+		if (canUnpack() && entryName.endsWith(Utils.PACKED_SUFFIX)) {
+			return entryName.substring(0, entryName.length() - Utils.PACKED_SUFFIX.length());
+		}
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.update.jarprocessor.IProcessStep#preProcess(java.io.File, java.io.File)
+	 */
+	public File preProcess(File input, File workingDirectory, List containers) {
+		String name = input.getName();
+		if (canUnpackInProcess() && name.endsWith(Utils.PACKED_SUFFIX) && getOptions().getProperty(name + ".unpack.args") == null) { //$NON-NLS-1$
+			name = name.substring(0, name.length() - Utils.PACKED_SUFFIX.length());
+
+			File unpacked = new File(workingDirectory, name);
+			File parent = unpacked.getParentFile();
+			if (!parent.exists())
+				parent.mkdirs();
+			if (unpack(input, unpacked))
+				return unpacked;
+			unpacked.delete();
+		}
+		return super.preProcess(input, workingDirectory, containers);
+	}
+
+	/*
+	 * Streams the packed file through the VM unpacker into the jar.
+	 */
+	private boolean unpack(File input, File unpacked) {
+		InputStream in = null;
+		JarOutputStream out = null;
+		try {
+			in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(input)));
+			out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(unpacked)));
+			Object unpacker = newUnpacker.invoke(null, new Object[0]);
+			unpack.invoke(unpacker, new Object[] {in, out});
+			out.close();
+			out = null;
+			return true;
+		} catch (InvocationTargetException e) {
+			if (verbose) {
+				System.out.println("Error unpacking " + input.getPath() + ", running unpack200 instead."); //$NON-NLS-1$ //$NON-NLS-2$
+				e.getTargetException().printStackTrace();
+			}
+		} catch (Exception e) {
+			if (verbose) {
+				System.out.println("Error unpacking " + input.getPath() + ", running unpack200 instead."); //$NON-NLS-1$ //$NON-NLS-2$
+				e.printStackTrace();
+			}
+		} finally {
+			Utils.close(in);
+			Utils.close(out);
+		}
+		return false;
+	}
+}
@@ -30,7 +30,7 @@ public class JarProcessor {
 		if (!canPerformUnpack())
 			throw new UnsupportedOperationException();
 		JarProcessor processor = new JarProcessor();
-		processor.addProcessStep(new UnpackStep(properties));
+		processor.addProcessStep(new InProcessUnpackStep(properties));
 		return processor;
 	}
 
@@ -47,7 +47,7 @@ public class JarProcessor {
 	}
 
 	static public boolean canPerformUnpack() {
-		return UnpackStep.canUnpack();
+		return InProcessUnpackStep.canUnpack();
 	}
 
 	public String getWorkingDirectory() {
@@ -12,6 +12,8 @@
 package org.eclipse.update.internal.jarprocessor;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.zip.ZipException;
 import org.eclipse.update.internal.jarprocessor.Main.Options;
@@ -27,6 +29,7 @@ public class JarProcessorExecutor {
 			processor.setUnpack(options.unpack);
 			processor.setVerbose(options.verbose);
 			processor.setProcessAll(options.processAll);
+			processor.setThreads(options.threads);
 			try {
 				processor.processZip(options.input);
 			} catch (ZipException e) {
@@ -37,13 +40,6 @@ public class JarProcessorExecutor {
 					e.printStackTrace();
 			}
 		} else {
-			JarProcessor processor = new JarProcessor();
-			JarProcessor packProcessor = null;
-
-			processor.setWorkingDirectory(options.outputDir);
-			processor.setProcessAll(options.processAll);
-			processor.setVerbose(options.verbose);
-
 			//load options file
 			Properties properties = new Properties();
 			if (options.input.isDirectory()) {
@@ -62,25 +58,15 @@ public class JarProcessorExecutor {
 				}
 			}
 
-			if (options.unpack)
-				addUnpackStep(processor, properties, options);
-
-			if (options.repack || (options.pack && options.signCommand != null))
-				addPackUnpackStep(processor, properties, options);
-
-			if (options.signCommand != null)
-				addSignStep(processor, properties, options);
-
-			if (options.pack) {
-				packProcessor = new JarProcessor();
-				packProcessor.setWorkingDirectory(options.outputDir);
-				packProcessor.setProcessAll(options.processAll);
-				packProcessor.setVerbose(options.verbose);
-				addPackStep(packProcessor, properties, options);
-			}
-
+			FileFilter filter = options.unpack ? Utils.PACK_GZ_FILTER : Utils.JAR_FILTER;
 			try {
-				process(options.input, options.unpack ? Utils.PACK_GZ_FILTER : Utils.JAR_FILTER, options.verbose, processor, packProcessor);
+				if (options.threads > 1) {
+					processInParallel(options, properties, filter);
+				} else {
+					JarProcessor processor = createProcessor(options, properties);
+					JarProcessor packProcessor = createPackProcessor(options, properties);
+					process(options.input, filter, options.verbose, processor, packProcessor);
+				}
 			} catch (FileNotFoundException e) {
 				if (options.verbose)
 					e.printStackTrace();
@@ -88,6 +74,34 @@ public class JarProcessorExecutor {
 		}
 	}
 
+	protected JarProcessor createProcessor(Options options, Properties properties) {
+		JarProcessor processor = new JarProcessor();
+		processor.setWorkingDirectory(options.outputDir);
+		processor.setProcessAll(options.processAll);
+		processor.setVerbose(options.verbose);
+
+		if (options.unpack)
+			addUnpackStep(processor, properties, options);
+
+		if (options.repack || (options.pack && options.signCommand != null))
+			addPackUnpackStep(processor, properties, options);
+
+		if (options.signCommand != null)
+			addSignStep(processor, properties, options);
+		return processor;
+	}
+
+	protected JarProcessor createPackProcessor(Options options, Properties properties) {
+		if (!options.pack)
+			return null;
+		JarProcessor packProcessor = new JarProcessor();
+		packProcessor.setWorkingDirectory(options.outputDir);
+		packProcessor.setProcessAll(options.processAll);
+		packProcessor.setVerbose(options.verbose);
+		addPackStep(packProcessor, properties, options);
+		return packProcessor;
+	}
+
 	protected void process(File input, FileFilter filter, boolean verbose, JarProcessor processor, JarProcessor packProcessor) throws FileNotFoundException {
 		if (!input.exists())
 			throw new FileNotFoundException();
@@ -109,16 +123,83 @@ public class JarProcessorExecutor {
 				if (packProcessor != null)
 					packProcessor.setWorkingDirectory(dir);
 			} else if (filter.accept(files[i])) {
-				try {
-					File result = processor.processJar(files[i]);
-					if (packProcessor != null && result != null && result.exists()) {
-						packProcessor.processJar(result);
+				processJar(files[i], verbose, processor, packProcessor);
+			}
+		}
+	}
+
+	/*
+	 * A jar to process and the directory its results go to.
+	 */
+	private static class Job {
+		File input;
+		String workingDirectory;
+
+		Job(File input, String workingDirectory) {
+			this.input = input;
+			this.workingDirectory = workingDirectory;
+		}
+	}
+
+	/**
+	 * Processes the jars of the input on <code>options.threads</code>
+	 * threads. Each thread has its own processors, as they keep the state
+	 * of the jar being processed, and takes the next jar once done with
+	 * one. The results go to the same directories as when processing the
+	 * jars one by one.
+	 */
+	protected void processInParallel(final Options options, final Properties properties, FileFilter filter) throws FileNotFoundException {
+		final List jobs = new ArrayList();
+		collectJobs(options.input, filter, options.outputDir, jobs);
+		final int[] next = new int[1];
+		Runnable worker = new Runnable() {
+			public void run() {
+				JarProcessor processor = createProcessor(options, properties);
+				JarProcessor packProcessor = createPackProcessor(options, properties);
+				while (true) {
+					Job job;
+					synchronized (next) {
+						if (next[0] == jobs.size())
+							return;
+						job = (Job) jobs.get(next[0]++);
 					}
-				} catch (IOException e) {
-					if (verbose)
-						e.printStackTrace();
+					processor.setWorkingDirectory(job.workingDirectory);
+					if (packProcessor != null)
+						packProcessor.setWorkingDirectory(job.workingDirectory);
+					processJar(job.input, options.verbose, processor, packProcessor);
 				}
 			}
+		};
+		Utils.runWorkers(worker, Math.min(options.threads, jobs.size()));
+	}
+
+	private void collectJobs(File input, FileFilter filter, String workingDirectory, List jobs) throws FileNotFoundException {
+		if (!input.exists())
+			throw new FileNotFoundException();
+
+		File[] files = null;
+		if (input.isDirectory()) {
+			files = input.listFiles();
+		} else if (filter.accept(input)) {
+			files = new File[] {input};
+		}
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].isDirectory())
+				collectJobs(files[i], filter, workingDirectory + "/" + files[i].getName(), jobs); //$NON-NLS-1$
+			else if (filter.accept(files[i]))
+				jobs.add(new Job(files[i], workingDirectory));
+		}
+	}
+
+	private void processJar(File input, boolean verbose, JarProcessor processor, JarProcessor packProcessor) {
+		try {
+			File result = processor.processJar(input);
+			if (packProcessor != null && result != null && result.exists()) {
+				packProcessor.processJar(result);
+			}
+		} catch (IOException e) {
+			if (verbose)
+				e.printStackTrace();
 		}
 	}
 
@@ -135,6 +216,6 @@ public class JarProcessorExecutor {
 	}
 
 	public void addUnpackStep(JarProcessor processor, Properties properties, Options options) {
-		processor.addProcessStep(new UnpackStep(properties, options.verbose));
+		processor.addProcessStep(new InProcessUnpackStep(properties, options.verbose));
 	}
 }
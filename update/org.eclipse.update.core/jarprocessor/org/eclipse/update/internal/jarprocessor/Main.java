@@ -22,6 +22,7 @@ public class Main {
 		public boolean unpack = false;
 		public boolean verbose = false;
 		public boolean processAll = false;
+		public int threads = 1;
 		public File input = null;
 	}
 
@@ -39,6 +40,7 @@ public class Main {
 		System.out.println();
 		System.out.println("-outputDir <dir>  the output directory"); //$NON-NLS-1$
 		System.out.println("-verbose        verbose mode "); //$NON-NLS-1$
+		System.out.println("-threads <n>    process up to <n> jars at the same time"); //$NON-NLS-1$
 	}
 
 	public static Options processArguments(String[] args) {
@@ -72,7 +74,14 @@ public class Main {
 				options.verbose = true;
 			}  else if (args[i].equals("-processAll")) { //$NON-NLS-1$
 				options.processAll = true;
-			} 
+			} else if (args[i].equals("-threads") && i < args.length - 2) { //$NON-NLS-1$
+				try {
+					options.threads = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					printUsage();
+					return null;
+				}
+			}
 		}
 
 		options.input = new File(args[i]);
@@ -25,7 +25,7 @@ public class PackStep extends CommandStep {
 
 	private Set exclusions = Collections.EMPTY_SET;
 
-	public static boolean canPack() {
+	public static synchronized boolean canPack() {
 		if (canPack != null)
 			return canPack.booleanValue();
 
@@ -24,7 +24,7 @@ public class UnpackStep extends CommandStep {
 	private static Boolean canUnpack = null;
 	private static String unpackCommand = null;
 
-	public static boolean canUnpack() {
+	public static synchronized boolean canUnpack() {
 		if (canUnpack != null)
 			return canUnpack.booleanValue();
 
@@ -148,6 +148,37 @@ public class Utils {
 		}
 	}
 
+	/**
+	 * Runs the worker on the given number of threads, the calling thread
+	 * being one of them, and returns once all of them are done. The worker
+	 * is expected to take its jobs from a queue shared by the threads, so
+	 * a thread done with a small jar takes the next one.
+	 *
+	 * @param worker
+	 * @param threads
+	 */
+	public static void runWorkers(Runnable worker, int threads) {
+		Thread[] workers = new Thread[Math.max(0, threads - 1)];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(worker, "JarProcessor " + i); //$NON-NLS-1$
+			workers[i].start();
+		}
+		worker.run();
+		boolean interrupted = false;
+		for (int i = 0; i < workers.length; i++) {
+			while (true) {
+				try {
+					workers[i].join();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
 	/**
 	 * Deletes all the files and directories from the given root down (inclusive).
 	 * Returns false if we could not delete some file or an exception occurred
@@ -36,6 +36,7 @@ public class ZipProcessor {
 	private boolean unpacking = false;
 	private boolean verbose = false;
 	private boolean processAll = false;
+	private int threads = 1;
 
 	public void setWorkingDirectory(String dir) {
 		workingDirectory = dir;
@@ -72,138 +73,49 @@ public class ZipProcessor {
 		this.processAll = all;
 	}
 
+	/**
+	 * Sets the number of entries processed at the same time.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
 	public void processZip(File zipFile) throws ZipException, IOException {
 		if (verbose)
 			System.out.println("Processing " + zipFile.getPath()); //$NON-NLS-1$
 		ZipFile zip = new ZipFile(zipFile);
 		initialize(zip);
 
-		String extension = unpacking ? "pack.gz" : ".jar"; //$NON-NLS-1$ //$NON-NLS-2$
 		File tempDir = new File(getWorkingDirectory(), "temp_" + zipFile.getName()); //$NON-NLS-1$
-		JarProcessor processor = new JarProcessor();
-		processor.setVerbose(verbose);
-		processor.setProcessAll(processAll);
-		processor.setWorkingDirectory(tempDir.getCanonicalPath());
-		if (unpacking) {
-			processor.addProcessStep(unpackStep);
-		}
+		JarProcessor processor = createProcessor(tempDir);
 
 		File outputFile = new File(getWorkingDirectory(), zipFile.getName() + ".temp"); //$NON-NLS-1$
 		File parent = outputFile.getParentFile();
 		if (!parent.exists())
 			parent.mkdirs();
 		ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(outputFile));
-		Enumeration entries = zip.entries();
-		if (entries.hasMoreElements()) {
-			for (ZipEntry entry = (ZipEntry) entries.nextElement(); entry != null; entry = entries.hasMoreElements() ? (ZipEntry) entries.nextElement() : null) {
-				String name = entry.getName();
-
-				InputStream entryStream = zip.getInputStream(entry);
-
-				boolean pack = packing && !packExclusions.contains(name);
-				boolean sign = signing && !signExclusions.contains(name);
-				boolean repack = repacking && !packExclusions.contains(name);
-
-				File extractedFile = null;
-
-				if (entry.getName().endsWith(extension) && (pack || sign || repack || unpacking)) {
-					extractedFile = new File(tempDir, name);
-					parent = extractedFile.getParentFile();
-					if (!parent.exists())
-						parent.mkdirs();
-					if (verbose)
-						System.out.println("Extracting " + entry.getName()); //$NON-NLS-1$
-					FileOutputStream extracted = new FileOutputStream(extractedFile);
-					Utils.transferStreams(entryStream, extracted, true); // this will close the stream
-					entryStream = null;
-
-					boolean skip = Utils.shouldSkipJar(extractedFile, processAll, verbose);
-					if (skip) {
-						//skipping this file 
-						entryStream = new FileInputStream(extractedFile);
-						if (verbose)
-							System.out.println(entry.getName() + " is not marked, skipping."); //$NON-NLS-1$
-					} else {
-						if (unpacking) {
-							File result = processor.processJar(extractedFile);
-							name = name.substring(0, name.length() - extractedFile.getName().length()) + result.getName();
-							extractedFile = result;
-						} else {
-							if (repack || sign) {
-								processor.clearProcessSteps();
-								if (repack)
-									processor.addProcessStep(packUnpackStep);
-								if (sign)
-									processor.addProcessStep(signStep);
-								extractedFile = processor.processJar(extractedFile);
-							}
-							if (pack) {
-								processor.clearProcessSteps();
-								processor.addProcessStep(packStep);
-								File modifiedFile = processor.processJar(extractedFile);
-								if (modifiedFile.exists()) {
-									try {
-										String newName = name.substring(0, name.length() - extractedFile.getName().length()) + modifiedFile.getName();
-										if (verbose) {
-											System.out.println("Adding " + newName + " to " + outputFile.getPath()); //$NON-NLS-1$ //$NON-NLS-2$
-											System.out.println();
-										}
-										ZipEntry zipEntry = new ZipEntry(newName);
-										entryStream = new FileInputStream(modifiedFile);
-										zipOut.putNextEntry(zipEntry);
-										Utils.transferStreams(entryStream, zipOut, false); //we want to keep zipOut open
-										entryStream.close();
-										Utils.clear(modifiedFile);
-									} catch (IOException e) {
-										Utils.close(entryStream);
-										if (verbose) {
-											e.printStackTrace();
-											System.out.println("Warning: Problem reading " + modifiedFile.getPath() + ".");
-										}
-									}
-									entryStream = null;
-								} else if (verbose) {
-									System.out.println("Warning: " + modifiedFile.getPath() + " not found.");
-								}
-							}
-						}
-						if (extractedFile.exists()) {
-							try {
-								entryStream = new FileInputStream(extractedFile);
-							} catch (IOException e) {
-								if (verbose) {
-									e.printStackTrace();
-									System.out.println("Warning: Problem reading " + extractedFile.getPath() + ".");
-								}
-							}
-						}
-
-						if (verbose && entryStream != null) {
-							System.out.println("Adding " + name + " to " + outputFile.getPath()); //$NON-NLS-1$ //$NON-NLS-2$
-						}
-					}
-				}
-				if (entryStream != null) {
-					ZipEntry newEntry = new ZipEntry(name);
-					try {
-						zipOut.putNextEntry(newEntry);
-						Utils.transferStreams(entryStream, zipOut, false);
-						zipOut.closeEntry();
-					} catch (ZipException e) {
-						if(verbose) {
-							System.out.println("Warning: " + name + " already exists in " + outputFile.getName() + ".  Skipping.");
-						}
-					}
-					entryStream.close();
-				}
+		List entries = Collections.list(zip.entries());
+		Object[] processed = null;
+		if (threads > 1)
+			processed = processEntries(zip, entries, tempDir);
+		for (int i = 0; i < entries.size(); i++) {
+			ZipEntry entry = (ZipEntry) entries.get(i);
+			ProcessedEntry result;
+			if (processed == null) {
+				result = processEntry(zip, entry, processor, tempDir);
+			} else if (processed[i] instanceof IOException) {
+				throw (IOException) processed[i];
+			} else if (processed[i] instanceof RuntimeException) {
+				throw (RuntimeException) processed[i];
+			} else {
+				result = (ProcessedEntry) processed[i];
+			}
+			// entries are written in the order of the input zip
+			writeEntry(zip, entry, result, zipOut, outputFile);
 
-				if (extractedFile != null)
-					Utils.clear(extractedFile);
-				
-				if (verbose) {
-					System.out.println();
-					System.out.println("Processing " + zipFile.getPath()); //$NON-NLS-1$
-				}
+			if (verbose) {
+				System.out.println();
+				System.out.println("Processing " + zipFile.getPath()); //$NON-NLS-1$
 			}
 		}
 		zipOut.close();
@@ -216,6 +128,185 @@ public class ZipProcessor {
 		Utils.clear(tempDir);
 	}
 
+	/*
+	 * The files to add to the output zip for an entry, in order, with
+	 * their entry names.
+	 */
+	private static class ProcessedEntry {
+		List names = new ArrayList();
+		List files = new ArrayList();
+		// the extracted file, deleted once written
+		File extractedFile;
+
+		void add(String name, File file) {
+			names.add(name);
+			files.add(file);
+		}
+	}
+
+	private JarProcessor createProcessor(File workingDirectory) throws IOException {
+		JarProcessor processor = new JarProcessor();
+		processor.setVerbose(verbose);
+		processor.setProcessAll(processAll);
+		processor.setWorkingDirectory(workingDirectory.getCanonicalPath());
+		if (unpacking) {
+			processor.addProcessStep(unpackStep);
+		}
+		return processor;
+	}
+
+	/*
+	 * Processes the entries on several threads, each with its own
+	 * JarProcessor. The result for each entry is its ProcessedEntry, or
+	 * the exception thrown processing it.
+	 */
+	private Object[] processEntries(final ZipFile zip, final List entries, final File tempDir) {
+		final Object[] processed = new Object[entries.size()];
+		final int[] next = new int[1];
+		Runnable worker = new Runnable() {
+			public void run() {
+				JarProcessor processor = null;
+				while (true) {
+					int i;
+					synchronized (next) {
+						if (next[0] == entries.size())
+							return;
+						i = next[0]++;
+					}
+					try {
+						// jars with the same name in different folders are processed in different directories
+						File workingDir = new File(tempDir, "entry_" + i); //$NON-NLS-1$
+						if (processor == null)
+							processor = createProcessor(workingDir);
+						else
+							processor.setWorkingDirectory(workingDir.getCanonicalPath());
+						processed[i] = processEntry(zip, (ZipEntry) entries.get(i), processor, tempDir);
+					} catch (IOException e) {
+						processed[i] = e;
+					} catch (RuntimeException e) {
+						processed[i] = e;
+					}
+				}
+			}
+		};
+		Utils.runWorkers(worker, Math.min(threads, entries.size()));
+		return processed;
+	}
+
+	/*
+	 * Extracts and processes the entry if it is a jar to process.
+	 * @return the files to add for the entry, or null if the entry is
+	 * copied unchanged
+	 */
+	private ProcessedEntry processEntry(ZipFile zip, ZipEntry entry, JarProcessor processor, File tempDir) throws IOException {
+		String extension = unpacking ? "pack.gz" : ".jar"; //$NON-NLS-1$ //$NON-NLS-2$
+		String name = entry.getName();
+
+		boolean pack = packing && !packExclusions.contains(name);
+		boolean sign = signing && !signExclusions.contains(name);
+		boolean repack = repacking && !packExclusions.contains(name);
+
+		if (!entry.getName().endsWith(extension) || !(pack || sign || repack || unpacking))
+			return null;
+
+		ProcessedEntry result = new ProcessedEntry();
+		File extractedFile = new File(tempDir, name);
+		File parent = extractedFile.getParentFile();
+		if (!parent.exists())
+			parent.mkdirs();
+		if (verbose)
+			System.out.println("Extracting " + entry.getName()); //$NON-NLS-1$
+		FileOutputStream extracted = new FileOutputStream(extractedFile);
+		Utils.transferStreams(zip.getInputStream(entry), extracted, true); // this will close the stream
+		result.extractedFile = extractedFile;
+
+		boolean skip = Utils.shouldSkipJar(extractedFile, processAll, verbose);
+		if (skip) {
+			//skipping this file 
+			result.add(name, extractedFile);
+			if (verbose)
+				System.out.println(entry.getName() + " is not marked, skipping."); //$NON-NLS-1$
+			return result;
+		}
+
+		if (unpacking) {
+			File unpacked = processor.processJar(extractedFile);
+			name = name.substring(0, name.length() - extractedFile.getName().length()) + unpacked.getName();
+			extractedFile = unpacked;
+		} else {
+			if (repack || sign) {
+				processor.clearProcessSteps();
+				if (repack)
+					processor.addProcessStep(packUnpackStep);
+				if (sign)
+					processor.addProcessStep(signStep);
+				extractedFile = processor.processJar(extractedFile);
+			}
+			if (pack) {
+				processor.clearProcessSteps();
+				processor.addProcessStep(packStep);
+				File modifiedFile = processor.processJar(extractedFile);
+				if (modifiedFile.exists()) {
+					String newName = name.substring(0, name.length() - extractedFile.getName().length()) + modifiedFile.getName();
+					result.add(newName, modifiedFile);
+				} else if (verbose) {
+					System.out.println("Warning: " + modifiedFile.getPath() + " not found.");
+				}
+			}
+		}
+		if (extractedFile.exists())
+			result.add(name, extractedFile);
+		return result;
+	}
+
+	/*
+	 * Adds the files of the processed entry to the output zip, or copies
+	 * the entry if it was not processed, and deletes the processed files.
+	 */
+	private void writeEntry(ZipFile zip, ZipEntry entry, ProcessedEntry processed, ZipOutputStream zipOut, File outputFile) throws IOException {
+		if (processed == null) {
+			InputStream entryStream = zip.getInputStream(entry);
+			if (entryStream != null)
+				addEntry(entry.getName(), entryStream, zipOut, outputFile);
+			return;
+		}
+		for (int i = 0; i < processed.files.size(); i++) {
+			String name = (String) processed.names.get(i);
+			File file = (File) processed.files.get(i);
+			InputStream entryStream = null;
+			try {
+				entryStream = new FileInputStream(file);
+			} catch (IOException e) {
+				if (verbose) {
+					e.printStackTrace();
+					System.out.println("Warning: Problem reading " + file.getPath() + ".");
+				}
+			}
+			if (entryStream != null) {
+				if (verbose)
+					System.out.println("Adding " + name + " to " + outputFile.getPath()); //$NON-NLS-1$ //$NON-NLS-2$
+				addEntry(name, entryStream, zipOut, outputFile);
+			}
+			Utils.clear(file);
+		}
+		Utils.clear(processed.extractedFile);
+	}
+
+	private void addEntry(String name, InputStream entryStream, ZipOutputStream zipOut, File outputFile) throws IOException {
+		ZipEntry newEntry = new ZipEntry(name);
+		try {
+			zipOut.putNextEntry(newEntry);
+			Utils.transferStreams(entryStream, zipOut, false);
+			zipOut.closeEntry();
+		} catch (ZipException e) {
+			if(verbose) {
+				System.out.println("Warning: " + name + " already exists in " + outputFile.getName() + ".  Skipping.");
+			}
+		} finally {
+			entryStream.close();
+		}
+	}
+
 	private void initialize(ZipFile zip) {
 		ZipEntry entry = zip.getEntry("pack.properties"); //$NON-NLS-1$
 		properties = new Properties();
@@ -238,6 +329,6 @@ public class ZipProcessor {
 		packUnpackStep = new PackUnpackStep(properties, verbose);
 		packStep = new PackStep(properties, verbose);
 		signStep = new SignCommandStep(properties, command, verbose);
-		unpackStep = new UnpackStep(properties, verbose);
+		unpackStep = new InProcessUnpackStep(properties, verbose);
 	}
 }
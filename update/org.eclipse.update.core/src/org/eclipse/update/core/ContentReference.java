@@ -162,14 +162,39 @@ public class ContentReference {
 	 * @since 2.0
 	 */
 	InputStream getPartialInputStream(long offset) throws IOException {
+		return getPartialInputStream(offset, 0);
+	}
+
+	/**
+	 * Creates an input stream for the remainder of the reference, provided
+	 * the referenced content was not modified since the given time.
+	 * If the server does not honor the range, the stream is not returned
+	 * and the reference can still be read from the beginning.
+	 * 
+	 * @param offset number of bytes already available
+	 * @param lastModified last modification time of the bytes already
+	 * available, or <code>0</code> if unknown
+	 * @return input stream
+	 * @exception IOException unable to create stream
+	 */
+	InputStream getPartialInputStream(long offset, long lastModified) throws IOException {
 		if (url != null && "http".equals(url.getProtocol())) { //$NON-NLS-1$
 			URL resolvedURL = URLEncoder.encode(url);
-			response = ConnectionFactory.get(resolvedURL);
-			if(response instanceof HttpResponse)
-				((HttpResponse)response).setOffset(offset);
-			UpdateManagerUtils.checkConnectionResult(response,resolvedURL);
-			InputStream is = response.getInputStream();
-			length=offset + response.getContentLength();
+			// keep the full response, it is still needed if the range is refused
+			IResponse partialResponse = ConnectionFactory.get(resolvedURL);
+			if(partialResponse instanceof HttpResponse) {
+				((HttpResponse)partialResponse).setOffset(offset);
+				((HttpResponse)partialResponse).setRangeValidator(lastModified);
+			}
+			UpdateManagerUtils.checkConnectionResult(partialResponse,resolvedURL);
+			InputStream is;
+			try {
+				is = partialResponse.getInputStream();
+			} catch (IOException e) {
+				partialResponse.close();
+				throw e;
+			}
+			length=offset + partialResponse.getContentLength();
 			return is;
 		} else
 			throw new FatalIOException(NLS.bind(Messages.ContentReference_UnableToCreateInputStream, (new String[] { this.toString() })));
@@ -35,6 +35,7 @@ import org.eclipse.update.internal.core.ErrorRecoveryLog;
 import org.eclipse.update.internal.core.InstallHandlerProxy;
 import org.eclipse.update.internal.core.InstallRegistry;
 import org.eclipse.update.internal.core.Messages;
+import org.eclipse.update.internal.core.PluginArchiveDownloader;
 import org.eclipse.update.internal.core.TargetFeature;
 import org.eclipse.update.internal.core.UpdateCore;
 import org.eclipse.update.internal.core.UpdateManagerUtils;
@@ -372,13 +373,20 @@ public class Feature extends FeatureModel implements IFeature {
 				true);
 			monitorWork(monitor, 1);
 			
-			// Download and verify plugin archives
-			for (int i = 0; i < pluginsToInstall.length; i++) {
-				references = provider.getPluginEntryArchiveReferences(
-						pluginsToInstall[i], monitor);
-				verifyReferences(verifier, references, monitor,
-								verificationListener, false);
-				monitorWork(monitor, 1);
+			// Download and verify plugin archives. Downloads run ahead
+			// on background threads while archives are verified here
+			PluginArchiveDownloader downloader = new PluginArchiveDownloader(
+					provider, pluginsToInstall, getDownloadParallelism(), monitor);
+			downloader.start();
+			try {
+				while (downloader.hasNext()) {
+					references = downloader.next();
+					verifyReferences(verifier, references, monitor,
+									verificationListener, false);
+					monitorWork(monitor, 1);
+				}
+			} finally {
+				downloader.cancel();
 			}
 			
 			handler.pluginsDownloaded(pluginsToInstall);
@@ -953,6 +961,16 @@ public class Feature extends FeatureModel implements IFeature {
 		}
 	}
 
+	/*
+	 * Number of plug-in archives downloaded concurrently
+	 */
+	private int getDownloadParallelism() {
+		UpdateCore plugin = UpdateCore.getPlugin();
+		if (plugin == null)
+			return 1;
+		return plugin.getPluginPreferences().getInt(UpdateCore.P_DOWNLOAD_THREADS);
+	}
+
 	/*
 	 * 
 	 */
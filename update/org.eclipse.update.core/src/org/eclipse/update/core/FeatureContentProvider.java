@@ -14,10 +14,13 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -34,12 +37,16 @@ import org.eclipse.update.core.model.ContentEntryModel;
 import org.eclipse.update.core.model.InstallAbortedException;
 import org.eclipse.update.core.model.NonPluginEntryModel;
 import org.eclipse.update.core.model.PluginEntryModel;
+import org.eclipse.update.internal.core.ArtifactStore;
+import org.eclipse.update.internal.core.DownloadMonitor;
 import org.eclipse.update.internal.core.FatalIOException;
 import org.eclipse.update.internal.core.FeatureDownloadException;
 import org.eclipse.update.internal.core.FileFragment;
+import org.eclipse.update.internal.core.FileFragmentStore;
 import org.eclipse.update.internal.core.InternalSiteManager;
 import org.eclipse.update.internal.core.LockManager;
 import org.eclipse.update.internal.core.Messages;
+import org.eclipse.update.internal.core.MirrorRanking;
 import org.eclipse.update.internal.core.UpdateCore;
 import org.eclipse.update.internal.core.UpdateManagerUtils;
 
@@ -116,6 +123,45 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 
 	}
 
+	/*
+	 * Remembers a failure to write the local file, so it is not taken
+	 * for a failure of the source the bytes come from.
+	 */
+	private static class LocalOutputStream extends FilterOutputStream {
+		IOException failure;
+
+		LocalOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		public void write(int b) throws IOException {
+			try {
+				out.write(b);
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			}
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			try {
+				out.write(b, off, len);
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			}
+		}
+
+		public void flush() throws IOException {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			}
+		}
+	}
+
 	private URL base;
 	private IFeature feature;
 	private File tmpDir; // local work area for each provider
@@ -183,6 +229,56 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 		if (ref.isLocalReference())
 			return ref;
 
+		// download from the best mirror, failing over to the next ones;
+		// a partial download is resumed from the next mirror
+		ISite site = (getFeature() == null) ? null : getFeature().getSite();
+		URL[] sources = MirrorRanking.getSources(site, ref.asURL());
+		for (int i = 0;; i++) {
+			ContentReference source = (i == 0 && sources.length == 1) ? ref : new ContentReference(ref.getIdentifier(), sources[i]);
+			try {
+				return asLocalReference(ref, source, monitor);
+			} catch (CoreException e) {
+				// connection problems and HTTP errors such as 404 alike,
+				// local problems are the same whatever the source
+				if (!isSourceFailure(e) || !failOver(sources, i, monitor, e))
+					throw e;
+			} catch (FatalIOException e) {
+				if (!failOver(sources, i, monitor, e))
+					throw e;
+			}
+		}
+	}
+
+	/*
+	 * Returns true if the download failed because of the source, when
+	 * it could not be reached or stopped sending the content.
+	 */
+	private boolean isSourceFailure(CoreException e) {
+		if (e instanceof InstallAbortedException)
+			return false;
+		return e instanceof FeatureDownloadException || e.getStatus().getException() instanceof FatalIOException;
+	}
+
+	/*
+	 * Records the failure of the source and returns true if the
+	 * download should go on with the next one.
+	 */
+	private boolean failOver(URL[] sources, int i, InstallMonitor monitor, Exception e) {
+		if (monitor != null && monitor.isCanceled())
+			return false;
+		MirrorRanking.failed(sources[i]);
+		if (i + 1 >= sources.length)
+			return false;
+		UpdateCore.warn("Unable to download " + sources[i] + ", trying " + sources[i + 1], e); //$NON-NLS-1$ //$NON-NLS-2$
+		return true;
+	}
+
+	/*
+	 * Downloads the reference from the given source, which is either
+	 * the reference itself or the same content on a mirror.
+	 */
+	private ContentReference asLocalReference(ContentReference ref, ContentReference source, InstallMonitor monitor) throws IOException, CoreException {
+
 		// check to see if we already have a local file for this reference
 		String key = ref.toString();
 
@@ -207,21 +303,32 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 			}
 
 			if (localFile == null) {
+				// versioned archives downloaded before are reused as is
+				File storedFile = ArtifactStore.lookup(ArtifactStore.getSiteURL(getFeature()), ref);
+				if (storedFile != null) {
+					LockManager.returnLock(key);
+					UpdateCore.getPlugin().getUpdateSession().markVisited(ref.asURL());
+					return ref.createContentReference(ref.getIdentifier(), storedFile);
+				}
 				localFileFragment = UpdateManagerUtils.lookupLocalFileFragment(key);
 			}
 			// 
 			// download the referenced file into local temporary area
 			InputStream is = null;
 			OutputStream os = null;
+			LocalOutputStream localStream = null;
 			long bytesCopied = 0;
 			long inputLength = 0;
+			long expectedLength = -1;
+			long remoteLastModified = 0;
+			boolean resumed = false;
 			boolean success = false;
 			if (monitor != null) {
 				monitor.saveState();
 				monitor.setTaskName(Messages.FeatureContentProvider_Downloading);
 				monitor.subTask(ref.getIdentifier() + " "); //$NON-NLS-1$
 				try {
-					monitor.setTotalCount(ref.getInputSize());
+					monitor.setTotalCount(source.getInputSize());
 				} catch (FatalIOException e) {
 					throw e;
 				} catch (IOException e) {
@@ -232,17 +339,24 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 
 			try {
 				//long startTime = System.nanoTime();
-				if (localFileFragment != null && "http".equals(ref.asURL().getProtocol())) { //$NON-NLS-1$
+				if (localFileFragment != null && "http".equals(source.asURL().getProtocol())) { //$NON-NLS-1$
 					localFile = localFileFragment.getFile();
 					try {
-						// get partial input stream
-						is = ref.getPartialInputStream(localFileFragment.getSize());
-						inputLength = ref.getInputSize() - localFileFragment.getSize();
+						// a fragment of another version of the file cannot be resumed
+						if (localFileFragment.getLength() > 0 && localFileFragment.getLength() != source.getInputSize())
+							throw new IOException(Messages.HttpResponse_wrongRange);
+						// get partial input stream, the server sends no range if
+						// the file was modified since the fragment was downloaded
+						is = source.getPartialInputStream(localFileFragment.getSize(), localFileFragment.getLastModified());
+						inputLength = source.getInputSize() - localFileFragment.getSize();
 						// get output stream to append to file fragment
-						os = new BufferedOutputStream(
+						os = localStream = new LocalOutputStream(new BufferedOutputStream(
 						// PAL foundation
 								//new FileOutputStream(localFile, true));
-								new FileOutputStream(localFile.getPath(), true));
+								new FileOutputStream(localFile.getPath(), true)));
+						expectedLength = localFileFragment.getLength();
+						remoteLastModified = localFileFragment.getLastModified();
+						resumed = true;
 					} catch (FatalIOException e) {
 						throw e;
 					} catch (IOException e) {
@@ -253,16 +367,22 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 						}
 						is = null;
 						os = null;
+						// the server does not honor ranges or the file changed,
+						// fall back to a full download
+						UpdateManagerUtils.unMapLocalFileFragment(key);
+						localFile.delete();
 						localFileFragment = null;
-						throw new FeatureDownloadException(NLS.bind(Messages.FeatureContentProvider_ExceptionDownloading, (new Object[] {getURL().toExternalForm()})), e);
 					}
 				}
 				if (is == null) {
-					// must download from scratch
-					localFile = Utilities.createLocalFile(getWorkingDirectory(), null);
+					// must download from scratch, if possible where an
+					// interrupted download can be resumed in a later session
+					localFile = FileFragmentStore.createFile();
+					if (localFile == null)
+						localFile = Utilities.createLocalFile(getWorkingDirectory(), null);
 					try {
-						is = ref.getInputStream();
-						inputLength = ref.getInputSize();
+						is = source.getInputStream();
+						inputLength = source.getInputSize();
 					} catch (FatalIOException e) {
 						throw Utilities.newCoreException(NLS.bind(Messages.FeatureContentProvider_UnableToRetrieve, (new Object[] {ref})), e);
 					} catch (IOException e) {
@@ -270,12 +390,27 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 					}
 
 					try {
-						os = new BufferedOutputStream(new FileOutputStream(localFile));
+						os = localStream = new LocalOutputStream(new BufferedOutputStream(new FileOutputStream(localFile)));
 					} catch (FileNotFoundException e) {
 						throw Utilities.newCoreException(NLS.bind(Messages.FeatureContentProvider_UnableToCreate, (new Object[] {localFile})), e);
 					}
+					expectedLength = inputLength;
+					remoteLastModified = source.getLastModified();
+					if ("http".equals(source.asURL().getProtocol())) //$NON-NLS-1$
+						// recorded now so the download can be resumed if interrupted
+						UpdateManagerUtils.mapLocalFileFragment(key, new FileFragment(localFile, 0, expectedLength, remoteLastModified));
 				}
 
+				// archives kept in the artifact store are digested while downloaded;
+				// a resumed download is digested when stored
+				MessageDigest digest = resumed ? null : ArtifactStore.createDigest(ref);
+				if (digest != null)
+					os = new DigestOutputStream(os, digest);
+
+				// a download on a background thread is aborted by closing its stream
+				if (monitor instanceof DownloadMonitor)
+					((DownloadMonitor) monitor).setInputStream(is);
+
 				Date start = new Date();
 				if (localFileFragment != null) {
 					bytesCopied = localFileFragment.getSize();
@@ -290,29 +425,50 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 					bytesCopied += offset;
 					if (bytesCopied > 0) {
 						// preserve partially downloaded file
-						UpdateManagerUtils.mapLocalFileFragment(key, new FileFragment(localFile, bytesCopied));
+						UpdateManagerUtils.mapLocalFileFragment(key, new FileFragment(localFile, bytesCopied, expectedLength, remoteLastModified));
 					}
 					if (monitor != null && monitor.isCanceled()) {
 						String msg = Messages.Feature_InstallationCancelled;
 						throw new InstallAbortedException(msg, null);
+					} else if (localStream.failure != null) {
+						// a full disk, for instance, is no reason to try another source
+						throw Utilities.newCoreException(NLS.bind(Messages.FeatureContentProvider_UnableToCreate, (new Object[] {localFile})), localStream.failure);
 					} else {
 						throw new FeatureDownloadException(NLS.bind(Messages.FeatureContentProvider_ExceptionDownloading, (new Object[] {getURL().toExternalForm()})), new IOException());
 					}
 				} else {
 					UpdateManagerUtils.unMapLocalFileFragment(key);
 				}
+				os.close();
+				os = null;
+
+				if (resumed && !FileFragmentStore.isComplete(localFile, expectedLength, ref instanceof JarContentReference)) {
+					// the fragment did not match the rest of the file, discard
+					// it so the next attempt starts from the beginning
+					is.close();
+					is = null;
+					bytesCopied = 0;
+					localFileFragment = null;
+					throw new FeatureDownloadException(NLS.bind(Messages.FeatureContentProvider_ExceptionDownloading, (new Object[] {getURL().toExternalForm()})), new IOException());
+				}
 
 				Date stop = new Date();
 				long timeInseconds = (stop.getTime() - start.getTime()) / 1000;
 				// time in milliseconds /1000 = time in seconds
 				InternalSiteManager.downloaded(
-					ref.getInputSize(),
+					source.getInputSize(),
 					(timeInseconds),
-					ref.asURL());
+					source.asURL());
+				MirrorRanking.downloaded(source.asURL(), inputLength, stop.getTime() - start.getTime());
 
 				success = true;
 				//long endTime = System.nanoTime();
-				// file is downloaded succesfully, map it
+				// file is downloaded succesfully, keep it and map it
+				localFile.setLastModified(source.getLastModified());
+				File storedFile = ArtifactStore.store(ArtifactStore.getSiteURL(getFeature()), ref, localFile, digest == null ? null : ArtifactStore.toHex(digest.digest()));
+				if (storedFile == localFile)
+					localFile.deleteOnExit();
+				localFile = storedFile;
 				Utilities.mapLocalFile(key, localFile);
 				
 				/*if (ref.asURL().toExternalForm().endsWith("jar")) {
@@ -344,8 +500,14 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 				if (success || bytesCopied > 0) {
 					// set the timestamp on the temp file to match the remote
 					// timestamp
-					localFile.setLastModified(ref.getLastModified());
+					localFile.setLastModified(source.getLastModified());
+				} else if (localFile != null && localFileFragment == null) {
+					// nothing worth keeping
+					UpdateManagerUtils.unMapLocalFileFragment(key);
+					localFile.delete();
 				}
+				if (monitor instanceof DownloadMonitor)
+					((DownloadMonitor) monitor).setInputStream(null);
 				if (monitor != null)
 					monitor.restoreState();
 			}
@@ -386,7 +548,7 @@ public abstract class FeatureContentProvider implements IFeatureContentProvider
 	 * @exception IOException
 	 * @since 2.0
 	 */
-	protected File getWorkingDirectory() throws IOException {
+	protected synchronized File getWorkingDirectory() throws IOException {
 		if (tmpDir == null)
 			tmpDir = Utilities.createWorkingDirectory();
 		return tmpDir;
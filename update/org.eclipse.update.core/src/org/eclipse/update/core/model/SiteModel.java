@@ -386,7 +386,7 @@ public class SiteModel extends ModelObject {
 		
 		if ( (this instanceof ExtendedSite) && ((ExtendedSite)this).isDigestExist()) {
 			ExtendedSite extendedSite = (ExtendedSite)this;
-			extendedSite.setLiteFeatures(UpdateManagerUtils.getLightFeatures(extendedSite));
+			extendedSite.setDigestIndex(UpdateManagerUtils.getDigestIndex(extendedSite));
 		}
 	}
 
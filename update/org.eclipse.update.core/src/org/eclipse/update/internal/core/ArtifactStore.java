@@ -0,0 +1,471 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import org.eclipse.update.core.ContentReference;
+import org.eclipse.update.core.IFeature;
+import org.eclipse.update.core.JarContentReference;
+import org.eclipse.update.internal.jarprocessor.Utils;
+
+/**
+ * Persistent store of downloaded feature and plug-in archives.
+ * <p>
+ * Archives are kept in the <code>artifacts</code> directory of the update
+ * state location, in files named after the SHA-256 digest of their content,
+ * so identical bytes are stored once. An index maps the URL of the site and
+ * the archive identifier, which carries the id and version of the feature or
+ * plug-in, to the digest, size and last access time of the archive. A versioned archive never changes,
+ * so an archive found in the store is used without contacting the server;
+ * repeated installs, reverts and other configurations sharing the state
+ * location reuse the bytes instead of downloading them again.
+ * <p>
+ * The store is bounded by the <code>artifactStoreSize</code> preference, in
+ * megabytes. The least recently used archives are evicted first. A size of
+ * <code>0</code> disables the store.
+ */
+public class ArtifactStore {
+
+	private static final String STORE_DIR = "artifacts"; //$NON-NLS-1$
+	private static final String INDEX_FILE = "index.properties"; //$NON-NLS-1$
+	private static final String TEMP_PREFIX = "artifact"; //$NON-NLS-1$
+	private static final String DIGEST_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+	private static final int BUFFER_SIZE = 8192;
+
+	// site URL and identifier -> StoredArtifact, loaded lazily
+	private static Map index;
+	private static File storeDir;
+	// access times not saved yet
+	private static boolean dirty;
+	// digests of the archives looked up or stored in this session, which
+	// running installs may still use
+	private static Set used = new HashSet();
+
+	private static class StoredArtifact {
+		String digest;
+		long size;
+		long lastAccess;
+
+		StoredArtifact(String digest, long size, long lastAccess) {
+			this.digest = digest;
+			this.size = size;
+			this.lastAccess = lastAccess;
+		}
+
+		String toProperty() {
+			return digest + "," + size + "," + lastAccess; //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		static StoredArtifact fromProperty(String value) {
+			StringTokenizer tokenizer = new StringTokenizer(value, ","); //$NON-NLS-1$
+			if (tokenizer.countTokens() != 3)
+				return null;
+			try {
+				return new StoredArtifact(tokenizer.nextToken(), Long.parseLong(tokenizer.nextToken()), Long.parseLong(tokenizer.nextToken()));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the reference denotes a versioned
+	 * archive that can be kept in the store.
+	 */
+	public static boolean isStorable(ContentReference ref) {
+		if (!(ref instanceof JarContentReference) || ref.getIdentifier() == null || ref.getIdentifier().length() == 0)
+			return false;
+		try {
+			// packed archives are unpacked in place and never reused as such
+			URL url = ref.asURL();
+			if (url == null || url.getFile().endsWith(Utils.PACKED_SUFFIX))
+				return false;
+		} catch (IOException e) {
+			return false;
+		}
+		return getMaximumSize() > 0;
+	}
+
+	/**
+	 * Returns the URL of the site of the feature, which the archives of the
+	 * feature are stored for, or <code>null</code> if it is not known.
+	 */
+	public static URL getSiteURL(IFeature feature) {
+		if (feature == null || feature.getSite() == null)
+			return null;
+		return feature.getSite().getURL();
+	}
+
+	/*
+	 * Returns the index key of the archive, or null if it cannot be stored.
+	 * Archives of different sites may have the same identifier.
+	 */
+	private static String getKey(URL site, ContentReference ref) {
+		if (site == null || !isStorable(ref))
+			return null;
+		return site.toExternalForm() + " " + ref.getIdentifier(); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the stored archive for the reference, or <code>null</code>
+	 * if the store does not hold it. The archive is trusted if it still
+	 * has the size it was stored with, since it is named after its digest.
+	 *
+	 * @param site the URL of the site the archive comes from
+	 * @param ref the reference of the archive
+	 */
+	public static synchronized File lookup(URL site, ContentReference ref) {
+		String key = getKey(site, ref);
+		if (key == null || !loadIndex())
+			return null;
+		StoredArtifact artifact = (StoredArtifact) index.get(key);
+		if (artifact == null)
+			return null;
+		File file = new File(storeDir, artifact.digest);
+		if (file.length() != artifact.size) {
+			// removed or damaged behind our back
+			index.remove(key);
+			dirty = true;
+			return null;
+		}
+		used.add(artifact.digest);
+		// saved with the next store, or on shutdown
+		artifact.lastAccess = System.currentTimeMillis();
+		dirty = true;
+		return file;
+	}
+
+	/**
+	 * Returns the digest of the file if it is an archive of the store,
+	 * known by its name and size, or <code>null</code>.
+	 */
+	public static synchronized String getStoredDigest(File file) {
+		if (storeDir == null || !storeDir.equals(file.getParentFile()))
+			return null;
+		String digest = file.getName();
+		long length = file.length();
+		for (Iterator iter = index.values().iterator(); iter.hasNext();) {
+			StoredArtifact artifact = (StoredArtifact) iter.next();
+			if (artifact.digest.equals(digest))
+				return (artifact.size == length) ? digest : null;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a digest to compute while the archive for the reference is
+	 * downloaded, and to pass to {@link #store(URL, ContentReference, File, String)},
+	 * or <code>null</code> if the archive cannot be stored.
+	 */
+	public static MessageDigest createDigest(ContentReference ref) {
+		if (!isStorable(ref))
+			return null;
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Moves the downloaded archive into the store. The archive is copied
+	 * if it cannot be moved, and the given file is deleted once stored.
+	 *
+	 * @param site the URL of the site the archive comes from
+	 * @param ref the reference the archive was downloaded for
+	 * @param file the downloaded archive
+	 * @param digest the hex encoded digest of the archive computed while
+	 * downloading it, or <code>null</code> if it is not known
+	 * @return the stored archive, or the given file if it could not be stored
+	 */
+	public static File store(URL site, ContentReference ref, File file, String digest) {
+		String key = getKey(site, ref);
+		File dir;
+		synchronized (ArtifactStore.class) {
+			if (key == null || !loadIndex())
+				return file;
+			dir = storeDir;
+		}
+		try {
+			// digested and copied without the lock, so archives
+			// downloaded in parallel are stored in parallel
+			if (digest == null)
+				digest = getDigest(file);
+			if (digest == null)
+				return file;
+			synchronized (ArtifactStore.class) {
+				File stored = new File(dir, digest);
+				if (stored.exists() && stored.length() == file.length()) {
+					// same bytes already stored under another identifier
+					file.delete();
+					return added(key, digest, stored);
+				}
+				stored.delete();
+				if (file.renameTo(stored))
+					return added(key, digest, stored);
+			}
+			// on another file system, copied without the lock
+			File temp = File.createTempFile(TEMP_PREFIX, null, dir);
+			try {
+				copy(file, temp);
+			} catch (IOException e) {
+				temp.delete();
+				throw e;
+			}
+			synchronized (ArtifactStore.class) {
+				File stored = new File(dir, digest);
+				stored.delete();
+				if (!temp.renameTo(stored)) {
+					temp.delete();
+					return file;
+				}
+				stored.setLastModified(file.lastModified());
+				file.delete();
+				return added(key, digest, stored);
+			}
+		} catch (IOException e) {
+			UpdateCore.warn("Unable to store " + ref.getIdentifier() + " in " + storeDir, e); //$NON-NLS-1$ //$NON-NLS-2$
+			return file;
+		}
+	}
+
+	/*
+	 * Records the archive just stored, called with the lock held.
+	 */
+	private static File added(String key, String digest, File stored) {
+		used.add(digest);
+		index.put(key, new StoredArtifact(digest, stored.length(), System.currentTimeMillis()));
+		evict();
+		saveIndex();
+		return stored;
+	}
+
+	private static void copy(File source, File target) throws IOException {
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(source));
+			out = new BufferedOutputStream(new FileOutputStream(target));
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int len;
+			while ((len = in.read(buffer)) != -1)
+				out.write(buffer, 0, len);
+		} finally {
+			if (in != null)
+				in.close();
+			if (out != null)
+				out.close();
+		}
+	}
+
+	/**
+	 * Returns the hex encoded SHA-256 digest of the content of the file.
+	 * The content is always read.
+	 *
+	 * @return the digest, or <code>null</code> if it cannot be computed
+	 */
+	public static String getDigest(File file) {
+		InputStream in = null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			in = new DigestInputStream(new BufferedInputStream(new FileInputStream(file)), digest);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (in.read(buffer) != -1) {
+				// digest the content
+			}
+			return toHex(digest.digest());
+		} catch (IOException e) {
+			return null;
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the hex encoding of the bytes.
+	 */
+	public static String toHex(byte[] bytes) {
+		StringBuffer buffer = new StringBuffer(bytes.length * 2);
+		for (int i = 0; i < bytes.length; i++) {
+			buffer.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+			buffer.append(Character.forDigit(bytes[i] & 0xf, 16));
+		}
+		return buffer.toString();
+	}
+
+	/*
+	 * Removes the least recently used archives until the store
+	 * fits in its maximum size.
+	 */
+	private static void evict() {
+		long maximumSize = getMaximumSize();
+		// archives shared by several identifiers are only counted once
+		Map sizes = new HashMap();
+		for (Iterator iter = index.values().iterator(); iter.hasNext();) {
+			StoredArtifact artifact = (StoredArtifact) iter.next();
+			sizes.put(artifact.digest, new Long(artifact.size));
+		}
+		long total = 0;
+		for (Iterator iter = sizes.values().iterator(); iter.hasNext();)
+			total += ((Long) iter.next()).longValue();
+		if (total <= maximumSize)
+			return;
+
+		List entries = new ArrayList(index.entrySet());
+		Collections.sort(entries, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				long t1 = ((StoredArtifact) ((Map.Entry) o1).getValue()).lastAccess;
+				long t2 = ((StoredArtifact) ((Map.Entry) o2).getValue()).lastAccess;
+				return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+			}
+		});
+		for (Iterator iter = entries.iterator(); iter.hasNext() && total > maximumSize;) {
+			Map.Entry entry = (Map.Entry) iter.next();
+			StoredArtifact artifact = (StoredArtifact) entry.getValue();
+			if (used.contains(artifact.digest))
+				continue;
+			index.remove(entry.getKey());
+			if (!isReferenced(artifact.digest)) {
+				new File(storeDir, artifact.digest).delete();
+				total -= artifact.size;
+			}
+		}
+	}
+
+	private static boolean isReferenced(String digest) {
+		for (Iterator iter = index.values().iterator(); iter.hasNext();) {
+			if (((StoredArtifact) iter.next()).digest.equals(digest))
+				return true;
+		}
+		return false;
+	}
+
+	private static long getMaximumSize() {
+		UpdateCore plugin = UpdateCore.getPlugin();
+		if (plugin == null)
+			return 0;
+		return plugin.getPluginPreferences().getLong(UpdateCore.P_ARTIFACT_STORE_SIZE) * 1024 * 1024;
+	}
+
+	/*
+	 * Loads the index on first use. Returns false if there is
+	 * no usable store location.
+	 */
+	private static boolean loadIndex() {
+		if (index != null)
+			return true;
+		File location = UpdateCore.getUpdateStateLocation();
+		if (location == null)
+			return false;
+		File dir = new File(location, STORE_DIR);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			return false;
+
+		Properties properties = new Properties();
+		File indexFile = new File(dir, INDEX_FILE);
+		if (indexFile.exists()) {
+			InputStream in = null;
+			try {
+				in = new FileInputStream(indexFile);
+				properties.load(in);
+			} catch (IOException e) {
+				UpdateCore.warn("Unable to read artifact store index " + indexFile, e); //$NON-NLS-1$
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+		Map loaded = new HashMap();
+		for (Enumeration keys = properties.propertyNames(); keys.hasMoreElements();) {
+			String identifier = (String) keys.nextElement();
+			StoredArtifact artifact = StoredArtifact.fromProperty(properties.getProperty(identifier));
+			if (artifact != null)
+				loaded.put(identifier, artifact);
+		}
+		// remove leftovers of interrupted stores
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			String name = files[i].getName();
+			if (name.startsWith(TEMP_PREFIX) && name.endsWith(".tmp")) //$NON-NLS-1$
+				files[i].delete();
+		}
+		storeDir = dir;
+		index = loaded;
+		return true;
+	}
+
+	/**
+	 * Saves the access times recorded since the index was last saved.
+	 */
+	public static synchronized void shutdown() {
+		if (index != null && dirty)
+			saveIndex();
+	}
+
+	private static void saveIndex() {
+		dirty = false;
+		Properties properties = new Properties();
+		for (Iterator iter = index.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry entry = (Map.Entry) iter.next();
+			properties.setProperty((String) entry.getKey(), ((StoredArtifact) entry.getValue()).toProperty());
+		}
+		File indexFile = new File(storeDir, INDEX_FILE);
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(indexFile);
+			properties.store(out, null);
+		} catch (IOException e) {
+			UpdateCore.warn("Unable to save artifact store index " + indexFile, e); //$NON-NLS-1$
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
@@ -10,44 +10,73 @@
  *******************************************************************************/
 package org.eclipse.update.internal.core;
 
-import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.eclipse.core.runtime.CoreException;
-import org.eclipse.update.core.JarContentReference;
-import org.eclipse.update.core.model.FeatureModel;
+import org.eclipse.update.internal.core.connection.ConnectionFactory;
+import org.eclipse.update.internal.core.connection.IResponse;
 import org.xml.sax.SAXException;
 
 public class Digest {
 	
 	private URL source;
-	private File localSource;
-	private JarFile digestJar;
-	private InputStream inputStream;
 	
 
 	public Digest(URL source){
 		this.source = source;
 	}
 	
-	public FeatureModel[] parseDigest() throws IOException, CoreException, SAXException {
-		DigestContentProvider digestContentProvider = new DigestContentProvider(source);
-		localSource = digestContentProvider.asLocalReference(new JarContentReference( null, source), null).asFile();
-		digestJar = new JarFile(localSource);
-		
-		ZipEntry digestEntry = digestJar.getEntry("digest.xml"); //$NON-NLS-1$
-		
-		if (digestEntry != null) {
-			inputStream = digestJar.getInputStream(digestEntry);
-			DigestParser digest = new DigestParser();
-			digest.init(new LiteFeatureFactory());
-			return digest.parse(inputStream);
+	/**
+	 * Reads the digest into an index of its features, which are only
+	 * parsed when looked up.
+	 */
+	public DigestIndex parseIndex() throws IOException, CoreException, SAXException {
+		InputStream inputStream = openDigestEntry();
+		try {
+			return DigestIndex.parse(inputStream);
+		} finally {
+			close(inputStream);
+		}
+	}
+
+	/*
+	 * Returns the digest archive as a stream positioned on its digest.xml
+	 * entry. The archive is read as it arrives rather than copied to a
+	 * local file first, unless the HTTP metadata cache already keeps it.
+	 */
+	private InputStream openDigestEntry() throws IOException, CoreException {
+		InputStream in;
+		if (HttpMetadataCache.isCacheable(source)) {
+			HttpMetadataCache.Entry entry = HttpMetadataCache.get(source, null);
+			if (entry == null)
+				throw new IOException("Connection canceled: " + source); //$NON-NLS-1$
+			in = new FileInputStream(entry.getFile());
 		} else {
-			throw new CoreException(null);
+			URL resolvedURL = URLEncoder.encode(source);
+			IResponse response = ConnectionFactory.get(resolvedURL);
+			UpdateManagerUtils.checkConnectionResult(response, resolvedURL);
+			in = response.getInputStream();
+		}
+
+		ZipInputStream zip = new ZipInputStream(in);
+		ZipEntry digestEntry;
+		while ((digestEntry = zip.getNextEntry()) != null) {
+			if (digestEntry.getName().equals("digest.xml")) //$NON-NLS-1$
+				return zip;
+		}
+		close(zip);
+		throw new CoreException(null);
+	}
+
+	private void close(InputStream inputStream) {
+		try {
+			inputStream.close();
+		} catch (IOException e) {
 		}
 	}
 
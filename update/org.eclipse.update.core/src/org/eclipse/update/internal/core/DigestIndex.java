@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2006 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.eclipse.update.core.VersionedIdentifier;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Index of the features of a site digest.
+ * <p>
+ * The digest is read once, as a stream, and each feature is only kept as
+ * its identifier and version and its <code>feature</code> element,
+ * written back as compressed XML. The <code>LiteFeature</code> of a
+ * feature is parsed from that element the first time it is asked for, so
+ * the features a search never looks at cost a few hundred bytes each
+ * instead of a full feature model.
+ */
+public class DigestIndex extends DefaultHandler {
+
+	private static final String FEATURE = "feature"; //$NON-NLS-1$
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	private final static SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+	static {
+		parserFactory.setNamespaceAware(true);
+	}
+
+	private static class Entry {
+		VersionedIdentifier versionedIdentifier;
+		byte[] xml;
+		LiteFeature feature;
+	}
+
+	// entries in digest order
+	private List entries = new ArrayList();
+	// VersionedIdentifier -> Entry
+	private Map entriesById = new HashMap();
+	private DigestParser parser;
+
+	// the feature element being read
+	private Deflater deflater;
+	private ByteArrayOutputStream bytes;
+	private Writer writer;
+	private Entry current;
+	// depth of the element being read in the feature element
+	private int depth;
+
+	/**
+	 * Reads the digest.xml content from the stream. The stream is not
+	 * closed.
+	 */
+	public static DigestIndex parse(InputStream in) throws SAXException, IOException {
+		DigestIndex index = new DigestIndex();
+		index.deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			parserFactory.newSAXParser().parse(new InputSource(in), index);
+		} catch (ParserConfigurationException e) {
+			throw new SAXException(e);
+		} finally {
+			index.deflater.end();
+			index.deflater = null;
+		}
+		return index;
+	}
+
+	private DigestIndex() {
+	}
+
+	/**
+	 * Returns the identifiers of the features, in digest order. A feature
+	 * without identifier is kept in its place as <code>null</code>.
+	 */
+	public VersionedIdentifier[] getVersionedIdentifiers() {
+		VersionedIdentifier[] result = new VersionedIdentifier[entries.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = ((Entry) entries.get(i)).versionedIdentifier;
+		return result;
+	}
+
+	/**
+	 * Returns the feature with the given identifier, parsing it the first
+	 * time.
+	 *
+	 * @return the feature, or <code>null</code> if the digest does not
+	 * have it or it cannot be parsed
+	 */
+	public synchronized LiteFeature getFeature(VersionedIdentifier versionedIdentifier) {
+		Entry entry = (Entry) entriesById.get(versionedIdentifier);
+		if (entry == null)
+			return null;
+		if (entry.feature == null && entry.xml != null) {
+			InputStream in = new InflaterInputStream(new ByteArrayInputStream(entry.xml));
+			try {
+				if (parser == null)
+					parser = new DigestParser();
+				parser.init(new LiteFeatureFactory());
+				LiteFeature[] features = parser.parse(in);
+				if (features.length > 0)
+					entry.feature = features[0];
+			} catch (SAXException e) {
+				UpdateCore.warn("Unable to parse digest entry for " + versionedIdentifier, e); //$NON-NLS-1$
+			} catch (IOException e) {
+				UpdateCore.warn("Unable to parse digest entry for " + versionedIdentifier, e); //$NON-NLS-1$
+			}
+			// parsed once, whatever the outcome
+			entry.xml = null;
+		}
+		return entry.feature;
+	}
+
+	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+		if (current == null) {
+			if (!FEATURE.equals(localName))
+				return;
+			current = new Entry();
+			try {
+				current.versionedIdentifier = new VersionedIdentifier(attributes.getValue("id"), attributes.getValue("version")); //$NON-NLS-1$ //$NON-NLS-2$
+			} catch (IllegalArgumentException e) {
+				// no identifier, the feature is listed but cannot be looked up
+				UpdateCore.warn("Digest feature without identifier", e); //$NON-NLS-1$
+			}
+			depth = 0;
+			deflater.reset();
+			bytes = new ByteArrayOutputStream();
+			try {
+				writer = new OutputStreamWriter(new DeflaterOutputStream(bytes, deflater), UTF_8);
+			} catch (IOException e) {
+				throw new SAXException(e);
+			}
+		}
+		depth++;
+		StringBuffer element = new StringBuffer();
+		element.append('<').append(qName);
+		for (int i = 0; i < attributes.getLength(); i++) {
+			element.append(' ').append(attributes.getQName(i)).append("=\""); //$NON-NLS-1$
+			escape(element, attributes.getValue(i));
+			element.append('"');
+		}
+		element.append('>');
+		write(element.toString());
+	}
+
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		if (current == null)
+			return;
+		write("</" + qName + ">"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (--depth > 0)
+			return;
+		try {
+			writer.close();
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+		if (current.versionedIdentifier == null) {
+			// kept so the list of features does not change
+			entries.add(current);
+		} else if (!entriesById.containsKey(current.versionedIdentifier)) {
+			// the first of duplicate features wins, as in a lookup of the full list
+			current.xml = bytes.toByteArray();
+			entries.add(current);
+			entriesById.put(current.versionedIdentifier, current);
+		}
+		current = null;
+		writer = null;
+		bytes = null;
+	}
+
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		if (current != null) {
+			StringBuffer text = new StringBuffer(length + 10);
+			escape(text, new String(ch, start, length));
+			write(text.toString());
+		}
+	}
+
+	/*
+	 * Escapes the markup characters only, the writer encodes the others.
+	 */
+	private static void escape(StringBuffer buffer, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '<' :
+					buffer.append("&lt;"); //$NON-NLS-1$
+					break;
+				case '>' :
+					buffer.append("&gt;"); //$NON-NLS-1$
+					break;
+				case '&' :
+					buffer.append("&amp;"); //$NON-NLS-1$
+					break;
+				case '"' :
+					buffer.append("&quot;"); //$NON-NLS-1$
+					break;
+				default :
+					buffer.append(c);
+			}
+		}
+	}
+
+	private void write(String s) throws SAXException {
+		try {
+			writer.write(s);
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+	}
+}
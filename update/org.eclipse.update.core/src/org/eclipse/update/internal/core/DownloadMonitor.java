@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.update.core.InstallMonitor;
+
+/**
+ * Install monitor of a download running on a background thread.
+ * <p>
+ * Task names, sub tasks and work are forwarded to the install monitor of
+ * the operation, which several downloads share, under its lock. The
+ * stream being downloaded is closed when the download is aborted, so a
+ * read blocked on a stalled connection returns at once instead of
+ * waiting for the read timeout.
+ */
+public class DownloadMonitor extends InstallMonitor {
+
+	private InputStream stream;
+	private boolean aborted;
+
+	private static class ForwardingMonitor implements IProgressMonitor {
+		private InstallMonitor parent;
+		private DownloadMonitor download;
+
+		ForwardingMonitor(InstallMonitor parent) {
+			this.parent = parent;
+		}
+
+		public void beginTask(String name, int totalWork) {
+			// the operation owns the task
+		}
+
+		public void done() {
+			// the operation owns the task
+		}
+
+		public void internalWorked(double work) {
+			synchronized (parent) {
+				parent.internalWorked(work);
+			}
+		}
+
+		public boolean isCanceled() {
+			return download.isAborted() || parent.isCanceled();
+		}
+
+		public void setCanceled(boolean value) {
+			if (value)
+				download.abort();
+		}
+
+		public void setTaskName(String name) {
+			synchronized (parent) {
+				parent.setTaskName(name);
+			}
+		}
+
+		public void subTask(String name) {
+			synchronized (parent) {
+				parent.subTask(name);
+			}
+		}
+
+		public void worked(int work) {
+			synchronized (parent) {
+				parent.worked(work);
+			}
+		}
+	}
+
+	/**
+	 * @param parent the install monitor of the operation
+	 */
+	public DownloadMonitor(InstallMonitor parent) {
+		super(new ForwardingMonitor(parent));
+		((ForwardingMonitor) monitor).download = this;
+	}
+
+	/**
+	 * Records the stream being downloaded, or <code>null</code> once the
+	 * download is over. A stream set after the download was aborted is
+	 * closed at once.
+	 */
+	public void setInputStream(InputStream stream) {
+		synchronized (this) {
+			if (!aborted) {
+				this.stream = stream;
+				return;
+			}
+		}
+		close(stream);
+	}
+
+	/**
+	 * Aborts the download, closing the stream it reads.
+	 */
+	public void abort() {
+		InputStream toClose;
+		synchronized (this) {
+			aborted = true;
+			toClose = stream;
+			stream = null;
+		}
+		close(toClose);
+	}
+
+	public synchronized boolean isAborted() {
+		return aborted;
+	}
+
+	private static void close(InputStream stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				// the reading thread gets the error
+			}
+		}
+	}
+}
@@ -11,8 +11,12 @@
 package org.eclipse.update.internal.core;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.update.core.ISiteFeatureReference;
 import org.eclipse.update.core.IURLEntry;
 import org.eclipse.update.core.VersionedIdentifier;
 import org.eclipse.update.internal.model.SiteWithTimestamp;
@@ -23,7 +27,7 @@ public class ExtendedSite extends SiteWithTimestamp /*Site*/ {
 	private String[] availableLocals;
 	private String digestURL;
 	private LiteFeature[] liteFeatures;
-	private LiteFeature[] allLiteFeatures;
+	private DigestIndex digestIndex;
 	private IURLEntry[] associateSites;
 	private boolean pack200 = false;
 	private IURLEntry selectedMirror;
@@ -54,37 +58,64 @@ public class ExtendedSite extends SiteWithTimestamp /*Site*/ {
 		else 
 			return getNonFilteredLiteFeatures();
 	}
-	public void setLiteFeatures(LiteFeature[] liteFeatures) {
-		
-		if ((liteFeatures == null) || (liteFeatures.length == 0))
+	/**
+	 * Sets the index of the site digest. The features of the digest are
+	 * only parsed when they are asked for.
+	 */
+	public synchronized void setDigestIndex(DigestIndex digestIndex) {
+		if (digestIndex == null)
 			return;
-		this.allLiteFeatures = liteFeatures;
-		List temp = new ArrayList();
-		for(int i = 0; i < allLiteFeatures.length ; i++) {
-			if (getFeatureReference(allLiteFeatures[i]) != null) {
-				temp.add(allLiteFeatures[i]);
-			}
-		}
-		if (!temp.isEmpty()) {
-			this.liteFeatures = (LiteFeature[])temp.toArray( new LiteFeature[temp.size()]);
-		}
+		this.digestIndex = digestIndex;
 	}
 	
 	public LiteFeature getLiteFeature(VersionedIdentifier vid) {
-		if (allLiteFeatures == null)
-			return null;
-		
-		for(int i = 0; i < allLiteFeatures.length ; i++) {
-			if (vid.equals(allLiteFeatures[i].getVersionedIdentifier())) {
-				return allLiteFeatures[i];
-			}
-		}
-		return null;
+		return getIndexedFeature(vid);
 	}
 	
-	public LiteFeature[] getNonFilteredLiteFeatures() {
+	public synchronized LiteFeature[] getNonFilteredLiteFeatures() {
+		if (liteFeatures == null && digestIndex != null) {
+			// the digest features the site references, in digest order
+			Set referenced = new HashSet();
+			ISiteFeatureReference[] references = getFeatureReferences();
+			for (int i = 0; i < references.length; i++) {
+				try {
+					referenced.add(references[i].getVersionedIdentifier());
+				} catch (CoreException e) {
+					UpdateCore.warn(null, e);
+				}
+			}
+			VersionedIdentifier[] vids = digestIndex.getVersionedIdentifiers();
+			List temp = new ArrayList();
+			for (int i = 0; i < vids.length; i++) {
+				if (!referenced.contains(vids[i]))
+					continue;
+				LiteFeature feature = getIndexedFeature(vids[i]);
+				if (feature != null)
+					temp.add(feature);
+			}
+			if (!temp.isEmpty()) {
+				this.liteFeatures = (LiteFeature[])temp.toArray( new LiteFeature[temp.size()]);
+			}
+		}
 		return liteFeatures;
 	}
+	/*
+	 * Returns the feature of the digest index, parsing it and setting its
+	 * site the first time.
+	 */
+	private synchronized LiteFeature getIndexedFeature(VersionedIdentifier vid) {
+		if (digestIndex == null)
+			return null;
+		LiteFeature feature = digestIndex.getFeature(vid);
+		if (feature != null && feature.getSite() == null) {
+			try {
+				feature.setSite(this);
+			} catch (CoreException e) {
+				UpdateCore.warn(null, e);
+			}
+		}
+		return feature;
+	}
 	public void setNonFilteredLiteFeatures(LiteFeature[] liteFeatures) {
 		this.liteFeatures = liteFeatures;
 	}
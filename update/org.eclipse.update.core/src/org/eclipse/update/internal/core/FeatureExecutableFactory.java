@@ -11,6 +11,7 @@
 package org.eclipse.update.internal.core;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -59,7 +60,10 @@ public class FeatureExecutableFactory extends BaseFeatureFactory {
 
 			URL nonResolvedURL = contentProvider.getFeatureManifestReference(null).asURL();
 			URL resolvedURL = URLEncoder.encode(nonResolvedURL);
-			featureStream = ConnectionFactory.get(resolvedURL).getInputStream();
+			if (HttpMetadataCache.isCacheable(nonResolvedURL))
+				featureStream = new FileInputStream(HttpMetadataCache.get(nonResolvedURL, null).getFile());
+			else
+				featureStream = ConnectionFactory.get(resolvedURL).getInputStream();
 
 			feature = (TargetFeature) this.parseFeature(featureStream, resolvedURL.toExternalForm());
 			monitor.worked(1);
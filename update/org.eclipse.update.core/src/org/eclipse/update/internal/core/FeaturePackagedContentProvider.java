@@ -202,6 +202,12 @@ public class FeaturePackagedContentProvider extends FeatureContentProvider {
 			return contentReference;
 		}
 		
+		File storedFile = ArtifactStore.lookup(ArtifactStore.getSiteURL(getFeature()), reference);
+		if (storedFile != null) {
+			UpdateCore.getPlugin().getUpdateSession().markVisited(reference.asURL());
+			return reference.createContentReference(reference.getIdentifier(), storedFile);
+		}
+
 		ContentReference packedRef = null;
 		String key = reference.toString();
 		Object jarLock = LockManager.getLock(key);
@@ -275,6 +281,7 @@ public class FeaturePackagedContentProvider extends FeatureContentProvider {
 					if(tempFile.exists() && tempFile.length() > 0){
 						success = true;
 						tempFile.setLastModified(timeStamp);
+						tempFile = ArtifactStore.store(ArtifactStore.getSiteURL(getFeature()), reference, tempFile, null);
 						Utilities.mapLocalFile(key, tempFile);
 						UpdateCore.getPlugin().getUpdateSession().markVisited(reference.asURL());
 					}
@@ -17,9 +17,23 @@ import java.io.*;
 public class FileFragment{
 	private File file;
 	private long bytes;
+	private long length;
+	private long lastModified;
 	public FileFragment(File file, long size){
+		this(file, size, -1, 0);
+	}
+	/**
+	 * @param file the partially downloaded file
+	 * @param size number of bytes downloaded
+	 * @param length expected size of the complete file, or <code>-1</code>
+	 * @param lastModified last modification time of the remote file,
+	 * or <code>0</code>
+	 */
+	public FileFragment(File file, long size, long length, long lastModified){
 		this.file=file;
 		this.bytes=size;
+		this.length=length;
+		this.lastModified=lastModified;
 	}
 	public File getFile(){
 		return file;
@@ -27,4 +41,18 @@ public class FileFragment{
 	public long getSize(){
 		return bytes;
 	}
+	/**
+	 * Returns the expected size of the complete file, or <code>-1</code>
+	 * if unknown.
+	 */
+	public long getLength(){
+		return length;
+	}
+	/**
+	 * Returns the last modification time of the remote file the fragment
+	 * was downloaded from, or <code>0</code> if unknown.
+	 */
+	public long getLastModified(){
+		return lastModified;
+	}
 }
@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Partially downloaded files, kept so an interrupted download can be
+ * resumed with a range request instead of starting over.
+ * <p>
+ * Downloads are written to the <code>downloads</code> directory of the
+ * update state location. A fragment whose expected size and remote
+ * modification time are known is recorded in an index as soon as its
+ * download starts, so it survives a crash or restart. The bytes on disk
+ * are always a valid prefix of the remote file, so the size of a
+ * fragment is the current size of its file. Fragments without those
+ * validators, or outside the downloads directory, only live for the
+ * session. Fragments not resumed within <code>MAX_AGE</code> are
+ * discarded.
+ * <p>
+ * The index is written when a download is interrupted and on shutdown,
+ * not each time a download starts or ends. Other sessions sharing the
+ * configuration may be downloading into the same directory, so files
+ * missing from the index are only deleted after <code>ORPHAN_AGE</code>,
+ * and the entries of other sessions are kept when the index is saved.
+ */
+public class FileFragmentStore {
+
+	private static final String STORE_DIR = "downloads"; //$NON-NLS-1$
+	private static final String INDEX_FILE = "fragments.properties"; //$NON-NLS-1$
+	private static final String FILE_PREFIX = "download"; //$NON-NLS-1$
+	private static final long MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+	// files of no fragment untouched for this long are not being written
+	private static final long ORPHAN_AGE = 24L * 60 * 60 * 1000;
+	private static final int BUFFER_SIZE = 8192;
+
+	// key -> Fragment
+	private static Map fragments = new HashMap();
+	private static File storeDir;
+	private static boolean loaded;
+	// fragments not saved yet
+	private static boolean dirty;
+	// keys forgotten in this session, dropped from the saved index
+	private static Set removed = new HashSet();
+
+	private static class Fragment {
+		FileFragment fragment;
+		long saved;
+
+		Fragment(FileFragment fragment, long saved) {
+			this.fragment = fragment;
+			this.saved = saved;
+		}
+
+		boolean isPersistent() {
+			return storeDir != null && storeDir.equals(fragment.getFile().getParentFile()) && fragment.getLength() > 0 && fragment.getLastModified() > 0;
+		}
+
+		String toProperty() {
+			return fragment.getFile().getName() + "," + fragment.getLength() + "," + fragment.getLastModified() + "," + saved; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+
+		static Fragment fromProperty(String value) {
+			StringTokenizer tokenizer = new StringTokenizer(value, ","); //$NON-NLS-1$
+			if (tokenizer.countTokens() != 4)
+				return null;
+			try {
+				File file = new File(storeDir, tokenizer.nextToken());
+				long length = Long.parseLong(tokenizer.nextToken());
+				long lastModified = Long.parseLong(tokenizer.nextToken());
+				FileFragment fragment = new FileFragment(file, file.length(), length, lastModified);
+				return new Fragment(fragment, Long.parseLong(tokenizer.nextToken()));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Creates a new empty file for a download. The file is not deleted
+	 * on exit, so it can be resumed in a later session.
+	 *
+	 * @return the new file, or <code>null</code> if there is no usable
+	 * downloads directory
+	 */
+	public static synchronized File createFile() throws IOException {
+		if (!load())
+			return null;
+		return File.createTempFile(FILE_PREFIX, null, storeDir);
+	}
+
+	/**
+	 * Records the fragment of the download associated with the key.
+	 */
+	public static synchronized void put(String key, FileFragment fragment) {
+		load();
+		Fragment entry = new Fragment(fragment, System.currentTimeMillis());
+		Fragment previous = (Fragment) fragments.put(key, entry);
+		removed.remove(key);
+		if (entry.isPersistent() || (previous != null && previous.isPersistent())) {
+			dirty = true;
+			// an interrupted download is saved at once, in case of a crash
+			if (fragment.getSize() > 0)
+				save();
+		}
+	}
+
+	/**
+	 * Forgets the fragment associated with the key. The file itself
+	 * is left alone.
+	 */
+	public static synchronized void remove(String key) {
+		load();
+		Fragment fragment = (Fragment) fragments.remove(key);
+		if (fragment != null && fragment.isPersistent()) {
+			removed.add(key);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Returns the fragment associated with the key, or <code>null</code>.
+	 */
+	public static synchronized FileFragment get(String key) {
+		load();
+		Fragment entry = (Fragment) fragments.get(key);
+		if (entry == null)
+			return null;
+		FileFragment fragment = entry.fragment;
+		long size = fragment.getFile().length();
+		if (size <= 0 || (fragment.getLength() > 0 && size > fragment.getLength())) {
+			remove(key);
+			return null;
+		}
+		return new FileFragment(fragment.getFile(), size, fragment.getLength(), fragment.getLastModified());
+	}
+
+	/**
+	 * Saves the fragments recorded since the index was last saved.
+	 */
+	public static synchronized void shutdown() {
+		if (dirty)
+			save();
+	}
+
+	/**
+	 * Returns <code>true</code> if the resumed download is complete and
+	 * intact: its size is the expected one and, for an archive, every
+	 * entry can be read back with a matching checksum.
+	 *
+	 * @param file the downloaded file
+	 * @param length the expected size, or <code>-1</code> if unknown
+	 * @param archive <code>true</code> if the file is a zip archive
+	 */
+	public static boolean isComplete(File file, long length, boolean archive) {
+		if (length > 0 && file.length() != length)
+			return false;
+		if (!archive)
+			return true;
+		ZipInputStream in = null;
+		try {
+			// entry checksums are verified as the entries are read
+			in = new ZipInputStream(new BufferedInputStream(new FileInputStream(file)));
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int entries = 0;
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				if (!entry.isDirectory())
+					while (in.read(buffer) != -1) {
+						// skip content
+					}
+				entries++;
+			}
+			return entries > 0;
+		} catch (IOException e) {
+			UpdateCore.warn("Discarding damaged download " + file, e); //$NON-NLS-1$
+			return false;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/*
+	 * Loads the index on first use. Returns false if there is
+	 * no usable downloads directory.
+	 */
+	private static boolean load() {
+		if (loaded)
+			return storeDir != null;
+		loaded = true;
+		File location = UpdateCore.getUpdateStateLocation();
+		if (location == null)
+			return false;
+		File dir = new File(location, STORE_DIR);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			return false;
+		storeDir = dir;
+
+		Properties properties = loadIndex();
+		long now = System.currentTimeMillis();
+		Set names = new HashSet();
+		for (Enumeration keys = properties.propertyNames(); keys.hasMoreElements();) {
+			String key = (String) keys.nextElement();
+			Fragment fragment = Fragment.fromProperty(properties.getProperty(key));
+			if (fragment == null || now - fragment.saved > MAX_AGE || fragment.fragment.getSize() <= 0)
+				continue;
+			fragments.put(key, fragment);
+			names.add(fragment.fragment.getFile().getName());
+		}
+		// remove expired fragments and abandoned downloads of earlier sessions
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			String name = files[i].getName();
+			if (name.startsWith(FILE_PREFIX) && !names.contains(name) && now - files[i].lastModified() > ORPHAN_AGE)
+				files[i].delete();
+		}
+		if (names.size() != properties.size()) {
+			for (Enumeration keys = properties.propertyNames(); keys.hasMoreElements();) {
+				String key = (String) keys.nextElement();
+				if (!fragments.containsKey(key))
+					removed.add(key);
+			}
+			save();
+		}
+		return true;
+	}
+
+	private static Properties loadIndex() {
+		Properties properties = new Properties();
+		File indexFile = new File(storeDir, INDEX_FILE);
+		if (indexFile.exists()) {
+			InputStream in = null;
+			try {
+				in = new FileInputStream(indexFile);
+				properties.load(in);
+			} catch (IOException e) {
+				UpdateCore.warn("Unable to read download fragments " + indexFile, e); //$NON-NLS-1$
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+		return properties;
+	}
+
+	private static void save() {
+		if (storeDir == null)
+			return;
+		dirty = false;
+		// keep the fragments recorded by other sessions since the index was loaded
+		Properties properties = loadIndex();
+		for (Iterator iter = removed.iterator(); iter.hasNext();)
+			properties.remove(iter.next());
+		for (Iterator iter = fragments.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry entry = (Map.Entry) iter.next();
+			Fragment fragment = (Fragment) entry.getValue();
+			if (fragment.isPersistent())
+				properties.setProperty((String) entry.getKey(), fragment.toProperty());
+			else
+				properties.remove(entry.getKey());
+		}
+		File indexFile = new File(storeDir, INDEX_FILE);
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(indexFile);
+			properties.store(out, null);
+		} catch (IOException e) {
+			UpdateCore.warn("Unable to save download fragments " + indexFile, e); //$NON-NLS-1$
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.update.core.InstallMonitor;
+
+/**
+ * Internal class.
+ * Copies between local files with java new I/O. Only loaded once
+ * UpdateManagerUtils found java.nio, which cdcFoundation does not have.
+ */
+public class FileTransfer_JavaNio {
+	// without a monitor the copy is done in large chunks; with one, in
+	// chunks of the monitor increment of the stream copy, so the monitor
+	// is updated and checked for cancellation as often
+	private static final int TRANSFER_SIZE = 1048576; // 1mbytes
+
+	/**
+	 * Copies between local files. The bytes are moved by the operating
+	 * system and never go through a Java buffer. Both streams are left
+	 * positioned after the copied bytes.
+	 *
+	 * @return the offset in the input stream where copying stopped, or -1
+	 * if the end of the input was reached
+	 * @see UpdateManagerUtils#copy(java.io.InputStream, java.io.OutputStream, InstallMonitor, long)
+	 */
+	public static long transfer(FileInputStream is, FileOutputStream os, InstallMonitor monitor, long expectedLength) {
+		long offset = 0;
+		try {
+			FileChannel in = is.getChannel();
+			FileChannel out = os.getChannel();
+			long position = in.position();
+			long size = in.size() - position;
+			if (expectedLength > 0 && expectedLength < size)
+				size = expectedLength;
+			long chunk = (monitor == null) ? TRANSFER_SIZE : UpdateManagerUtils.INCREMENT_SIZE;
+			while (offset < size) {
+				long count = in.transferTo(position + offset, Math.min(chunk, size - offset), out);
+				if (count <= 0)
+					// the file was truncated while copying
+					break;
+				offset += count;
+				in.position(position + offset);
+				if (monitor != null) {
+					monitor.incrementCount(count);
+					if (monitor.isCanceled()) {
+						return offset;
+					}
+				}
+			}
+			if (expectedLength > 0 && offset != expectedLength)
+				throw new IOException(NLS.bind(Messages.UpdateManagerUtils_inputStreamEnded, (new String[] { String.valueOf(offset), String.valueOf(expectedLength) })));
+			return -1;
+		} catch (IOException e) {
+			UpdateCore.log(Messages.UpdateManagerUtils_copy + offset, e);
+			return offset;
+		}
+	}
+}
@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.update.internal.core.connection.ConnectionFactory;
+import org.eclipse.update.internal.core.connection.HttpResponse;
+import org.eclipse.update.internal.core.connection.IResponse;
+
+/**
+ * Persistent cache for the small site resources fetched over HTTP:
+ * site.xml, digest archives and feature manifests.
+ * <p>
+ * Each resource is kept in the <code>httpcache</code> directory of the
+ * update state location as a body file plus a properties file holding
+ * the URL, entity tag and last modification time. A cached copy is
+ * revalidated with a conditional GET; when the server answers 304 the
+ * body on disk is used and nothing else is transferred. The cache
+ * survives restarts, so checking an unchanged site after a cold start
+ * costs one round trip per resource.
+ * <p>
+ * A refreshed body is written under a new name and the info file is
+ * switched to it, so a body handed out earlier is never replaced while
+ * it is being read. Superseded bodies and entries not used for
+ * <code>MAX_AGE</code> are removed by {@link #shutdown()}.
+ */
+public class HttpMetadataCache {
+
+	private static final String CACHE_DIR = "httpcache"; //$NON-NLS-1$
+	private static final String BODY_SUFFIX = ".body"; //$NON-NLS-1$
+	private static final String INFO_SUFFIX = ".properties"; //$NON-NLS-1$
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+	private static final String URL_KEY = "url"; //$NON-NLS-1$
+	private static final String ETAG_KEY = "etag"; //$NON-NLS-1$
+	private static final String LAST_MODIFIED_KEY = "lastModified"; //$NON-NLS-1$
+	private static final String BODY_KEY = "body"; //$NON-NLS-1$
+	// entries not used for this long are pruned
+	private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+	// superseded bodies are kept this long for readers still using them
+	private static final long STALE_AGE = 60L * 60 * 1000;
+
+	// striped locks, so unrelated resources are fetched concurrently
+	private static final Object[] locks = new Object[16];
+	static {
+		for (int i = 0; i < locks.length; i++)
+			locks[i] = new Object();
+	}
+
+	/**
+	 * A resource held in the cache.
+	 */
+	public static class Entry {
+		private File file;
+		private long lastModified;
+
+		Entry(File file, long lastModified) {
+			this.file = file;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Returns the local file holding the body of the resource.
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns the last modification time reported by the server,
+		 * or <code>0</code> if unknown.
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the resource at the given URL can be
+	 * served through this cache.
+	 */
+	public static boolean isCacheable(URL url) {
+		if (url == null || !url.getProtocol().toLowerCase().startsWith("http")) //$NON-NLS-1$
+			return false;
+		return getCacheDirectory() != null;
+	}
+
+	/**
+	 * Returns the current content of the resource at the given URL,
+	 * downloading it only if the cached copy is missing or out of date.
+	 *
+	 * @param url the resource URL, must be cacheable
+	 * @param monitor progress monitor used to cancel the connection,
+	 * or <code>null</code>
+	 * @return the cached resource, or <code>null</code> if the connection
+	 * was canceled
+	 */
+	public static Entry get(URL url, IProgressMonitor monitor) throws IOException, CoreException {
+		File dir = getCacheDirectory();
+		String key = new URLKey(url).toString();
+		String name = getFileName(key);
+		File info = new File(dir, name + INFO_SUFFIX);
+
+		synchronized (getLock(name)) {
+			Properties cached = load(dir, info, key);
+			File body = null;
+			long cachedLastModified = 0;
+			if (cached != null) {
+				body = new File(dir, cached.getProperty(BODY_KEY));
+				cachedLastModified = getLong(cached, LAST_MODIFIED_KEY);
+				// already revalidated in this session
+				if (UpdateCore.getPlugin().getUpdateSession().isVisited(url))
+					return new Entry(body, cachedLastModified);
+			}
+
+			URL resolvedURL = URLEncoder.encode(url);
+			IResponse response = ConnectionFactory.get(resolvedURL);
+			HttpResponse httpResponse = (HttpResponse) response;
+			if (cached != null)
+				httpResponse.setCacheValidators(cached.getProperty(ETAG_KEY), cachedLastModified);
+
+			InputStream in = null;
+			try {
+				in = (monitor == null) ? response.getInputStream() : response.getInputStream(monitor);
+				// the stream can be null if the user cancels the connection
+				if (in == null)
+					return null;
+				if (cached != null && httpResponse.isNotModified()) {
+					// the modification time of the info file records the last use
+					info.setLastModified(System.currentTimeMillis());
+					UpdateCore.getPlugin().getUpdateSession().markVisited(url);
+					return new Entry(body, cachedLastModified);
+				}
+
+				UpdateManagerUtils.checkConnectionResult(response, resolvedURL);
+				long contentLength = response.getContentLength();
+				File temp = new File(dir, name + TEMP_SUFFIX);
+				OutputStream os = new BufferedOutputStream(new FileOutputStream(temp));
+				long offset;
+				try {
+					offset = UpdateManagerUtils.copy(in, os, null, contentLength);
+				} finally {
+					os.close();
+				}
+				if (offset != -1) {
+					temp.delete();
+					throw new IOException(NLS.bind(Messages.UpdateManagerUtils_inputStreamEnded, (new String[] { String.valueOf(offset), String.valueOf(contentLength) })));
+				}
+
+				long lastModified = response.getLastModified();
+				// readers of the previous body keep it until it is pruned
+				File newBody = createBodyFile(dir, name);
+				if (!temp.renameTo(newBody))
+					// serve this copy uncached
+					return new Entry(temp, lastModified);
+
+				Properties properties = new Properties();
+				properties.setProperty(URL_KEY, key);
+				properties.setProperty(BODY_KEY, newBody.getName());
+				String etag = httpResponse.getETag();
+				if (etag != null)
+					properties.setProperty(ETAG_KEY, etag);
+				properties.setProperty(LAST_MODIFIED_KEY, Long.toString(lastModified));
+				store(dir, info, properties);
+				UpdateCore.getPlugin().getUpdateSession().markVisited(url);
+				return new Entry(newBody, lastModified);
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes superseded bodies, and the entries not used for
+	 * <code>MAX_AGE</code>.
+	 */
+	public static void shutdown() {
+		File location = UpdateCore.getUpdateStateLocation();
+		if (location == null)
+			return;
+		File dir = new File(location, CACHE_DIR);
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < files.length; i++) {
+			String fileName = files[i].getName();
+			if (!fileName.endsWith(INFO_SUFFIX))
+				continue;
+			String name = fileName.substring(0, fileName.length() - INFO_SUFFIX.length());
+			synchronized (getLock(name)) {
+				if (now - files[i].lastModified() > MAX_AGE)
+					files[i].delete();
+			}
+		}
+		for (int i = 0; i < files.length; i++) {
+			String fileName = files[i].getName();
+			if (fileName.endsWith(INFO_SUFFIX) || now - files[i].lastModified() <= STALE_AGE)
+				continue;
+			int end = fileName.indexOf('-');
+			if (end == -1)
+				end = fileName.indexOf('.');
+			if (end == -1) {
+				files[i].delete();
+				continue;
+			}
+			String name = fileName.substring(0, end);
+			synchronized (getLock(name)) {
+				File info = new File(dir, name + INFO_SUFFIX);
+				Properties properties = load(dir, info, null);
+				if (properties == null || !fileName.equals(properties.getProperty(BODY_KEY)))
+					files[i].delete();
+			}
+		}
+	}
+
+	private static Object getLock(String name) {
+		return locks[(name.hashCode() & 0x7fffffff) % locks.length];
+	}
+
+	/*
+	 * Returns a body file name not used by any earlier version
+	 * of the entry.
+	 */
+	private static File createBodyFile(File dir, String name) {
+		long version = System.currentTimeMillis();
+		File body;
+		while ((body = new File(dir, name + '-' + Long.toString(version, 36) + BODY_SUFFIX)).exists())
+			version++;
+		return body;
+	}
+
+	private static File getCacheDirectory() {
+		File location = UpdateCore.getUpdateStateLocation();
+		if (location == null)
+			return null;
+		File dir = new File(location, CACHE_DIR);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			return null;
+		return dir;
+	}
+
+	private static String getFileName(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			byte[] hash = digest.digest(key.getBytes("UTF-8")); //$NON-NLS-1$
+			StringBuffer buffer = new StringBuffer(hash.length * 2);
+			for (int i = 0; i < hash.length; i++) {
+				buffer.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+				buffer.append(Character.forDigit(hash[i] & 0xf, 16));
+			}
+			return buffer.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// collisions are detected when loading the entry
+			return Integer.toHexString(key.hashCode());
+		} catch (IOException e) {
+			return Integer.toHexString(key.hashCode());
+		}
+	}
+
+	/*
+	 * Returns the cached info of the entry, or null if the entry
+	 * is incomplete or belongs to another URL. A null key matches
+	 * any URL.
+	 */
+	private static Properties load(File dir, File info, String key) {
+		if (!info.exists())
+			return null;
+		Properties properties = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(info);
+			properties.load(in);
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		if (key != null && !key.equals(properties.getProperty(URL_KEY)))
+			return null;
+		String body = properties.getProperty(BODY_KEY);
+		if (body == null || !new File(dir, body).exists())
+			return null;
+		return properties;
+	}
+
+	/*
+	 * Switches the entry to the new info, which takes effect as a whole:
+	 * the old info stays in place until the new one is complete.
+	 */
+	private static void store(File dir, File info, Properties properties) {
+		File temp = new File(dir, info.getName() + TEMP_SUFFIX);
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(temp);
+			properties.store(out, null);
+		} catch (IOException e) {
+			UpdateCore.warn("Unable to save HTTP cache entry " + info, e); //$NON-NLS-1$
+			temp.delete();
+			return;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		if (!temp.renameTo(info)) {
+			// the target must be removed first on some platforms
+			info.delete();
+			if (!temp.renameTo(info)) {
+				UpdateCore.warn("Unable to save HTTP cache entry " + info); //$NON-NLS-1$
+				temp.delete();
+			}
+		}
+	}
+
+	private static long getLong(Properties properties, String key) {
+		String value = properties.getProperty(key);
+		if (value == null)
+			return 0;
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
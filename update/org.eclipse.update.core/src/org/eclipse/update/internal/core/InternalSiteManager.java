@@ -14,6 +14,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -47,12 +48,12 @@ public class InternalSiteManager {
 
 	private static Map estimates;
 
-	// cache found sites
-	private static Map sites = new HashMap();
-	// cache http updated url
-	private static Map httpSitesUpdatedUrls = new HashMap();
-	// cache timestamps
-	private static Map siteTimestamps = new HashMap();
+	// cache found sites, key=URLKey value=ISite
+	private static Map sites = Collections.synchronizedMap(new HashMap());
+	// cache http updated url, key=URLKey value=URL
+	private static Map httpSitesUpdatedUrls = Collections.synchronizedMap(new HashMap());
+	// cache timestamps, key=URLKey value=Long
+	private static Map siteTimestamps = Collections.synchronizedMap(new HashMap());
 	public static boolean globalUseCache = true;
 
 	// true if an exception occured creating localSite
@@ -88,10 +89,11 @@ public class InternalSiteManager {
 	}
 	
 	private static boolean isValidCachedSite(URL siteURL) {
-		if (!sites.containsKey(siteURL.toExternalForm()))
+		URLKey key = new URLKey(siteURL);
+		if (!sites.containsKey(key))
 			return false;
 			
-		Long timestamp = (Long)siteTimestamps.get(siteURL);
+		Long timestamp = (Long)siteTimestamps.get(key);
 		if (timestamp == null)
 			return false;
 		long localLastModified = timestamp.longValue();
@@ -111,12 +113,12 @@ public class InternalSiteManager {
 
 		// use cache if set up globally (globalUseCache=true)
 		// and passed as parameter (useCache=true)
-		if (httpSitesUpdatedUrls.containsKey(siteURL.toExternalForm())) {
-			siteURL = (URL)httpSitesUpdatedUrls.get(siteURL.toExternalForm());
+		URL updatedURL = (URL)httpSitesUpdatedUrls.get(new URLKey(siteURL));
+		if (updatedURL != null) {
+			siteURL = updatedURL;
 		}
-		String siteURLString = siteURL.toExternalForm();
 		if ((useCache && globalUseCache) && isValidCachedSite(siteURL)) {
-			site = (ISite) sites.get(siteURLString);
+			site = (ISite) sites.get(new URLKey(siteURL));
 			UpdateCore.getPlugin().getUpdateSession().markVisited(site.getURL());
 			return site;
 		}
@@ -128,7 +130,7 @@ public class InternalSiteManager {
 				f = new File(f, "eclipse"); //$NON-NLS-1$
 				try {
 					if ((useCache && globalUseCache) && isValidCachedSite(f.toURL())) {
-						site = (ISite) sites.get(f.toURL().toExternalForm());
+						site = (ISite) sites.get(new URLKey(f.toURL()));
 						return site;
 					}
 				} catch (MalformedURLException e) {
@@ -180,14 +182,14 @@ public class InternalSiteManager {
 		}
 
 		if (site != null) {
-			sites.put(site.getURL().toExternalForm(), site);
+			sites.put(new URLKey(site.getURL()), site);
 			UpdateCore.getPlugin().getUpdateSession().markVisited(site.getURL());
 			if (site instanceof ITimestamp) {
-				siteTimestamps.put(site.getURL(), new Long(((ITimestamp)site).getTimestamp().getTime()));
+				siteTimestamps.put(new URLKey(site.getURL()), new Long(((ITimestamp)site).getTimestamp().getTime()));
 			} else {
 				try {
 					IResponse response = ConnectionFactory.get(URLEncoder.encode(siteURL));
-					siteTimestamps.put(siteURL, new Long(response.getLastModified()));
+					siteTimestamps.put(new URLKey(siteURL), new Long(response.getLastModified()));
 				} catch (MalformedURLException e) {
 				} catch (IOException e) {
 				}
@@ -324,7 +326,7 @@ public class InternalSiteManager {
 		ISite site;
 			
 		site = createSite(factory, url, monitor);
-		httpSitesUpdatedUrls.put(originalUrl.toExternalForm(), url);	
+		httpSitesUpdatedUrls.put(new URLKey(originalUrl), url);	
 		
 		return site;
 	}
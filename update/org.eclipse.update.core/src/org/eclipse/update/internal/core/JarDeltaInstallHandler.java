@@ -11,8 +11,6 @@
 
 package org.eclipse.update.internal.core;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -29,6 +27,7 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.osgi.util.NLS;
 import org.eclipse.update.core.IFeatureContentConsumer;
 import org.eclipse.update.core.IPluginEntry;
 import org.eclipse.update.core.PluginEntry;
@@ -96,13 +95,12 @@ public class JarDeltaInstallHandler extends DeltaInstallHandler {
 		InputStream in=null;
 		OutputStream out=null;
 		try {
-			in = new BufferedInputStream(new FileInputStream(src));
-			out = new BufferedOutputStream(new FileOutputStream(dst));		
-			byte[] buffer = new byte[4096];
-			int len;
-			while ((len=in.read(buffer)) != -1) {
-				out.write(buffer, 0, len);
-			}
+			in = new FileInputStream(src);
+			out = new FileOutputStream(dst);
+			// file streams are copied by the operating system
+			long offset = UpdateManagerUtils.copy(in, out, null, src.length());
+			if (offset != -1)
+				throw new IOException(NLS.bind(Messages.UpdateManagerUtils_inputStreamEnded, (new String[] { String.valueOf(offset), String.valueOf(src.length()) })));
 		} finally {
 			if (in != null)
 				try {
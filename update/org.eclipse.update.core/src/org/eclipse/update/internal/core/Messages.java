@@ -188,8 +188,6 @@ public final class Messages extends NLS {
 	public static String JarVerificationService_UnsucessfulVerification;
 	public static String JarVerificationService_CancelInstall;
 	public static String UpdateManagerUtils_UnableToLog;
-	public static String ConnectionThreadManager_tooManyConnections;
-	public static String ConnectionThreadManager_unresponsiveURL;
 	public static String IncludedFeatureReference_featureUninstalled;
 	public static String ActivityConstraints_warning;
 	public static String ActivityConstraints_rootMessage;
@@ -231,6 +229,7 @@ public final class Messages extends NLS {
 	public static String UpdateSearchRequest_searching;
 	public static String UpdateSearchRequest_contacting;
 	public static String UpdateSearchRequest_checking;
+	public static String UpdateSearchRequest_siteTimeout;
 	public static String UpdatePolicy_invalidURL;
 	public static String UpdatePolicy_nameNoNull;
 	public static String UpdatePolicy_UpdatePolicy;
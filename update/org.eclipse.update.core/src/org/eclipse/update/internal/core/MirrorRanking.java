@@ -0,0 +1,448 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import org.eclipse.update.core.ISite;
+import org.eclipse.update.core.ISiteWithMirrors;
+import org.eclipse.update.core.IURLEntry;
+
+/**
+ * Ranks the mirrors of an update site by measured performance.
+ * <p>
+ * For each mirror, an exponentially weighted moving average of the
+ * latency and of the throughput is kept. The latency is measured by
+ * lightweight HEAD probes of the mirror's site.xml. The throughput is
+ * measured by the archive downloads themselves. A mirror that failed is
+ * considered unhealthy for <code>FAILURE_PENALTY</code> milliseconds and
+ * ranked last. The measurements are kept in the update state location,
+ * so a mirror measured in an earlier session is not probed again until
+ * its measurements are <code>MAX_AGE</code> old. They are saved on
+ * shutdown, not after each measurement.
+ * <p>
+ * Ranking is only used when the <code>automaticallyChooseMirror</code>
+ * preference is set.
+ */
+public class MirrorRanking {
+
+	private static final String STATS_FILE = "mirrors.properties"; //$NON-NLS-1$
+	// weight of a new measurement in the moving averages
+	private static final double ALPHA = 0.3;
+	private static final long FAILURE_PENALTY = 10 * 60 * 1000;
+	private static final long MAX_AGE = 24 * 60 * 60 * 1000;
+	// time allowed to all the probes of a site
+	private static final long PROBE_TIMEOUT = 5000;
+	// size of a typical archive, used to weigh latency against throughput
+	private static final long TYPICAL_SIZE = 256 * 1024;
+
+	// mirror key (String) -> Stats, loaded lazily
+	private static Map stats;
+	// keys of the mirrors being probed
+	private static Set probing = new HashSet();
+	// measurements not saved yet
+	private static boolean dirty;
+
+	private static class Stats {
+		double latency; // milliseconds, 0 if unknown
+		double throughput; // bytes per second, 0 if unknown
+		long lastFailure;
+		long lastUpdate;
+
+		boolean isHealthy(long now) {
+			return now - lastFailure > FAILURE_PENALTY;
+		}
+
+		boolean isMeasured(long now) {
+			return latency > 0 && now - lastUpdate < MAX_AGE;
+		}
+
+		/*
+		 * Estimated time to download a typical archive.
+		 */
+		double getCost() {
+			double cost = latency;
+			if (throughput > 0)
+				cost += TYPICAL_SIZE * 1000 / throughput;
+			return cost;
+		}
+
+		String toProperty() {
+			return latency + "," + throughput + "," + lastFailure + "," + lastUpdate; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+
+		static Stats fromProperty(String value) {
+			StringTokenizer tokenizer = new StringTokenizer(value, ","); //$NON-NLS-1$
+			if (tokenizer.countTokens() != 4)
+				return null;
+			try {
+				Stats result = new Stats();
+				result.latency = Double.parseDouble(tokenizer.nextToken());
+				result.throughput = Double.parseDouble(tokenizer.nextToken());
+				result.lastFailure = Long.parseLong(tokenizer.nextToken());
+				result.lastUpdate = Long.parseLong(tokenizer.nextToken());
+				return result;
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
+	private static class Probe extends Thread {
+		private URL mirror;
+
+		Probe(URL mirror) {
+			super("update-mirror-probe"); //$NON-NLS-1$
+			this.mirror = mirror;
+			setDaemon(true);
+		}
+
+		public void run() {
+			long start = System.currentTimeMillis();
+			try {
+				probe(start);
+			} finally {
+				synchronized (MirrorRanking.class) {
+					probing.remove(getKey(mirror));
+				}
+			}
+		}
+
+		private void probe(long start) {
+			try {
+				URLConnection connection = new URL(mirror, "site.xml").openConnection(); //$NON-NLS-1$
+				if (connection instanceof HttpURLConnection) {
+					HttpURLConnection httpConnection = (HttpURLConnection) connection;
+					httpConnection.setRequestMethod("HEAD"); //$NON-NLS-1$
+					int code = httpConnection.getResponseCode();
+					httpConnection.disconnect();
+					if (code != UpdateCore.HTTP_OK) {
+						failed(mirror);
+						return;
+					}
+				} else {
+					connection.getInputStream().close();
+				}
+				probed(mirror, System.currentTimeMillis() - start);
+			} catch (IOException e) {
+				failed(mirror);
+			}
+		}
+	}
+
+	/**
+	 * Returns the locations an archive of the site can be downloaded
+	 * from, best first. The site's own location is always included.
+	 * Without mirrors, or when mirrors are not chosen automatically,
+	 * only the given location is returned.
+	 *
+	 * @param site the site the archive belongs to, or <code>null</code>
+	 * @param url the location of the archive on the site
+	 */
+	public static URL[] getSources(ISite site, URL url) {
+		URL[] single = new URL[] { url };
+		if (!(site instanceof ISiteWithMirrors) || !isEnabled())
+			return single;
+		URL siteURL = getBase(site.getURL());
+		String location = url.toExternalForm();
+		if (siteURL == null || !location.startsWith(siteURL.toExternalForm()))
+			// archive mapped outside of the site, mirrors do not have it
+			return single;
+		String path = location.substring(siteURL.toExternalForm().length());
+
+		IURLEntry[] entries;
+		try {
+			entries = ((ISiteWithMirrors) site).getMirrorSiteEntries();
+		} catch (Exception e) {
+			return single;
+		}
+		if (entries == null || entries.length == 0)
+			return single;
+
+		List mirrors = new ArrayList(entries.length + 1);
+		mirrors.add(siteURL);
+		List keys = new ArrayList(entries.length + 1);
+		keys.add(new URLKey(siteURL));
+		for (int i = 0; i < entries.length; i++) {
+			URL mirror = getBase(entries[i].getURL());
+			if (mirror == null || keys.contains(new URLKey(mirror)))
+				continue;
+			mirrors.add(mirror);
+			keys.add(new URLKey(mirror));
+		}
+		URL[] ranked = rank((URL[]) mirrors.toArray(new URL[mirrors.size()]));
+
+		URL[] result = new URL[ranked.length];
+		for (int i = 0; i < ranked.length; i++) {
+			try {
+				result[i] = (ranked[i] == siteURL) ? url : new URL(ranked[i], path);
+			} catch (MalformedURLException e) {
+				result[i] = url;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Orders the mirrors best first, probing those without
+	 * recent measurements.
+	 */
+	public static URL[] rank(URL[] mirrors) {
+		probe(mirrors);
+		long now = System.currentTimeMillis();
+		// unmeasured mirrors go after measured ones, unhealthy ones last
+		final double[] costs = new double[mirrors.length];
+		synchronized (MirrorRanking.class) {
+			load();
+			for (int i = 0; i < mirrors.length; i++) {
+				Stats entry = (Stats) stats.get(getKey(mirrors[i]));
+				if (entry != null && !entry.isHealthy(now))
+					costs[i] = Double.MAX_VALUE;
+				else if (entry == null || entry.getCost() <= 0)
+					costs[i] = Double.MAX_VALUE / 2;
+				else
+					costs[i] = entry.getCost();
+			}
+		}
+		Integer[] order = new Integer[mirrors.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = new Integer(i);
+		// stable sort, mirrors of equal cost keep the site order
+		Arrays.sort(order, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				double c1 = costs[((Integer) o1).intValue()];
+				double c2 = costs[((Integer) o2).intValue()];
+				return c1 < c2 ? -1 : (c1 == c2 ? 0 : 1);
+			}
+		});
+		URL[] result = new URL[mirrors.length];
+		for (int i = 0; i < order.length; i++)
+			result[i] = mirrors[order[i].intValue()];
+		return result;
+	}
+
+	/**
+	 * Records the latency of a successful probe of the mirror.
+	 */
+	public static synchronized void probed(URL mirror, long millis) {
+		load();
+		Stats entry = getStats(mirror);
+		entry.latency = average(entry.latency, Math.max(1, millis));
+		entry.lastUpdate = System.currentTimeMillis();
+		dirty = true;
+	}
+
+	/**
+	 * Records a completed download from the mirror.
+	 *
+	 * @param url the location the bytes were downloaded from
+	 * @param bytes number of bytes downloaded
+	 * @param millis duration of the download in milliseconds
+	 */
+	public static synchronized void downloaded(URL url, long bytes, long millis) {
+		if (bytes <= 0 || !isEnabled())
+			return;
+		load();
+		Stats entry = getStats(url);
+		entry.throughput = average(entry.throughput, bytes * 1000.0 / Math.max(1, millis));
+		entry.lastFailure = 0;
+		entry.lastUpdate = System.currentTimeMillis();
+		dirty = true;
+	}
+
+	/**
+	 * Records a failed or stalled download from the mirror.
+	 */
+	public static synchronized void failed(URL url) {
+		if (!isEnabled())
+			return;
+		load();
+		Stats entry = getStats(url);
+		entry.lastFailure = System.currentTimeMillis();
+		entry.lastUpdate = entry.lastFailure;
+		dirty = true;
+	}
+
+	/**
+	 * Saves the measurements recorded since they were last saved.
+	 */
+	public static synchronized void shutdown() {
+		if (stats != null && dirty)
+			save();
+	}
+
+	/*
+	 * Probes the mirrors without recent measurements concurrently,
+	 * waiting at most PROBE_TIMEOUT for all of them.
+	 */
+	private static void probe(URL[] mirrors) {
+		List probes = new ArrayList();
+		long now = System.currentTimeMillis();
+		synchronized (MirrorRanking.class) {
+			load();
+			for (int i = 0; i < mirrors.length; i++) {
+				String key = getKey(mirrors[i]);
+				Stats entry = (Stats) stats.get(key);
+				if (probing.contains(key) || (entry != null && (entry.isMeasured(now) || !entry.isHealthy(now))))
+					continue;
+				probing.add(key);
+				probes.add(new Probe(mirrors[i]));
+			}
+		}
+		for (Iterator iter = probes.iterator(); iter.hasNext();)
+			((Thread) iter.next()).start();
+		long deadline = now + PROBE_TIMEOUT;
+		for (Iterator iter = probes.iterator(); iter.hasNext();) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				// slow mirrors are left unmeasured, their probe goes on
+				break;
+			try {
+				((Thread) iter.next()).join(remaining);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	private static double average(double previous, double value) {
+		if (previous <= 0)
+			return value;
+		return ALPHA * value + (1 - ALPHA) * previous;
+	}
+
+	private static Stats getStats(URL url) {
+		String key = getKey(url);
+		Stats entry = (Stats) stats.get(key);
+		if (entry == null) {
+			entry = new Stats();
+			stats.put(key, entry);
+		}
+		return entry;
+	}
+
+	/*
+	 * Measurements are kept per host, an archive is attributed
+	 * to the mirror it was downloaded from.
+	 */
+	private static String getKey(URL url) {
+		URLKey key = new URLKey(url);
+		String value = key.toString();
+		int start = value.indexOf("://"); //$NON-NLS-1$
+		if (start == -1)
+			return value;
+		int index = value.indexOf('/', start + 3);
+		return (index == -1) ? value : value.substring(0, index);
+	}
+
+	private static URL getBase(URL url) {
+		if (url == null)
+			return null;
+		String location = url.toExternalForm();
+		if (location.endsWith("/")) //$NON-NLS-1$
+			return url;
+		try {
+			// site URLs may point to site.xml
+			if (location.endsWith(".xml")) //$NON-NLS-1$
+				return new URL(url, "./"); //$NON-NLS-1$
+			return new URL(location + "/"); //$NON-NLS-1$
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	private static boolean isEnabled() {
+		UpdateCore plugin = UpdateCore.getPlugin();
+		return plugin != null && plugin.getPluginPreferences().getBoolean(UpdateCore.P_AUTOMATICALLY_CHOOSE_MIRROR);
+	}
+
+	private static File getStatsFile() {
+		File location = UpdateCore.getUpdateStateLocation();
+		return (location == null) ? null : new File(location, STATS_FILE);
+	}
+
+	private static void load() {
+		if (stats != null)
+			return;
+		stats = new HashMap();
+		File file = getStatsFile();
+		if (file == null || !file.exists())
+			return;
+		Properties properties = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			properties.load(in);
+		} catch (IOException e) {
+			UpdateCore.warn("Unable to read mirror measurements " + file, e); //$NON-NLS-1$
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		for (Enumeration keys = properties.propertyNames(); keys.hasMoreElements();) {
+			String key = (String) keys.nextElement();
+			Stats entry = Stats.fromProperty(properties.getProperty(key));
+			if (entry != null)
+				stats.put(key, entry);
+		}
+	}
+
+	private static void save() {
+		dirty = false;
+		File file = getStatsFile();
+		if (file == null)
+			return;
+		Properties properties = new Properties();
+		for (Iterator iter = stats.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry entry = (Map.Entry) iter.next();
+			properties.setProperty((String) entry.getKey(), ((Stats) entry.getValue()).toProperty());
+		}
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(file);
+			properties.store(out, null);
+		} catch (IOException e) {
+			UpdateCore.warn("Unable to save mirror measurements " + file, e); //$NON-NLS-1$
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
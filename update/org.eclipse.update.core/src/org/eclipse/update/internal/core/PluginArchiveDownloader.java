@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2006 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.update.core.ContentReference;
+import org.eclipse.update.core.IFeatureContentProvider;
+import org.eclipse.update.core.IPluginEntry;
+import org.eclipse.update.core.InstallMonitor;
+import org.eclipse.update.core.Utilities;
+import org.eclipse.update.core.model.InstallAbortedException;
+
+/**
+ * Downloads the archives of a list of plug-in entries on a bounded
+ * number of background threads.
+ * <p>
+ * The archive references are handed out in entry order by {@link #next()},
+ * so the caller can verify one archive while the following ones are
+ * still being downloaded. Each download has its own progress monitor,
+ * which forwards its progress to the install monitor.
+ * <p>
+ * With a parallelism of 1 or less, archives are downloaded on the
+ * calling thread when {@link #next()} is invoked.
+ */
+public class PluginArchiveDownloader {
+
+	private static final long POLLING_INTERVAL = 200;
+
+	private IFeatureContentProvider provider;
+	private IPluginEntry[] entries;
+	private InstallMonitor monitor;
+	private int parallelism;
+	private int nextToReturn;
+
+	// guarded by this downloader
+	private ContentReference[][] results;
+	private CoreException[] failures;
+	private int nextToStart;
+	private boolean canceled;
+	private boolean failed;
+	private int running;
+	// monitors of the downloads in progress
+	private List downloads = new ArrayList();
+
+	private class Worker implements Runnable {
+		public void run() {
+			try {
+				int index;
+				while ((index = nextIndex()) != -1) {
+					ContentReference[] references = null;
+					CoreException failure = null;
+					DownloadMonitor downloadMonitor = started();
+					try {
+						references = provider.getPluginEntryArchiveReferences(entries[index], downloadMonitor);
+					} catch (CoreException e) {
+						failure = e;
+					} catch (RuntimeException e) {
+						failure = Utilities.newCoreException(e.getMessage(), e);
+					} finally {
+						stopped(downloadMonitor);
+					}
+					downloaded(index, references, failure);
+				}
+			} finally {
+				workerDone();
+			}
+		}
+	}
+
+	/**
+	 * @param provider the content provider of the feature being installed
+	 * @param entries the plug-in entries whose archives are downloaded
+	 * @param parallelism the maximum number of concurrent downloads
+	 * @param monitor the install monitor, only used on the calling thread
+	 */
+	public PluginArchiveDownloader(IFeatureContentProvider provider, IPluginEntry[] entries, int parallelism, final InstallMonitor monitor) {
+		this.provider = provider;
+		this.entries = entries;
+		this.parallelism = Math.min(parallelism, entries.length);
+		this.monitor = monitor;
+		this.results = new ContentReference[entries.length][];
+		this.failures = new CoreException[entries.length];
+	}
+
+	/*
+	 * Returns the monitor of a download starting. Each download has its
+	 * own, as an install monitor keeps task state; progress is forwarded
+	 * to the install monitor under its lock.
+	 */
+	private synchronized DownloadMonitor started() {
+		DownloadMonitor downloadMonitor = new DownloadMonitor(monitor);
+		if (canceled)
+			downloadMonitor.abort();
+		else
+			downloads.add(downloadMonitor);
+		return downloadMonitor;
+	}
+
+	private synchronized void stopped(DownloadMonitor downloadMonitor) {
+		downloads.remove(downloadMonitor);
+	}
+
+	/**
+	 * Starts the download threads.
+	 */
+	public void start() {
+		if (parallelism <= 1)
+			return;
+		synchronized (this) {
+			running = parallelism;
+		}
+		for (int i = 0; i < parallelism; i++) {
+			Thread t = new Thread(new Worker(), "update-download"); //$NON-NLS-1$
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the archives of some entries
+	 * have not been returned yet.
+	 */
+	public boolean hasNext() {
+		return nextToReturn < entries.length;
+	}
+
+	/**
+	 * Returns the archive references of the next plug-in entry, waiting
+	 * for its download to complete if needed.
+	 *
+	 * @exception InstallAbortedException if the monitor was canceled
+	 * @exception CoreException if the download of the entry failed
+	 */
+	public ContentReference[] next() throws CoreException {
+		int index = nextToReturn++;
+		if (parallelism <= 1)
+			return provider.getPluginEntryArchiveReferences(entries[index], monitor);
+
+		synchronized (this) {
+			while (results[index] == null && failures[index] == null) {
+				if (monitor.isCanceled()) {
+					cancel();
+					throw new InstallAbortedException(Messages.Feature_InstallationCancelled, null);
+				}
+				try {
+					wait(POLLING_INTERVAL);
+				} catch (InterruptedException e) {
+					// check again
+				}
+			}
+			if (failures[index] != null) {
+				cancel();
+				throw failures[index];
+			}
+			ContentReference[] references = results[index];
+			results[index] = null;
+			return references;
+		}
+	}
+
+	/**
+	 * Stops the download threads and waits for them to exit. Downloads in
+	 * progress are aborted, closing their connections, and entries not yet
+	 * started are skipped, so no archive is written once this method returns.
+	 */
+	public synchronized void cancel() {
+		canceled = true;
+		for (int i = 0; i < downloads.size(); i++)
+			((DownloadMonitor) downloads.get(i)).abort();
+		downloads.clear();
+		notifyAll();
+		boolean interrupted = false;
+		while (running > 0) {
+			try {
+				wait(POLLING_INTERVAL);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private synchronized void workerDone() {
+		running--;
+		notifyAll();
+	}
+
+	private synchronized int nextIndex() {
+		if (canceled || failed || nextToStart >= entries.length)
+			return -1;
+		return nextToStart++;
+	}
+
+	private synchronized void downloaded(int index, ContentReference[] references, CoreException failure) {
+		if (failure != null) {
+			failures[index] = failure;
+			// no point starting more downloads, the install will fail
+			// once the caller reaches this entry
+			failed = true;
+		} else {
+			results[index] = (references == null) ? new ContentReference[0] : references;
+		}
+		notifyAll();
+	}
+}
@@ -14,9 +14,11 @@ import java.io.*;
 import java.net.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.core.runtime.*;
 import org.eclipse.osgi.util.NLS;
@@ -27,6 +29,14 @@ import org.eclipse.update.core.*;
  */
 public class SiteFilePluginContentConsumer extends ContentConsumer {
 
+	// beside the plugins directory, so staged plugins are never scanned
+	private static final String STAGING_DIR = ".staging"; //$NON-NLS-1$
+	// staging directories untouched for this long belong to no running install
+	private static final long ORPHAN_AGE = 24L * 60 * 60 * 1000;
+
+	// staging areas cleaned up in this session
+	private static Set cleanedStagingAreas = new HashSet();
+
 	private IPluginEntry pluginEntry;
 	private ISite site;
 	private boolean closed = false;
@@ -35,6 +45,13 @@ public class SiteFilePluginContentConsumer extends ContentConsumer {
 	// temporary name to original name map
 	private Map renames = new HashMap(2);
 
+	// final plugin directory
+	private File pluginDir;
+	// directory of the site the plugin is unpacked to and published from
+	// with a single rename, or null once published or if the plugin
+	// directory already existed
+	private File stagingDir;
+
 	// for abort
 	private List /*of path as String */
 	installedFiles;
@@ -61,8 +78,7 @@ public class SiteFilePluginContentConsumer extends ContentConsumer {
 		}
 
 		try {
-			URL newURL = new URL(site.getURL(), Site.DEFAULT_PLUGIN_PATH + pluginEntry.getVersionedIdentifier().toString());
-			pluginPath = newURL.getFile(); 
+			pluginPath = getPluginPath();
 			String contentKey = contentReference.getIdentifier();
 			inStream = contentReference.getInputStream();
 			pluginPath += pluginPath.endsWith(File.separator) ? contentKey : File.separator + contentKey;
@@ -113,6 +129,27 @@ public class SiteFilePluginContentConsumer extends ContentConsumer {
 			return;
 		}
 
+		if (stagingDir != null) {
+			// publish the whole plugin at once, the manifests are still
+			// under temporary names so it is not recognized yet
+			if (!stagingDir.renameTo(pluginDir)) {
+				String msg = NLS.bind(Messages.ContentConsumer_UnableToRename, (new String[] { stagingDir.getPath(), pluginDir.getPath() }));
+				throw Utilities.newCoreException(msg, new Exception(msg));
+			}
+			Map published = new HashMap(renames.size());
+			for(Iterator it = renames.entrySet().iterator(); it.hasNext();){
+				Map.Entry entry = (Map.Entry)it.next();
+				published.put(getPublishedPath((String) entry.getKey()), getPublishedPath((String) entry.getValue()));
+			}
+			renames = published;
+			// so an abort after a failed manifest rename removes the published files
+			List publishedFiles = new ArrayList(installedFiles.size());
+			for(Iterator it = installedFiles.iterator(); it.hasNext();)
+				publishedFiles.add(getPublishedPath((String) it.next()));
+			installedFiles = publishedFiles;
+			stagingDir = null;
+		}
+
 		for(Iterator it = renames.entrySet().iterator(); it.hasNext();){
 			// rename file 
 			Map.Entry entry = (Map.Entry)it.next();
@@ -149,6 +186,14 @@ public class SiteFilePluginContentConsumer extends ContentConsumer {
 		boolean success = true;
 		InstallRegistry.unregisterPlugin(pluginEntry);
 
+		if (stagingDir != null) {
+			// nothing was published, dropping the staging directory
+			// removes every file written so far
+			UpdateManagerUtils.removeFromFileSystem(stagingDir);
+			closed = true;
+			return;
+		}
+
 		// delete plugin manifests first
 		for(Iterator it = renames.values().iterator(); it.hasNext();){
 			String originalName = (String) it.next();
@@ -186,4 +231,52 @@ public class SiteFilePluginContentConsumer extends ContentConsumer {
 		closed = true;
 	}
 
+	/*
+	 * Returns the directory the plugin files are written to. A plugin
+	 * installed in a new directory is written to a staging directory
+	 * of the site first, on the same file system as the plugins.
+	 */
+	private String getPluginPath() throws MalformedURLException {
+		if (pluginDir == null) {
+			URL newURL = new URL(site.getURL(), Site.DEFAULT_PLUGIN_PATH + pluginEntry.getVersionedIdentifier().toString());
+			pluginDir = new File(newURL.getFile());
+			// an existing directory cannot be replaced atomically
+			if (!pluginDir.exists()) {
+				File stagingArea = new File(pluginDir.getParentFile().getParentFile(), STAGING_DIR);
+				cleanUp(stagingArea);
+				stagingDir = new File(ErrorRecoveryLog.getLocalRandomIdentifier(new File(stagingArea, pluginDir.getName()).getAbsolutePath()));
+			}
+		}
+		return (stagingDir != null) ? stagingDir.getAbsolutePath() : pluginDir.getAbsolutePath();
+	}
+
+	/*
+	 * Removes the staging directories left behind by installs that
+	 * did not complete, once per session and site. Staging directories
+	 * of installs still running in other sessions are recent.
+	 */
+	private static void cleanUp(File stagingArea) {
+		synchronized (cleanedStagingAreas) {
+			if (!cleanedStagingAreas.add(stagingArea))
+				return;
+		}
+		File[] leftovers = stagingArea.listFiles();
+		long now = System.currentTimeMillis();
+		for (int i = 0; leftovers != null && i < leftovers.length; i++) {
+			if (now - leftovers[i].lastModified() > ORPHAN_AGE)
+				UpdateManagerUtils.removeFromFileSystem(leftovers[i]);
+		}
+	}
+
+	/*
+	 * Returns the path a file written in the staging directory
+	 * has once the plugin is published.
+	 */
+	private String getPublishedPath(String path) {
+		String stagingPath = stagingDir.getAbsolutePath();
+		String normalized = new File(path).getAbsolutePath();
+		if (!normalized.startsWith(stagingPath))
+			return path;
+		return pluginDir.getAbsolutePath() + normalized.substring(stagingPath.length());
+	}
 }
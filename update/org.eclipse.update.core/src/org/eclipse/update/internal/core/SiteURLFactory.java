@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.update.internal.core;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -69,12 +70,22 @@ public class SiteURLFactory extends BaseSiteFactory implements ISiteFactoryExten
 		try {
 			SiteURLContentProvider contentProvider = new SiteURLContentProvider(url);
 	
-			URL resolvedURL = URLEncoder.encode(url);
-			IResponse response = ConnectionFactory.get(resolvedURL);
-			UpdateManagerUtils.checkConnectionResult(response, resolvedURL);
-			siteStream = response.getInputStream(monitor);
-			// the stream can be null if the user cancels the connection
-			if (siteStream==null) return null;
+			long lastModified;
+			if (HttpMetadataCache.isCacheable(url)) {
+				HttpMetadataCache.Entry entry = HttpMetadataCache.get(url, monitor);
+				// the entry is null if the user cancels the connection
+				if (entry==null) return null;
+				siteStream = new FileInputStream(entry.getFile());
+				lastModified = entry.getLastModified();
+			} else {
+				URL resolvedURL = URLEncoder.encode(url);
+				IResponse response = ConnectionFactory.get(resolvedURL);
+				UpdateManagerUtils.checkConnectionResult(response, resolvedURL);
+				siteStream = response.getInputStream(monitor);
+				// the stream can be null if the user cancels the connection
+				if (siteStream==null) return null;
+				lastModified = response.getLastModified();
+			}
 
 			SiteModelFactory factory = this;
 			site = (Site) factory.parseSite(siteStream);
@@ -86,7 +97,7 @@ public class SiteURLFactory extends BaseSiteFactory implements ISiteFactoryExten
 			/*SiteWithTimestamp siteWithTimestamp = new SiteWithTimestamp(site);
 			siteWithTimestamp.setTimestamp( new Date(response.getLastModified()));
 			site = siteWithTimestamp;*/
-			((SiteWithTimestamp)site).setTimestamp( new Date(response.getLastModified()));
+			((SiteWithTimestamp)site).setTimestamp( new Date(lastModified));
 		} catch (MalformedURLException e) {
 			throw Utilities.newCoreException(NLS.bind(Messages.SiteURLFactory_UnableToCreateURL, (new String[] { url == null ? "" : url.toExternalForm() })), e); //$NON-NLS-1$
 		} catch (IOException e) {
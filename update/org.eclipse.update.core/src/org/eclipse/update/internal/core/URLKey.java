@@ -10,17 +10,25 @@
  *******************************************************************************/
 package org.eclipse.update.internal.core;
  
+import java.io.File;
 import java.net.*;
 
 
 
 /**
- * 
- * 
+ * Map key for URLs.
+ * <p>
+ * Keys are compared on a normalized form of the URL: scheme and host
+ * are lower cased, the default port is dropped and file URLs are compared
+ * on their file path. Unlike <code>URL.equals</code> and
+ * <code>URL.hashCode</code>, the host name is never resolved, so lookups
+ * never go to the network and virtual hosts sharing an address stay
+ * distinct.
  */
 public class URLKey {
 
 	private URL url;
+	private String key;
 	
 	/**
 	 * Constructor for URLKey.
@@ -28,6 +36,28 @@ public class URLKey {
 	public URLKey(URL url) {
 		super();
 		this.url = url;
+		this.key = normalize(url);
+	}
+
+	private static String normalize(URL url) {
+		String protocol = url.getProtocol() == null ? "" : url.getProtocol().toLowerCase(); //$NON-NLS-1$
+		StringBuffer buffer = new StringBuffer(protocol);
+		buffer.append(':');
+		if ("file".equals(protocol)) { //$NON-NLS-1$
+			// file:/C:/ and file:C:/ denote the same file
+			buffer.append(new File(url.getFile()).getPath());
+		} else {
+			String host = url.getHost();
+			if (host != null && host.length() > 0)
+				buffer.append("//").append(host.toLowerCase()); //$NON-NLS-1$
+			int port = url.getPort();
+			if (port != -1 && port != url.getDefaultPort())
+				buffer.append(':').append(port);
+			buffer.append(url.getFile());
+		}
+		if (url.getRef() != null)
+			buffer.append('#').append(url.getRef());
+		return buffer.toString();
 	}
 
 	/**
@@ -43,26 +73,21 @@ public class URLKey {
 			}
 
 			if (obj instanceof URLKey) {
-				return equals(((URLKey) obj).getURL());
+				return key.equals(((URLKey) obj).key);
 			}
 
 			if (!(obj instanceof URL)) {
 				return false;
 			}
 
-			URL url2 = (URL)obj;
-			if (url == url2) {
-				return true;
-			}
-
-			return UpdateManagerUtils.sameURL(url,url2);
+			return key.equals(normalize((URL) obj));
 	}
 
 	/**
 	 * @see java.lang.Object#hashCode()
 	 */
 	public int hashCode() {
-		return url.hashCode();
+		return key.hashCode();
 	}
 
 	/**
@@ -73,4 +98,11 @@ public class URLKey {
 		return url;
 	}
 
+	/**
+	 * Returns the normalized form of the url.
+	 */
+	public String toString() {
+		return key;
+	}
+
 }
@@ -21,6 +21,7 @@ import org.eclipse.update.configurator.ConfiguratorUtils;
 import org.eclipse.update.configurator.IPlatformConfiguration;
 import org.eclipse.update.core.*;
 import org.eclipse.update.internal.core.connection.ConnectionThreadManagerFactory;
+import org.eclipse.update.internal.security.VerificationCache;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.packageadmin.PackageAdmin;
 import org.osgi.util.tracker.ServiceTracker;
@@ -46,10 +47,18 @@ public class UpdateCore extends Plugin {
 	public static final String P_CHECK_SIGNATURE = PREFIX + ".checkSignature"; //$NON-NLS-1$
 	public static final String P_AUTOMATICALLY_CHOOSE_MIRROR =  PREFIX + ".automaticallyChooseMirror"; //$NON-NLS-1$
 	public static final String P_UPDATE_VERSIONS = PREFIX + ".updateVersions"; //$NON-NLS-1$
+	public static final String P_DOWNLOAD_THREADS = PREFIX + ".downloadThreads"; //$NON-NLS-1$
+	public static final String P_SEARCH_THREADS = PREFIX + ".searchThreads"; //$NON-NLS-1$
+	public static final String P_SEARCH_SITE_TIMEOUT = PREFIX + ".searchSiteTimeout"; //$NON-NLS-1$
+	public static final String P_ARTIFACT_STORE_SIZE = PREFIX + ".artifactStoreSize"; //$NON-NLS-1$
 	public static final String EQUIVALENT_VALUE = "equivalent"; //$NON-NLS-1$
 	public static final String COMPATIBLE_VALUE = "compatible"; //$NON-NLS-1$
 	
 	public static int DEFAULT_HISTORY = 100;//Integer.MAX_VALUE;
+	public static int DEFAULT_DOWNLOAD_THREADS = 4;
+	public static int DEFAULT_SEARCH_THREADS = 4;
+	public static int DEFAULT_SEARCH_SITE_TIMEOUT = 300000; // 5 minutes
+	public static int DEFAULT_ARTIFACT_STORE_SIZE = 1024; // megabytes
 	
 	//The shared instance.
 	private static UpdateCore plugin;
@@ -176,20 +185,28 @@ public class UpdateCore extends Plugin {
 	 */
 	private static File getInstallLogFile() throws IOException {
 		
+		File updateStateLocation = getUpdateStateLocation();
+		if (updateStateLocation == null)
+			return null;
+		return new File(updateStateLocation, LOG_FILE);
+	}
+
+	/**
+	 * Returns the directory holding the update manager state, which is
+	 * the directory of the platform configuration, or <code>null</code>
+	 * if the configuration is not stored on the local file system.
+	 */
+	public static File getUpdateStateLocation() {
+		
 		IPlatformConfiguration config = ConfiguratorUtils.getCurrentPlatformConfiguration();		
 		URL configurationLocation = config.getConfigurationLocation();
 		if (configurationLocation==null){
-			warn("Unable to retrieve location for update manager log file"); //$NON-NLS-1$
+			warn("Unable to retrieve location for update manager state"); //$NON-NLS-1$
 			return null;
 		}
-//		URL configLocation = Platform.resolve(configurationLocation);
-		File updateStateLocation = null;
-
-		if ("file".equalsIgnoreCase(configurationLocation.getProtocol())) { //$NON-NLS-1$
-			File path = new File(configurationLocation.getFile());
-			updateStateLocation = new File(path.getParentFile(), LOG_FILE);
-		}
-		return updateStateLocation;
+		if (!"file".equalsIgnoreCase(configurationLocation.getProtocol())) //$NON-NLS-1$
+			return null;
+		return new File(configurationLocation.getFile()).getParentFile();
 	}
 
 	/**
@@ -258,6 +275,11 @@ public class UpdateCore extends Plugin {
 		
 		JarContentReference.shutdown(); // make sure we are not leaving jars open
 		Utilities.shutdown(); // cleanup temp area
+		ArtifactStore.shutdown(); // save the archive access times
+		HttpMetadataCache.shutdown(); // prune superseded and unused entries
+		FileFragmentStore.shutdown(); // save the interrupted downloads
+		MirrorRanking.shutdown(); // save the mirror measurements
+		VerificationCache.shutdown(); // prune unused verification results
 		if (log!=null)
 			log.shutdown();
 		
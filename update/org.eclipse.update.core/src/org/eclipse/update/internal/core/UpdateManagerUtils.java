@@ -23,6 +23,7 @@ import org.eclipse.osgi.util.NLS;
 import org.eclipse.update.core.*;
 import org.eclipse.update.core.model.InstallAbortedException;
 import org.eclipse.update.internal.core.connection.ConnectionFactory;
+import org.eclipse.update.internal.core.connection.HttpResponse;
 import org.eclipse.update.internal.core.connection.IResponse;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
@@ -57,10 +58,14 @@ public class UpdateManagerUtils {
 	// manage URL to File
 	private static Map urlFileMap;
 
-	private static Map localFileFragmentMap;
-	private static Stack bufferPool;
-	private static final int BUFFER_SIZE = 4096; // 4kbytes
-	private static final int INCREMENT_SIZE = 10240; // 10kbytes
+	// one buffer per copying thread, so copies never contend for a pool
+	private static ThreadLocal buffers = new ThreadLocal();
+	private static final int BUFFER_SIZE = 65536; // 64kbytes
+	static final int INCREMENT_SIZE = 10240; // 10kbytes
+	// whether file to file copies can use java new I/O,
+	// which is optional on cdcFoundation
+	private static boolean checkNio = false;
+	private static boolean useNio;
 	/**
 	 * return the urlString if it is a absolute URL
 	 * otherwise, return the default URL if the urlString is null
@@ -704,6 +709,15 @@ public class UpdateManagerUtils {
 			}
 			URL resolvedURL = URLEncoder.encode(url);
 			IResponse response = ConnectionFactory.get(resolvedURL);
+			if (response instanceof HttpResponse) {
+				// let the server answer 304 without a body when unchanged
+				HttpResponse httpResponse = (HttpResponse) response;
+				httpResponse.setCacheValidators(null, timestamp);
+				if (httpResponse.isNotModified()) {
+					httpResponse.close();
+					return true;
+				}
+			}
 			long remoteLastModified = response.getLastModified();
 			// 2 seconds tolerance, as some OS's may round up the time stamp
 			// to the closest second. For safety, we make it 2 seconds.
@@ -721,11 +735,8 @@ public class UpdateManagerUtils {
 	 */
 	public synchronized static void mapLocalFileFragment(String key, FileFragment temp) {
 		// create file association 
-		if (key != null) {
-			if (localFileFragmentMap == null)
-				localFileFragmentMap = new HashMap();
-			localFileFragmentMap.put(key, temp);
-		}
+		if (key != null)
+			FileFragmentStore.put(key, temp);
 	}
 
 	/**
@@ -734,22 +745,19 @@ public class UpdateManagerUtils {
 	 */
 	public synchronized static void unMapLocalFileFragment(String key) {
 		// remove file association 
-		if (key != null && localFileFragmentMap !=null) {
-			localFileFragmentMap.remove(key);
-		}
+		if (key != null)
+			FileFragmentStore.remove(key);
 	}
 	
 	/**
-	 * Returns a previously cached local file (in temporary area) matching the
-	 * specified key. 
+	 * Returns a previously downloaded file fragment matching the
+	 * specified key. Fragments are kept across sessions when possible.
 	 * 
 	 * @param key lookup key
 	 * @return cached file, or <code>null</code>.
 	 */
 	public static synchronized FileFragment lookupLocalFileFragment(String key) {
-		if (localFileFragmentMap == null)
-			return null;
-		return (FileFragment) localFileFragmentMap.get(key);
+		return FileFragmentStore.get(key);
 	}
 	
 	/**
@@ -764,6 +772,9 @@ public class UpdateManagerUtils {
 	 * @since 2.0
 	 */
 	public static long copy(InputStream is, OutputStream os, InstallMonitor monitor, long expectedLength) {
+		if (is instanceof FileInputStream && os instanceof FileOutputStream && canTransfer())
+			return FileTransfer_JavaNio.transfer((FileInputStream) is, (FileOutputStream) os, monitor, expectedLength);
+
 		byte[] buf = getBuffer();
 		long offset=0;
 		try {
@@ -801,27 +812,29 @@ public class UpdateManagerUtils {
 			// passed up the calling stack
 			UpdateCore.log(Messages.UpdateManagerUtils_copy + offset, e); 
 			return offset;
-		} finally {
-			freeBuffer(buf);
 		}
 	}
 
-	private static synchronized byte[] getBuffer() {
-		if (bufferPool == null) {
-			return new byte[BUFFER_SIZE];
-		}
-
-		try {
-			return (byte[]) bufferPool.pop();
-		} catch (EmptyStackException e) {
-			return new byte[BUFFER_SIZE];
+	private static synchronized boolean canTransfer() {
+		if (!checkNio) {
+			useNio = true;
+			try {
+				Class.forName("java.nio.channels.FileChannel"); //$NON-NLS-1$
+			} catch (ClassNotFoundException e) {
+				useNio = false;
+			}
+			checkNio = true;
 		}
+		return useNio;
 	}
 
-	private static synchronized void freeBuffer(byte[] buf) {
-		if (bufferPool == null)
-			bufferPool = new Stack();
-		bufferPool.push(buf);
+	private static byte[] getBuffer() {
+		byte[] buf = (byte[]) buffers.get();
+		if (buf == null) {
+			buf = new byte[BUFFER_SIZE];
+			buffers.set(buf);
+		}
+		return buf;
 	}
 	
 	
@@ -882,7 +895,11 @@ public class UpdateManagerUtils {
 		return buf.toString();
 	}
 	
-	public static LiteFeature[] getLightFeatures(ExtendedSite site) {
+	/**
+	 * Returns the index of the features of the site digest, or <code>null</code>
+	 * if the digest cannot be read.
+	 */
+	public static DigestIndex getDigestIndex(ExtendedSite site) {
 		
 		URL fullDigestURL;
 		try {
@@ -894,11 +911,7 @@ public class UpdateManagerUtils {
 		
 		Digest digest = new Digest( fullDigestURL);
 		try {
-			LiteFeature[] features =  (LiteFeature[])digest.parseDigest();
-			for(int i = 0; i < features.length; i++) {
-				features[i].setSite(site);
-			}
-			return features;
+			return digest.parseIndex();
 		} catch(Exception e){ 
 			UpdateCore.log("Digest could not be parsed:" + e.getMessage(), null); //$NON-NLS-1$
 			return null;
@@ -47,5 +47,9 @@ public class UpdatePreferencesInitializer extends AbstractPreferenceInitializer
 		plugin.getPluginPreferences().setDefault(UpdateCore.P_AUTOMATICALLY_CHOOSE_MIRROR, false);
 		plugin.getPluginPreferences().setDefault(UpdateCore.P_HISTORY_SIZE, UpdateCore.DEFAULT_HISTORY);
 		plugin.getPluginPreferences().setDefault(UpdateCore.P_UPDATE_VERSIONS, UpdateCore.EQUIVALENT_VALUE);
+		plugin.getPluginPreferences().setDefault(UpdateCore.P_DOWNLOAD_THREADS, UpdateCore.DEFAULT_DOWNLOAD_THREADS);
+		plugin.getPluginPreferences().setDefault(UpdateCore.P_SEARCH_THREADS, UpdateCore.DEFAULT_SEARCH_THREADS);
+		plugin.getPluginPreferences().setDefault(UpdateCore.P_SEARCH_SITE_TIMEOUT, UpdateCore.DEFAULT_SEARCH_SITE_TIMEOUT);
+		plugin.getPluginPreferences().setDefault(UpdateCore.P_ARTIFACT_STORE_SIZE, UpdateCore.DEFAULT_ARTIFACT_STORE_SIZE);
 	}
 }
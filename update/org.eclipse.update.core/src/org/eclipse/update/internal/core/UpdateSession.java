@@ -28,13 +28,13 @@ public class UpdateSession {
 	public boolean isVisited(URL url) {
 		if (!enabled)
 			return false;
-		return visitedURLs.contains(url.toExternalForm());
+		return visitedURLs.contains(new URLKey(url));
 	}
 
 	public void markVisited(URL url) {
 		if (!enabled)
 			return ;
-		visitedURLs.add(url.toExternalForm());
+		visitedURLs.add(new URLKey(url));
 	}
 	
 	/*
@@ -34,9 +34,7 @@ public abstract class AbstractResponse implements IResponse {
 	
 		ConnectionThreadManager.StreamRunnable runnable =
 			new ConnectionThreadManager.StreamRunnable(urlConnection);
-		Thread t = ConnectionThreadManagerFactory.getConnectionManager().getConnectionThread(
-				runnable);
-		t.start();
+		ConnectionThreadManagerFactory.getConnectionManager().execute(runnable);
 		InputStream is = null;
 		try {
 			for (;;) {
@@ -45,10 +43,6 @@ public abstract class AbstractResponse implements IResponse {
 	                connection = null;
 					break;
 				}
-				if (runnable.getInputStream() != null || !t.isAlive()) {
-					is = runnable.getInputStream();
-					break;
-				}
 				if (runnable.getIOException() != null) 
 					throw runnable.getIOException();
 				if (runnable.getException() != null) 
@@ -57,7 +51,11 @@ public abstract class AbstractResponse implements IResponse {
 															IStatus.OK,
 															runnable.getException().getMessage(), 
 															runnable.getException()));
-				t.join(POLLING_INTERVAL);
+				if (runnable.getInputStream() != null || runnable.isDone()) {
+					is = runnable.getInputStream();
+					break;
+				}
+				runnable.waitFor(POLLING_INTERVAL);
 				}
 		} catch (InterruptedException e) {
 		}
@@ -17,54 +17,67 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
-
-import org.eclipse.core.runtime.CoreException;
-import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.MultiStatus;
-import org.eclipse.core.runtime.Status;
-import org.eclipse.osgi.util.NLS;
-import org.eclipse.update.internal.core.Messages;
-import org.eclipse.update.internal.core.UpdateCore;
+import java.util.Map;
 
 /**
- * This class manages threads that are dispatched to 
+ * This class manages threads that are dispatched to
  * obtained a valid input stream from an HTTP connection.
  * Since obtaining an input stream is an I/O operation
  * that may block for a long time, it is performed
  * on a separate thread to keep the UI responsive.
  * <p>
- * In case that a connection blocks and does not
- * terminate with an IOException after a timeout, 
- * active threads may accumulate. The manager will
- * refuse to create more than MAX_COUNT threads and
- * instead will throw a CoreException with a child
- * status object for each connection that is still pending.
+ * Connection requests are queued and served by a bounded
+ * pool of reusable daemon threads. At most MAX_COUNT threads
+ * are active at any time, and at most MAX_PER_HOST of them
+ * work against the same host; requests above those limits
+ * wait in the queue instead of failing. Idle threads terminate
+ * after KEEP_ALIVE milliseconds.
  * <p>
  * If the connection is responsive but slow, the user
- * may cancel it. In that case, the manager will
+ * may cancel it. A request that is still queued is simply
+ * dropped; a request in progress is disconnected and its
+ * thread interrupted. In the latter case the manager will
  * close the stream to avoid resource leak.
  */
 public class ConnectionThreadManager {
-	
+
 	// set connection timeout to 1 minute
 	private static final String CONNECT_TIMEOUT = "60000"; //$NON-NLS-1$
 	// set read timeout to 1 minute
 	private static final String READ_TIMEOUT = "60000"; //$NON-NLS-1$
 	// max number of active threads
 	private static final int MAX_COUNT = 9;
+	// max number of active threads connecting to the same host
+	private static final int MAX_PER_HOST = 4;
+	// time an idle thread waits for more work before terminating
+	private static final long KEEP_ALIVE = 30000;
+
+	// all fields below are guarded by this manager
 	private List threads = new ArrayList(MAX_COUNT);
-	
-	
+	private LinkedList queue = new LinkedList();
+	// host key (String) -> number of active requests (int[1])
+	private Map activePerHost = new HashMap();
+	private int idleCount;
+	private boolean shutdown;
+
 
 	public static class StreamRunnable implements Runnable {
-		
+
 		private URLConnection urlConnection;
 		private IOException ioException;
 		private Exception exception;
 		private InputStream is;
 		private boolean disconnected;
 
+		// guarded by this runnable
+		private boolean done;
+		private Thread worker;
+		private ConnectionThreadManager manager;
+
 		public StreamRunnable(URLConnection urlConnection) {
 			this.urlConnection = urlConnection;
 		}
@@ -80,15 +93,72 @@ public class ConnectionThreadManager {
 		public IOException getIOException() {
 			return ioException;
 		}
-		
+
 		public Exception getException() {
 			return exception;
 		}
 
+		/**
+		 * Cancels this request. A request still waiting in the queue
+		 * is removed and never started; a running request has its
+		 * connection closed and its thread interrupted.
+		 */
 		public void disconnect() {
+			disconnected = true;
+			ConnectionThreadManager owner;
+			synchronized (this) {
+				owner = manager;
+			}
+			if (owner != null && owner.dequeue(this)) {
+				finish();
+				return;
+			}
 			if (urlConnection instanceof HttpURLConnection)
 				((HttpURLConnection)urlConnection).disconnect();
-			disconnected = true;
+			synchronized (this) {
+				// only interrupt the worker while it still serves this request
+				if (worker != null)
+					worker.interrupt();
+			}
+		}
+
+		/**
+		 * Returns <code>true</code> once the request has completed,
+		 * failed or was canceled before it started.
+		 */
+		public synchronized boolean isDone() {
+			return done;
+		}
+
+		/**
+		 * Waits at most <code>timeout</code> milliseconds for the
+		 * request to be done.
+		 */
+		public synchronized void waitFor(long timeout) throws InterruptedException {
+			if (!done)
+				wait(timeout);
+		}
+
+		synchronized void setManager(ConnectionThreadManager manager) {
+			this.manager = manager;
+		}
+
+		synchronized void started(Thread worker) {
+			this.worker = worker;
+		}
+
+		synchronized void finish() {
+			worker = null;
+			done = true;
+			notifyAll();
+		}
+
+		String getHostKey() {
+			URL url = getURL();
+			// string based on purpose: URL.hashCode() would resolve the host
+			String host = url.getHost() == null ? "" : url.getHost().toLowerCase(); //$NON-NLS-1$
+			int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+			return url.getProtocol() + "://" + host + ":" + port; //$NON-NLS-1$ //$NON-NLS-2$
 		}
 
 		public void run() {
@@ -98,7 +168,7 @@ public class ConnectionThreadManager {
 					// The connection was slow, but returned
 					// a valid input stream. However,
 					// the user canceled the connection
-					// so we must close to avoid 
+					// so we must close to avoid
 					// resource leak.
 					if (is != null) {
 						try {
@@ -114,24 +184,29 @@ public class ConnectionThreadManager {
 				ioException = e;
 			} catch (Exception e) {
 				exception = e;
-			} finally {
-				//threads.
 			}
 		}
 	}
 
-	
+
 	class ConnectionThread extends Thread {
-		
-		private StreamRunnable runnable;
-		
-		public ConnectionThread(StreamRunnable runnable) {
-			super(runnable, "update-connection"); //$NON-NLS-1$
-			this.runnable = runnable;
+
+		public ConnectionThread() {
+			super("update-connection"); //$NON-NLS-1$
+			setDaemon(true);
 		}
 
-		public StreamRunnable getRunnable() {
-			return runnable;
+		public void run() {
+			StreamRunnable runnable;
+			while ((runnable = nextRunnable(this)) != null) {
+				try {
+					runnable.run();
+				} finally {
+					complete(runnable);
+					// clear a cancellation interrupt before serving the next request
+					Thread.interrupted();
+				}
+			}
 		}
 	}
 
@@ -140,92 +215,113 @@ public class ConnectionThreadManager {
 		setIfNotDefaultProperty("sun.net.client.defaultConnectTimeout", CONNECT_TIMEOUT); //$NON-NLS-1$
 		setIfNotDefaultProperty("sun.net.client.defaultReadTimeout", READ_TIMEOUT);  //$NON-NLS-1$
 	}
-	
+
 	private void setIfNotDefaultProperty(String key, String value) {
 		String oldValue = System.getProperty(key);
 		if (oldValue==null || oldValue.equals("-1")) //$NON-NLS-1$
 			System.setProperty(key, value);
 	}
 
-	public Thread getConnectionThread(StreamRunnable runnable) throws CoreException {
-		
-		validateExistingThreads();
-	
-		//if (threads == null)
-		//	threads = new Vector();
-		Thread t = new Thread(runnable);
-		t.setDaemon(true);
-		threads.add(t);
-		return t;
+	/**
+	 * Queues the runnable for execution on one of the pooled
+	 * connection threads. Callers poll the runnable (see
+	 * {@link StreamRunnable#waitFor(long)}) for the result and use
+	 * {@link StreamRunnable#disconnect()} to cancel it.
+	 */
+	public synchronized void execute(StreamRunnable runnable) {
+		shutdown = false;
+		runnable.setManager(this);
+		queue.addLast(runnable);
+		notifyAll();
+		// idle threads only leave the idle count once they get the lock
+		// back, so a burst of requests must not all count on the same one
+		if (queue.size() > idleCount && threads.size() < MAX_COUNT) {
+			Thread t = new ConnectionThread();
+			threads.add(t);
+			t.start();
+		}
 	}
 
 	/*
-	 * Removes threads that are not alive any more from the 
-	 * list and ensures that there are at most MAX_COUNT threads
-	 * still working.
+	 * Blocks until a queued runnable can be served by the given thread
+	 * without exceeding the per host limit. Returns null when the thread
+	 * should terminate.
 	 */
-	private void validateExistingThreads() throws CoreException {
-		
-		if ((threads == null) || (threads.size() == 0))
-			return;
-		
-		int aliveCount = purgeTerminatedThreads();
-
-		if (aliveCount > MAX_COUNT) {
-			ArrayList children = new ArrayList();
-			String pluginId =
-				UpdateCore.getPlugin().getBundle().getSymbolicName();
-			for (int i = 0; i < threads.size(); i++) {
-				ConnectionThread t = (ConnectionThread) threads.get(i);
-				String url = t.getRunnable().getURL().toString();
-				IStatus status =
-					new Status(
-						IStatus.ERROR,
-						pluginId,
-						IStatus.OK,
-						NLS.bind(Messages.ConnectionThreadManager_unresponsiveURL, (new String[] { url })),
-						null);
-				children.add(status);
+	private synchronized StreamRunnable nextRunnable(Thread thread) {
+		long idleSince = System.currentTimeMillis();
+		for (;;) {
+			StreamRunnable runnable = pollRunnable();
+			if (runnable != null) {
+				runnable.started(thread);
+				return runnable;
+			}
+			long remaining = KEEP_ALIVE - (System.currentTimeMillis() - idleSince);
+			if (shutdown || remaining <= 0) {
+				threads.remove(thread);
+				return null;
+			}
+			idleCount++;
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				// re-check the queue
+			} finally {
+				idleCount--;
 			}
-			MultiStatus parentStatus =
-				new MultiStatus(
-					pluginId,
-					IStatus.OK,
-					(IStatus[]) children.toArray(new IStatus[children.size()]),
-					Messages.ConnectionThreadManager_tooManyConnections, 
-					null);
-			throw new CoreException(parentStatus);
 		}
 	}
-	
+
 	/*
-	 * Removes terminated threads from the list and returns
-	 * the number of those still active.
+	 * Removes and returns the first queued runnable whose host
+	 * has a free slot.
 	 */
-	
-	private int purgeTerminatedThreads() {
-		
-		if (threads.size() == 0) {
-			return 0;
-		}
-		
-		int aliveCount = 0;
-
-		Object[] array = threads.toArray();
-		for (int i = 0; i < array.length; i++) {
-			Thread t = (Thread) array[i];
-			if (!t.isAlive())
-				threads.remove(t);
-			else
-				aliveCount++;
-		}
-		return aliveCount;
+	private StreamRunnable pollRunnable() {
+		for (Iterator iter = queue.iterator(); iter.hasNext();) {
+			StreamRunnable runnable = (StreamRunnable) iter.next();
+			String hostKey = runnable.getHostKey();
+			int[] count = (int[]) activePerHost.get(hostKey);
+			if (count == null) {
+				count = new int[1];
+				activePerHost.put(hostKey, count);
+			}
+			if (count[0] < MAX_PER_HOST) {
+				count[0]++;
+				iter.remove();
+				return runnable;
+			}
+		}
+		return null;
+	}
+
+	private void complete(StreamRunnable runnable) {
+		synchronized (this) {
+			String hostKey = runnable.getHostKey();
+			int[] count = (int[]) activePerHost.get(hostKey);
+			if (count != null && --count[0] <= 0)
+				activePerHost.remove(hostKey);
+			// a host slot was freed, let idle threads re-check the queue
+			notifyAll();
+		}
+		runnable.finish();
+	}
+
+	synchronized boolean dequeue(StreamRunnable runnable) {
+		return queue.remove(runnable);
 	}
 
 	public void shutdown() {
-		// We might want to kill the active threads but
-		// this is not really necessary since they are all
+		// Active threads are not killed, they are all
 		// daemons and will not prevent JVM to terminate.
-		threads.clear();
+		// Queued requests are canceled and idle threads released.
+		Object[] pending;
+		synchronized (this) {
+			shutdown = true;
+			pending = queue.toArray();
+			queue.clear();
+			threads.clear();
+			notifyAll();
+		}
+		for (int i = 0; i < pending.length; i++)
+			((StreamRunnable) pending[i]).finish();
 	}
 }
@@ -16,6 +16,10 @@ import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -23,6 +27,12 @@ import org.eclipse.update.internal.core.Messages;
 import org.eclipse.update.internal.core.UpdateCore;
 
 public class HttpResponse extends AbstractResponse {
+	/**
+	 * HTTP response code indicating that a conditional request
+	 * matched the cached copy.
+	 */
+	public static final int HTTP_NOT_MODIFIED = 304;
+
 	/**
 	 * Monitored InputStream.  Upon IOException, discards
 	 * connection so it is not reused.
@@ -110,6 +120,9 @@ public class HttpResponse extends AbstractResponse {
 	protected InputStream in;
 	protected long lastModified;
 	protected long offset;
+	protected String ifNoneMatch;
+	protected long ifModifiedSince;
+	protected long ifRange;
 
 	protected HttpResponse(URL url) {
 		
@@ -122,6 +135,7 @@ public class HttpResponse extends AbstractResponse {
 				connection = url.openConnection();
 			if (offset > 0)
 				connection.setRequestProperty("Range", "bytes=" + offset + "-"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			setValidators();
 			try {
 				in = new MonitoringInputStream(connection.getInputStream(), connection);
 			} catch (IOException ioe) {
@@ -157,6 +171,7 @@ public class HttpResponse extends AbstractResponse {
 				connection = url.openConnection();
 			if (offset > 0)
 				connection.setRequestProperty("Range", "bytes=" + offset + "-"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			setValidators();
 
 			if (monitor != null) {
 				try {
@@ -196,6 +211,7 @@ public class HttpResponse extends AbstractResponse {
 		if (connection == null)
 			try {
 				connection = url.openConnection();
+				setValidators();
 			} catch (IOException e) {
 			}
 		if (connection != null) {
@@ -224,6 +240,7 @@ public class HttpResponse extends AbstractResponse {
 			if (connection == null)
 				try {
 					connection = url.openConnection();
+					setValidators();
 				} catch (IOException e) {
 				}
 			if (connection != null)
@@ -235,6 +252,63 @@ public class HttpResponse extends AbstractResponse {
 	public void setOffset(long offset) {
 		this.offset = offset;
 	}
+
+	/**
+	 * Makes a range request conditional on the content not being modified
+	 * since the given time. When it was, the server sends the whole
+	 * content instead of the range, which is reported as a missing range.
+	 * 
+	 * @param lastModified the last modification time of the bytes already
+	 * available, or <code>0</code>
+	 */
+	public void setRangeValidator(long lastModified) {
+		this.ifRange = lastModified;
+	}
+
+	/**
+	 * Makes the request conditional on the cached copy described by
+	 * the validators being out of date. When it is still current, the
+	 * server answers with {@link #HTTP_NOT_MODIFIED} and an empty body.
+	 * 
+	 * @param etag the entity tag of the cached copy, or <code>null</code>
+	 * @param lastModified the last modification time of the cached copy,
+	 * or <code>0</code>
+	 */
+	public void setCacheValidators(String etag, long lastModified) {
+		this.ifNoneMatch = etag;
+		this.ifModifiedSince = lastModified;
+	}
+
+	/**
+	 * Returns <code>true</code> if the server reported that the cached
+	 * copy passed to {@link #setCacheValidators(String, long)} is current.
+	 */
+	public boolean isNotModified() {
+		if (ifNoneMatch == null && ifModifiedSince <= 0)
+			return false;
+		return getStatusCode() == HTTP_NOT_MODIFIED;
+	}
+
+	/**
+	 * Returns the entity tag of the response, or <code>null</code>.
+	 */
+	public String getETag() {
+		if (connection == null)
+			return null;
+		return connection.getHeaderField("ETag"); //$NON-NLS-1$
+	}
+
+	private void setValidators() {
+		if (ifNoneMatch != null)
+			connection.setRequestProperty("If-None-Match", ifNoneMatch); //$NON-NLS-1$
+		if (ifModifiedSince > 0)
+			connection.setIfModifiedSince(ifModifiedSince);
+		if (offset > 0 && ifRange > 0) {
+			SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US); //$NON-NLS-1$
+			format.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+			connection.setRequestProperty("If-Range", format.format(new Date(ifRange))); //$NON-NLS-1$
+		}
+	}
 	private void checkOffset() throws IOException {
 		if (offset == 0)
 			return;
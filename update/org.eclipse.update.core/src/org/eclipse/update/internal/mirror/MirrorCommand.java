@@ -44,6 +44,7 @@ public class MirrorCommand extends ScriptedCommand {
 	private String toSiteDir;
 	private String mirrorURL;
 	private boolean ignoreNonPresentPlugins = false;
+	private int threads = 1;
 	private MirrorSite mirrorSite;
 
 	public MirrorCommand(
@@ -53,12 +54,34 @@ public class MirrorCommand extends ScriptedCommand {
 		String toSiteDir,
 		String mirrorUrl, 
 		String ignoreNonPresentPlugins) {
+		this(featureId, featureVersion, fromSiteUrl, toSiteDir, mirrorUrl, ignoreNonPresentPlugins, null);
+	}
+
+	/**
+	 * @param threads number of features mirrored at the same time,
+	 * or <code>null</code> to mirror them one by one
+	 */
+	public MirrorCommand(
+		String featureId,
+		String featureVersion,
+		String fromSiteUrl,
+		String toSiteDir,
+		String mirrorUrl, 
+		String ignoreNonPresentPlugins,
+		String threads) {
 		this.featureId = featureId;
 		this.featureVersion = featureVersion;
 		this.fromSiteUrl = fromSiteUrl;
 		this.toSiteDir = toSiteDir;
 		this.mirrorURL = mirrorUrl;
 		this.ignoreNonPresentPlugins = (ignoreNonPresentPlugins != null) && (ignoreNonPresentPlugins.equals("true")); //$NON-NLS-1$
+		if (threads != null) {
+			try {
+				this.threads = Integer.parseInt(threads);
+			} catch (NumberFormatException e) {
+				System.out.println("Invalid number of threads " + threads + ".  Features will be mirrored one by one."); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
 	}
 
 	/**
@@ -140,6 +163,7 @@ public class MirrorCommand extends ScriptedCommand {
 					mirrorSite =
 						(MirrorSite) factory.createSite(new File(toSiteDir));
 					mirrorSite.setIgnoreNonPresentPlugins(ignoreNonPresentPlugins);
+					mirrorSite.setThreads(threads);
 				} catch (InvalidSiteTypeException iste) {
 				}
 				System.out.println("  Done."); //$NON-NLS-1$
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.mirror;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.update.internal.core.UpdateCore;
+
+/**
+ * Journal of the archives stored on a mirror site.
+ * <p>
+ * Each archive is recorded, once completely written, with its length,
+ * the length and modification time of its source and the digest of its
+ * content, in the <code>mirror.journal</code> file at the root of the
+ * site. The file is only appended to, so the records written before an
+ * interruption are kept. A later run compares the length and modification
+ * time the remote site reports with the record before downloading, and
+ * skips the archives whose source did not change.
+ */
+public class MirrorJournal {
+
+	private static final String JOURNAL_NAME = "mirror.journal"; //$NON-NLS-1$
+	private static final String NO_DIGEST = "-"; //$NON-NLS-1$
+
+	private static class Record {
+		long length;
+		long sourceLength;
+		long sourceModified;
+		String digest;
+
+		Record(long length, long sourceLength, long sourceModified, String digest) {
+			this.length = length;
+			this.sourceLength = sourceLength;
+			this.sourceModified = sourceModified;
+			this.digest = digest;
+		}
+	}
+
+	private File root;
+	private File file;
+	// relative path -> Record
+	private Map records = new HashMap();
+	private PrintWriter writer;
+
+	/**
+	 * Opens the journal of the mirror site at the given root.
+	 */
+	public MirrorJournal(File root) {
+		this.root = root;
+		this.file = new File(root, JOURNAL_NAME);
+		load();
+	}
+
+	/**
+	 * Returns <code>true</code> if the archive was mirrored to the target
+	 * before from a source of the same length and modification time, and
+	 * was not changed since. The source need not be downloaded again.
+	 *
+	 * @param target the archive on the mirror site
+	 * @param sourceLength the length the remote site reports, or
+	 * <code>ContentReference.UNKNOWN_SIZE</code>
+	 * @param sourceModified the modification time the remote site reports,
+	 * or 0
+	 */
+	public synchronized boolean isMirrored(File target, long sourceLength, long sourceModified) {
+		Record record = getRecord(target);
+		if (record == null || sourceLength <= 0 || sourceModified == 0)
+			return false;
+		return sourceLength == record.sourceLength && sourceModified == record.sourceModified;
+	}
+
+	/**
+	 * Returns <code>true</code> if the archive was mirrored to the target
+	 * before with the given content, and was not changed since.
+	 *
+	 * @param target the archive on the mirror site
+	 * @param digest the digest of the content
+	 */
+	public synchronized boolean isMirrored(File target, String digest) {
+		Record record = getRecord(target);
+		return record != null && digest != null && digest.equals(record.digest);
+	}
+
+	/*
+	 * Returns the record of the target, or null if there is none
+	 * or the target changed since it was recorded.
+	 */
+	private Record getRecord(File target) {
+		Record record = (Record) records.get(getPath(target));
+		if (record == null || !target.isFile() || target.length() != record.length)
+			return null;
+		return record;
+	}
+
+	/**
+	 * Records the archive as completely mirrored.
+	 *
+	 * @param target the archive on the mirror site
+	 * @param sourceLength the length of the source, or
+	 * <code>ContentReference.UNKNOWN_SIZE</code>
+	 * @param sourceModified the modification time of the source, or 0
+	 * @param digest the digest of its content, or <code>null</code>
+	 */
+	public synchronized void mirrored(File target, long sourceLength, long sourceModified, String digest) {
+		String path = getPath(target);
+		Record record = new Record(target.length(), sourceLength, sourceModified, digest);
+		records.put(path, record);
+		try {
+			if (writer == null)
+				writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file.getPath(), true), "UTF-8")); //$NON-NLS-1$
+			writer.println(record.length + " " + sourceLength + " " + sourceModified + " " + (digest == null ? NO_DIGEST : digest) + " " + path); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			writer.flush();
+		} catch (IOException e) {
+			UpdateCore.warn("Unable to write mirror journal " + file, e); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Closes the journal file.
+	 */
+	public synchronized void close() {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	private void load() {
+		if (!file.isFile())
+			return;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int first = line.indexOf(' ');
+				int second = first == -1 ? -1 : line.indexOf(' ', first + 1);
+				int third = second == -1 ? -1 : line.indexOf(' ', second + 1);
+				int fourth = third == -1 ? -1 : line.indexOf(' ', third + 1);
+				// a line cut short by an interruption
+				if (fourth == -1)
+					continue;
+				try {
+					long length = Long.parseLong(line.substring(0, first));
+					long sourceLength = Long.parseLong(line.substring(first + 1, second));
+					long sourceModified = Long.parseLong(line.substring(second + 1, third));
+					String digest = line.substring(third + 1, fourth);
+					// later records replace earlier ones
+					records.put(line.substring(fourth + 1), new Record(length, sourceLength, sourceModified, NO_DIGEST.equals(digest) ? null : digest));
+				} catch (NumberFormatException e) {
+					continue;
+				}
+			}
+		} catch (IOException e) {
+			UpdateCore.warn("Unable to read mirror journal " + file, e); //$NON-NLS-1$
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/*
+	 * Returns the path of the target relative to the site root, so the
+	 * journal stays valid if the site is moved.
+	 */
+	private String getPath(File target) {
+		String rootPath = root.getAbsolutePath();
+		String path = target.getAbsolutePath();
+		if (path.startsWith(rootPath + File.separator))
+			path = path.substring(rootPath.length() + 1);
+		return path.replace(File.separatorChar, '/');
+	}
+}
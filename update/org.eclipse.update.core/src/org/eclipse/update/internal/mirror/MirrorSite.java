@@ -44,6 +44,7 @@ import org.eclipse.update.core.VersionedIdentifier;
 import org.eclipse.update.core.model.CategoryModel;
 import org.eclipse.update.core.model.SiteModelFactory;
 import org.eclipse.update.core.model.URLEntryModel;
+import org.eclipse.update.internal.core.ArtifactStore;
 import org.eclipse.update.internal.core.CoreExceptionWithRootCause;
 import org.eclipse.update.internal.core.FatalIOException;
 import org.eclipse.update.internal.core.FeaturePackagedContentProvider;
@@ -57,6 +58,7 @@ import org.eclipse.update.standalone.StandaloneUpdateApplication;
  */
 public class MirrorSite extends Site {
 	private final static String INDENT = "   "; //$NON-NLS-1$
+	private final static String PART_SUFFIX = ".part"; //$NON-NLS-1$
 	private SiteModelFactory factory;
 	/**
 	 * plugin entries 
@@ -64,6 +66,10 @@ public class MirrorSite extends Site {
 	private Collection downloadedPluginEntries = new ArrayList();
 	private Collection downloadedFeatureReferenceModels = new ArrayList();
 	private boolean ignoreNonPresentPlugins;
+	private int threads = 1;
+	private MirrorJournal journal;
+	// keys of the features and plug-ins being mirrored
+	private Set claimed = new HashSet();
 	public MirrorSite(SiteModelFactory factory) {
 		this.factory = factory;
 	}
@@ -82,10 +88,15 @@ public class MirrorSite extends Site {
 		String mirrorSiteUrl)
 		throws CoreException {
 
-		mirrorAndExposeFeatures(
-			remoteSite,
-			sourceFeatureRefs,
-			optionalfeatures);
+		journal = new MirrorJournal(new File(getURL().getFile()));
+		try {
+			mirrorAndExposeFeatures(
+				remoteSite,
+				sourceFeatureRefs,
+				optionalfeatures);
+		} finally {
+			journal.close();
+		}
 
 		System.out.println(
 			"Installing features finished. Updating categories ..."); //$NON-NLS-1$
@@ -108,27 +119,11 @@ public class MirrorSite extends Site {
 
 		// Features that failed will be retried once again
 		Collection failedFeatures = new ArrayList();
+		boolean[] failed =
+			mirrorFeatures(remoteSite, sourceFeatureRefs, optionalfeatures);
 		for (int i = 0; i < sourceFeatureRefs.length; i++) {
-			try {
-				IFeature sourceFeature =
-					sourceFeatureRefs[i].getFeature(new NullProgressMonitor());
-				SiteFeatureReferenceModel featureRef =
-					mirrorFeature(
-						remoteSite,
-						sourceFeature,
-						optionalfeatures,
-						1);
-				// Set categories of the new feature
-				ICategory remoteCategories[] =
-					sourceFeatureRefs[i].getCategories();
-				for (int j = 0; j < remoteCategories.length; j++) {
-					featureRef.addCategoryName(remoteCategories[j].getName());
-				}
-
-				addFeatureReferenceModel(remoteSite, featureRef);
-			} catch (CoreException ce) {
+			if (failed[i])
 				failedFeatures.add(sourceFeatureRefs[i]);
-			}
 		}
 
 		// do we need to retry?
@@ -141,26 +136,107 @@ public class MirrorSite extends Site {
 		}
 
 		for (int i = 0; i < sourceFeatureRefs.length; i++) {
-			IFeature sourceFeature =
-				sourceFeatureRefs[i].getFeature(new NullProgressMonitor());
-			SiteFeatureReferenceModel featureRef =
-				mirrorFeature(remoteSite, sourceFeature, optionalfeatures, 1);
-			// Set categories of the new feature
-			ICategory remoteCategories[] = sourceFeatureRefs[i].getCategories();
-			for (int j = 0; j < remoteCategories.length; j++) {
-				featureRef.addCategoryName(remoteCategories[j].getName());
+			mirrorFeature(remoteSite, sourceFeatureRefs[i], optionalfeatures);
+		}
+	}
+
+	/**
+	 * Mirrors the features on up to <code>threads</code> threads, each
+	 * taking the next feature not mirrored yet.
+	 * @return for each feature, <code>true</code> if it failed
+	 */
+	private boolean[] mirrorFeatures(
+		final ISite remoteSite,
+		final ISiteFeatureReference[] sourceFeatureRefs,
+		final IFeatureReference[] optionalfeatures) {
+		final boolean[] failed = new boolean[sourceFeatureRefs.length];
+		final int[] next = new int[1];
+		Runnable worker = new Runnable() {
+			public void run() {
+				while (true) {
+					int i;
+					synchronized (next) {
+						if (next[0] == sourceFeatureRefs.length)
+							return;
+						i = next[0]++;
+					}
+					try {
+						mirrorFeature(remoteSite, sourceFeatureRefs[i], optionalfeatures);
+					} catch (CoreException ce) {
+						failed[i] = true;
+					} catch (RuntimeException e) {
+						// retried on the calling thread, where it is reported
+						failed[i] = true;
+					}
+				}
 			}
+		};
 
-			addFeatureReferenceModel(remoteSite, featureRef);
+		Thread[] workers =
+			new Thread[Math.max(0, Math.min(threads, sourceFeatureRefs.length) - 1)];
+		for (int t = 0; t < workers.length; t++) {
+			workers[t] = new Thread(worker, "Mirror " + t); //$NON-NLS-1$
+			workers[t].start();
 		}
+		// the calling thread mirrors its share too
+		worker.run();
+		boolean interrupted = false;
+		for (int t = 0; t < workers.length; t++) {
+			while (true) {
+				try {
+					workers[t].join();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return failed;
+	}
+
+	private void mirrorFeature(
+		ISite remoteSite,
+		ISiteFeatureReference sourceFeatureRef,
+		IFeatureReference[] optionalfeatures)
+		throws CoreException {
+		IFeature sourceFeature =
+			sourceFeatureRef.getFeature(new NullProgressMonitor());
+		SiteFeatureReferenceModel featureRef =
+			mirrorFeature(remoteSite, sourceFeature, optionalfeatures, 1);
+		// Set categories of the new feature
+		ICategory remoteCategories[] = sourceFeatureRef.getCategories();
+		for (int j = 0; j < remoteCategories.length; j++) {
+			featureRef.addCategoryName(remoteCategories[j].getName());
+		}
+
+		addFeatureReferenceModel(remoteSite, featureRef);
 	}
 
 	/**
 	 * Install the specified feature and listed optional features on this site.
+	 * A feature included by several features being mirrored on other
+	 * threads is only mirrored once.
 	 * @see ISite#install(IFeature, IVerificationListener, IProgressMonitor)
 	 * @exception CoreException
 	 */
 	private SiteFeatureReferenceModel mirrorFeature(
+		ISite remoteSite,
+		IFeature sourceFeature,
+		IFeatureReference[] optionalfeatures,
+		int indent)
+		throws CoreException {
+		String key = "feature:" + sourceFeature.getVersionedIdentifier(); //$NON-NLS-1$
+		claim(key);
+		try {
+			return doMirrorFeature(remoteSite, sourceFeature, optionalfeatures, indent);
+		} finally {
+			release(key);
+		}
+	}
+
+	private SiteFeatureReferenceModel doMirrorFeature(
 		ISite remoteSite,
 		IFeature sourceFeature,
 		IFeatureReference[] optionalfeatures,
@@ -242,8 +318,24 @@ public class MirrorSite extends Site {
 				+ "Downloading feature archives for " //$NON-NLS-1$
 				+ sourceFeature.getVersionedIdentifier()
 				+ " ..."); //$NON-NLS-1$
+		// the journal tells the archives mirrored before from unchanged sources,
+		// those are neither downloaded nor stored again
+		boolean packaged = provider instanceof FeaturePackagedContentProvider;
+		File featureFile = getFeatureArchiveFile(sourceFeature.getVersionedIdentifier().toString());
+		ContentReference featureSource = packaged ? getSource(provider.getURL()) : null;
+		boolean featureMirrored = isMirrored(featureSource, featureFile);
+		ContentReference[] pluginSources = new ContentReference[pluginsToInstall.length];
+		boolean[] pluginMirrored = new boolean[pluginsToInstall.length];
+		for (int i = 0; i < pluginsToInstall.length; i++) {
+			String pathID = Site.DEFAULT_PLUGIN_PATH + pluginsToInstall[i].getVersionedIdentifier() + ".jar"; //$NON-NLS-1$
+			if (packaged && sourceFeature.getSite() != null)
+				pluginSources[i] = getSource(sourceFeature.getSite().getSiteContentProvider().getArchiveReference(pathID));
+			pluginMirrored[i] = isMirrored(pluginSources[i], getArchiveFile(pathID));
+		}
+
 		// download feature archives
-		provider.getFeatureEntryArchiveReferences(null);
+		if (!featureMirrored)
+			provider.getFeatureEntryArchiveReferences(null);
 
 		System.out.println(
 			tab
@@ -252,6 +344,8 @@ public class MirrorSite extends Site {
 				+ " ..."); //$NON-NLS-1$
 		// download plugin archives
 		for (int i = 0; i < pluginsToInstall.length; i++) {
+			if (pluginMirrored[i])
+				continue;
 			try {
 				provider.getPluginEntryArchiveReferences(pluginsToInstall[i], null);
 			} catch (CoreException ce) {
@@ -300,10 +394,17 @@ public class MirrorSite extends Site {
 				+ " ..."); //$NON-NLS-1$
 		// store plugins' archives
 		for (int i = 0; i < pluginsToInstall.length; i++) {
+			String key = "plugin:" + pluginsToInstall[i].getVersionedIdentifier(); //$NON-NLS-1$
+			claim(key);
 			try {
-				ContentReference[] references = provider.getPluginEntryArchiveReferences( pluginsToInstall[i], null);
-				storePluginArchive(references[0]);
-				addDownloadedPluginEntry(pluginsToInstall[i]);
+				// another feature may have stored it meanwhile
+				if (!isDownloaded(pluginsToInstall[i])) {
+					if (!pluginMirrored[i]) {
+						ContentReference[] references = provider.getPluginEntryArchiveReferences( pluginsToInstall[i], null);
+						storePluginArchive(references[0], pluginSources[i]);
+					}
+					addDownloadedPluginEntry(pluginsToInstall[i]);
+				}
 			} catch (CoreException ce) {
 				if ( ignoreNonPresentPlugins && 
 						(ce instanceof CoreExceptionWithRootCause) &&
@@ -314,6 +415,8 @@ public class MirrorSite extends Site {
 					//System.out.println("ignoreNonPresentPlugins:"+ignoreNonPresentPlugins); //$NON-NLS-1$
 					throw ce;
 				}
+			} finally {
+				release(key);
 			}
 		}
 
@@ -341,9 +444,11 @@ public class MirrorSite extends Site {
 				+ sourceFeature.getVersionedIdentifier()
 				+ " ..."); //$NON-NLS-1$
 		// store feature archive
-		ContentReference[] references =
-			provider.getFeatureEntryArchiveReferences(null);
-		storeFeatureArchive(references[0]);
+		if (!featureMirrored) {
+			ContentReference[] references =
+				provider.getFeatureEntryArchiveReferences(null);
+			storeFeatureArchive(references[0], featureSource);
+		}
 
 		System.out.println(
 			tab
@@ -375,7 +480,7 @@ public class MirrorSite extends Site {
 	 * Adds a feature reference model to this site,
 	 * and exposes in site.xml if remote site exposes given feature.
 	 */
-	public void addFeatureReferenceModel(
+	public synchronized void addFeatureReferenceModel(
 		ISite remoteSite,
 		SiteFeatureReferenceModel featureReference) {
 		// check if remote site exposes this feature
@@ -403,7 +508,7 @@ public class MirrorSite extends Site {
 	/**
 	 * Adds feature model to site model, removing old feature
 	 */
-	public void addFeatureReferenceModel(SiteFeatureReferenceModel featureReference) {
+	public synchronized void addFeatureReferenceModel(SiteFeatureReferenceModel featureReference) {
 		SiteFeatureReferenceModel[] existingModels =
 			getFeatureReferenceModels();
 		for (int j = 0; j < existingModels.length; j++) {
@@ -419,62 +524,31 @@ public class MirrorSite extends Site {
 	/**
 	 * @see ISiteContentConsumer#store(ContentReference, IProgressMonitor)
 	 */
-	private void storeFeatureArchive(ContentReference contentReference)
+	private void storeFeatureArchive(ContentReference contentReference, ContentReference source)
 		throws CoreException {
-		InputStream inStream = null;
-		String featurePath = null;
-
+		File featureFile = getFeatureArchiveFile(contentReference.getIdentifier());
 		try {
-			URL newURL =
-				new URL(
-					this.getURL(),
-					Site.DEFAULT_INSTALLED_FEATURE_PATH
-						+ contentReference.getIdentifier()
-						+ ".jar"); //$NON-NLS-1$
-			featurePath = newURL.getFile();
-			inStream = contentReference.getInputStream();
-			UpdateManagerUtils.copyToLocal(inStream, featurePath, null);
+			storeArchive(contentReference, featureFile, source);
 		} catch (IOException e) {
 			throw Utilities.newCoreException(
-				"Error occurred while creating "+ featurePath+" file.", //$NON-NLS-1$ //$NON-NLS-2$
+				"Error occurred while creating "+ featureFile+" file.", //$NON-NLS-1$ //$NON-NLS-2$
 				e);
-		} finally {
-			if (inStream != null) {
-				try {
-					inStream.close();
-				} catch (IOException e) {
-				}
-			}
 		}
 
 	}
 	/**
 	* @see ISiteContentConsumer#store(ContentReference, IProgressMonitor)
 	*/
-	private void storePluginArchive(ContentReference contentReference)
+	private void storePluginArchive(ContentReference contentReference, ContentReference source)
 		throws CoreException {
 
-		InputStream inStream = null;
-		String pluginPath = null;
+		File pluginFile = getArchiveFile(contentReference.getIdentifier());
 		try {
-			URL newURL = new URL(getURL(), contentReference.getIdentifier());
-			pluginPath = newURL.getFile();
-			inStream = contentReference.getInputStream();
-			// added null check here,  since contentReference can, in theory, return null for input stream. 
-			if (inStream != null) {
-				UpdateManagerUtils.copyToLocal(inStream, pluginPath, null);
-			}
+			storeArchive(contentReference, pluginFile, source);
 		} catch (IOException e) {
 			throw Utilities.newCoreException(
-			"Error occurred while creating "+ pluginPath+" file.", //$NON-NLS-1$ //$NON-NLS-2$
+			"Error occurred while creating "+ pluginFile+" file.", //$NON-NLS-1$ //$NON-NLS-2$
 				e);
-		} finally {
-			if (inStream != null) {
-				try {
-					inStream.close();
-				} catch (IOException e) {
-				}
-			}
 		}
 	}
 
@@ -483,7 +557,6 @@ public class MirrorSite extends Site {
 		ContentReference contentReference)
 		throws CoreException {
 
-		InputStream inStream = null;
 		File nonPluginArchivePath = null;
 		try {
 			URL newDirURL =
@@ -494,27 +567,151 @@ public class MirrorSite extends Site {
 						+ featureVersionedIdentifier);
 			File dir = new File(newDirURL.getFile());
 			dir.mkdirs();
-			inStream = contentReference.getInputStream();
 			nonPluginArchivePath =
 				new File(dir, contentReference.getIdentifier());
-			UpdateManagerUtils.copyToLocal(
-				inStream,
-				nonPluginArchivePath.getAbsolutePath(),
-				null);
+			storeArchive(contentReference, nonPluginArchivePath, null);
 		} catch (IOException e) {
 			throw Utilities.newCoreException(
-			"Error occurred while creating "+ nonPluginArchivePath.getAbsolutePath()+" file." //$NON-NLS-1$ //$NON-NLS-2$
+			"Error occurred while creating "+ nonPluginArchivePath+" file." //$NON-NLS-1$ //$NON-NLS-2$
 				,e);
+		}
+	}
+
+	private File getFeatureArchiveFile(String identifier) throws CoreException {
+		return getArchiveFile(Site.DEFAULT_INSTALLED_FEATURE_PATH + identifier + ".jar"); //$NON-NLS-1$
+	}
+
+	private File getArchiveFile(String path) throws CoreException {
+		try {
+			return new File(new URL(getURL(), path).getFile());
+		} catch (IOException e) {
+			throw Utilities.newCoreException(
+				"Error occurred while creating "+ path+" file.", //$NON-NLS-1$ //$NON-NLS-2$
+				e);
+		}
+	}
+
+	/*
+	 * Returns a reference to the archive at the given location of the
+	 * remote site, or null if there is none.
+	 */
+	private ContentReference getSource(URL url) {
+		return url == null ? null : new ContentReference(null, url);
+	}
+
+	/*
+	 * Returns true if the journal shows the archive was mirrored to the
+	 * target from a source of the length and modification time the remote
+	 * site reports now. Only the headers of the source are requested.
+	 */
+	private boolean isMirrored(ContentReference source, File target) {
+		if (journal == null || source == null)
+			return false;
+		try {
+			if (!journal.isMirrored(target, source.getInputSize(), source.getLastModified()))
+				return false;
+		} catch (IOException e) {
+			// let the download report it
+			return false;
+		}
+		System.out.println(
+			"Archive " //$NON-NLS-1$
+				+ target.getName()
+				+ " already mirrored.  Skipping downloading."); //$NON-NLS-1$
+		return true;
+	}
+
+	/**
+	 * Copies the archive to the mirror site, unless the journal shows the
+	 * same content was mirrored there before. The archive is written to a
+	 * part file renamed once complete, so an interrupted copy never leaves
+	 * a truncated archive behind. The length and modification time of the
+	 * source are recorded with it, so a later run can skip the download.
+	 */
+	private void storeArchive(ContentReference contentReference, File target, ContentReference source)
+		throws IOException, CoreException {
+		if (source == null && !contentReference.isLocalReference())
+			source = contentReference;
+		long sourceLength = ContentReference.UNKNOWN_SIZE;
+		long sourceModified = 0;
+		if (source != null) {
+			sourceLength = source.getInputSize();
+			sourceModified = source.getLastModified();
+		}
+		String digest = null;
+		boolean mirrored;
+		if (contentReference.isLocalReference()) {
+			// downloaded to a temporary file, only its content tells
+			digest = ArtifactStore.getDigest(contentReference.asFile());
+			mirrored = journal != null && journal.isMirrored(target, digest);
+		} else {
+			mirrored = journal != null && journal.isMirrored(target, sourceLength, sourceModified);
+		}
+		if (mirrored) {
+			System.out.println(
+				"Archive " //$NON-NLS-1$
+					+ target.getName()
+					+ " already mirrored.  Skipping copying."); //$NON-NLS-1$
+			return;
+		}
+
+		InputStream inStream = contentReference.getInputStream();
+		// added null check here,  since contentReference can, in theory, return null for input stream. 
+		if (inStream == null)
+			return;
+		File part = new File(target.getPath() + PART_SUFFIX);
+		try {
+			UpdateManagerUtils.copyToLocal(inStream, part.getPath(), null);
 		} finally {
-			if (inStream != null) {
+			try {
+				inStream.close();
+			} catch (IOException e) {
+			}
+		}
+		target.delete();
+		if (!part.renameTo(target)) {
+			part.delete();
+			throw new IOException("Unable to rename " + part + " to " + target); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		if (journal != null)
+			journal.mirrored(target, sourceLength, sourceModified, digest != null ? digest : ArtifactStore.getDigest(target));
+	}
+
+	/*
+	 * Waits until no other thread mirrors the feature or plug-in with the
+	 * given key, and claims it.
+	 */
+	private void claim(String key) {
+		synchronized (claimed) {
+			boolean interrupted = false;
+			while (claimed.contains(key)) {
 				try {
-					inStream.close();
-				} catch (IOException e) {
+					claimed.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
 				}
 			}
+			claimed.add(key);
+			if (interrupted)
+				Thread.currentThread().interrupt();
 		}
 	}
 
+	private void release(String key) {
+		synchronized (claimed) {
+			claimed.remove(key);
+			claimed.notifyAll();
+		}
+	}
+
+	private synchronized boolean isDownloaded(IPluginEntry pluginEntry) {
+		for (Iterator it = downloadedPluginEntries.iterator(); it.hasNext();) {
+			if (((IPluginEntry) it.next()).getVersionedIdentifier().equals(pluginEntry.getVersionedIdentifier()))
+				return true;
+		}
+		return false;
+	}
+
 	private void save() {
 		FileOutputStream fos = null;
 		try {
@@ -654,11 +851,11 @@ public class MirrorSite extends Site {
 	 * We cannot figure out the list of plugins by reading the Site.xml as
 	 * the archives tag are optionals
 	 */
-	public void addDownloadedPluginEntry(IPluginEntry pluginEntry) {
+	public synchronized void addDownloadedPluginEntry(IPluginEntry pluginEntry) {
 		downloadedPluginEntries.add(pluginEntry);
 	}
 
-	private IPluginEntry[] getDownloadedPluginEntries() {
+	private synchronized IPluginEntry[] getDownloadedPluginEntries() {
 		return (IPluginEntry[]) downloadedPluginEntries.toArray(
 			new IPluginEntry[downloadedPluginEntries.size()]);
 	}
@@ -670,11 +867,11 @@ public class MirrorSite extends Site {
 	 * We cannot figure out the list of plugins by reading the Site.xml as
 	 * the archives tag are optionals
 	 */
-	public void addDownloadedFeatureReferenceModel(SiteFeatureReferenceModel featureModel) {
+	public synchronized void addDownloadedFeatureReferenceModel(SiteFeatureReferenceModel featureModel) {
 		downloadedFeatureReferenceModels.add(featureModel);
 	}
 
-	private SiteFeatureReferenceModel[] getDownloadedFeatureReferenceModels() {
+	private synchronized SiteFeatureReferenceModel[] getDownloadedFeatureReferenceModels() {
 		return (
 			SiteFeatureReferenceModel[]) downloadedFeatureReferenceModels
 				.toArray(
@@ -819,4 +1016,11 @@ public class MirrorSite extends Site {
 		this.ignoreNonPresentPlugins = ignoreNonPresentPlugins;
 		
 	}
+
+	/**
+	 * Sets the number of features mirrored at the same time.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
 }
@@ -0,0 +1,482 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.operations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.update.configuration.IConfiguredSite;
+import org.eclipse.update.configuration.IConfiguredSiteChangedListener;
+import org.eclipse.update.configuration.IInstallConfiguration;
+import org.eclipse.update.configuration.IInstallConfigurationChangedListener;
+import org.eclipse.update.configuration.ILocalSite;
+import org.eclipse.update.configuration.ILocalSiteChangedListener;
+import org.eclipse.update.configurator.ConfiguratorUtils;
+import org.eclipse.update.core.IFeature;
+import org.eclipse.update.core.IImport;
+import org.eclipse.update.core.IPluginEntry;
+import org.eclipse.update.core.SiteManager;
+import org.eclipse.update.core.VersionedIdentifier;
+import org.eclipse.update.internal.core.UpdateCore;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+
+/**
+ * Snapshot of the configured features, used to validate proposed
+ * operations without recomputing the whole configuration.
+ * <p>
+ * The configured features, their prerequisite index and the status of
+ * each feature are computed once. A proposed operation is described by a
+ * {@link Delta} of added and removed features. Checking a delta applies
+ * it to the index, checks the added features and the configured features
+ * it can affect, reuses the status of all the others, then restores the
+ * index. The snapshot is replaced as soon as the local site, the current
+ * configuration or one of its sites reports a change, or a bundle of the
+ * running platform is installed, updated, uninstalled or resolved, since
+ * prerequisites may be satisfied by installed bundles.
+ */
+public class ConfigurationSnapshot
+	implements
+		ILocalSiteChangedListener,
+		IInstallConfigurationChangedListener,
+		IConfiguredSiteChangedListener,
+		BundleListener {
+
+	private static ConfigurationSnapshot current;
+
+	private ILocalSite localSite;
+	private IInstallConfiguration config;
+	private BundleContext context;
+	private IConfiguredSite[] sites;
+	private boolean[] enabled;
+	private long changeStamp;
+	private boolean stale;
+
+	// configured features, without duplicates
+	private ArrayList features = new ArrayList();
+	// VersionedIdentifier -> IFeature
+	private Map featuresById = new HashMap();
+	// VersionedIdentifier -> Check
+	private Map checks = new HashMap();
+	// identifiers of the features with unresolved imports
+	private Set failing = new HashSet();
+	// imported id -> List of IFeature
+	private Map importers = new HashMap();
+	// patched VersionedIdentifier -> List of IFeature
+	private Map patches = new HashMap();
+	private PrereqIndex index;
+	private ArrayList status = new ArrayList();
+	private Set unresolved;
+
+	/*
+	 * The status of one feature.
+	 */
+	private static class Check {
+		ArrayList environment = new ArrayList(0);
+		ArrayList prereqs = new ArrayList(0);
+		Set unresolved = new HashSet(0);
+	}
+
+	/**
+	 * Features added to and removed from the configuration by a proposed
+	 * operation.
+	 */
+	public class Delta {
+		// VersionedIdentifier -> IFeature, in the order they are added
+		private Map added = new LinkedHashMap();
+		// VersionedIdentifier -> configured IFeature
+		private Map removed = new HashMap();
+
+		/**
+		 * Adds the features configured and removed by installing a
+		 * feature in place of another, in the same way as the full
+		 * validation does.
+		 *
+		 * @param add the feature to configure, or <code>null</code>
+		 * @param remove the feature to unconfigure, or <code>null</code>
+		 */
+		public void apply(IFeature add, IFeature remove) throws CoreException {
+			ArrayList addTree = OperationValidator.computeFeatureSubtree(add, null, null, false, null, null);
+			ArrayList removeTree = OperationValidator.computeFeatureSubtree(remove, null, null, true, null, null);
+			if (remove != null) {
+				// patches to features are removed together with those features
+				for (int i = 0; i < removeTree.size(); i++)
+					addPatches((IFeature) removeTree.get(i), removeTree);
+				for (int i = 0; i < removeTree.size(); i++)
+					remove((IFeature) removeTree.get(i));
+			}
+			if (add != null) {
+				for (int i = 0; i < addTree.size(); i++)
+					add((IFeature) addTree.get(i));
+			}
+		}
+
+		private void add(IFeature feature) {
+			VersionedIdentifier vid = feature.getVersionedIdentifier();
+			if (removed.remove(vid) == null && !featuresById.containsKey(vid) && !added.containsKey(vid))
+				added.put(vid, feature);
+		}
+
+		private void remove(IFeature feature) {
+			VersionedIdentifier vid = feature.getVersionedIdentifier();
+			added.remove(vid);
+			IFeature configured = (IFeature) featuresById.get(vid);
+			if (configured != null)
+				removed.put(vid, configured);
+		}
+
+		/*
+		 * Adds the patches of the feature, in the configuration after
+		 * this delta, to the list.
+		 */
+		private void addPatches(IFeature feature, ArrayList result) throws CoreException {
+			List candidates = (List) patches.get(feature.getVersionedIdentifier());
+			for (int i = 0; candidates != null && i < candidates.size(); i++) {
+				IFeature candidate = (IFeature) candidates.get(i);
+				if (!removed.containsKey(candidate.getVersionedIdentifier()))
+					result.addAll(OperationValidator.computeFeatureSubtree(candidate, null, null, true, null, null));
+			}
+			for (Iterator iter = added.values().iterator(); iter.hasNext();) {
+				IFeature candidate = (IFeature) iter.next();
+				if (UpdateUtils.isPatch(feature, candidate))
+					result.addAll(OperationValidator.computeFeatureSubtree(candidate, null, null, true, null, null));
+			}
+		}
+	}
+
+	/**
+	 * Returns the snapshot of the current configuration, computing it
+	 * if the configuration changed since the last call.
+	 *
+	 * @return the snapshot, or <code>null</code> if the configured
+	 * features cannot be computed
+	 */
+	public static synchronized ConfigurationSnapshot getCurrent() {
+		try {
+			ILocalSite localSite = SiteManager.getLocalSite();
+			IInstallConfiguration config = localSite.getCurrentConfiguration();
+			if (current != null && current.isCurrent(localSite, config))
+				return current;
+			if (current != null)
+				current.dispose();
+			current = null;
+			ConfigurationSnapshot snapshot = new ConfigurationSnapshot(localSite, config);
+			try {
+				snapshot.compute();
+			} catch (CoreException e) {
+				snapshot.dispose();
+				throw e;
+			}
+			current = snapshot;
+			return current;
+		} catch (CoreException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Listens to the configuration, so changes made while the
+	 * snapshot is computed are noticed.
+	 */
+	private ConfigurationSnapshot(ILocalSite localSite, IInstallConfiguration config) {
+		this.localSite = localSite;
+		this.config = config;
+		changeStamp = ConfiguratorUtils.getCurrentPlatformConfiguration().getChangeStamp();
+		sites = config.getConfiguredSites();
+		enabled = new boolean[sites.length];
+		localSite.addLocalSiteChangedListener(this);
+		config.addInstallConfigurationChangedListener(this);
+		for (int i = 0; i < sites.length; i++) {
+			enabled[i] = sites[i].isEnabled();
+			sites[i].addConfiguredSiteChangedListener(this);
+		}
+		context = UpdateCore.getPlugin().getBundleContext();
+		if (context != null)
+			context.addBundleListener(this);
+	}
+
+	private void compute() throws CoreException {
+		ArrayList configured = OperationValidator.computeFeatures();
+		for (int i = 0; i < configured.size(); i++) {
+			IFeature feature = (IFeature) configured.get(i);
+			VersionedIdentifier vid = feature.getVersionedIdentifier();
+			if (featuresById.containsKey(vid))
+				continue;
+			features.add(feature);
+			featuresById.put(vid, feature);
+
+			IImport[] imports = feature.getImports();
+			for (int j = 0; j < imports.length; j++) {
+				VersionedIdentifier iid = imports[j].getVersionedIdentifier();
+				addTo(importers, iid.getIdentifier(), feature);
+				if (imports[j].isPatch())
+					addTo(patches, iid, feature);
+			}
+		}
+
+		index = new PrereqIndex(features);
+		for (int i = 0; i < features.size(); i++) {
+			IFeature feature = (IFeature) features.get(i);
+			Check check = new Check();
+			OperationValidator.checkEnvironment(feature, check.environment);
+			OperationValidator.checkPrereqs(feature, index, check.prereqs, check.unresolved);
+			checks.put(feature.getVersionedIdentifier(), check);
+			if (!check.unresolved.isEmpty())
+				failing.add(feature.getVersionedIdentifier());
+		}
+		unresolved = collectStatus(features, Collections.EMPTY_MAP, status);
+	}
+
+	/**
+	 * Returns a new empty delta.
+	 */
+	public Delta createDelta() {
+		return new Delta();
+	}
+
+	/**
+	 * Returns the status of the configuration, as the full validation
+	 * of the configured features reports it.
+	 */
+	public synchronized ArrayList getStatus() {
+		return new ArrayList(status);
+	}
+
+	/**
+	 * Validates the configuration after the delta, adding the status
+	 * to the list.
+	 *
+	 * @param delta the proposed changes
+	 * @param status the list receiving the status
+	 * @return the unresolved imports, as a set of InternalImport
+	 */
+	public synchronized Set checkConstraints(Delta delta, ArrayList status) {
+		if (delta.added.isEmpty() && delta.removed.isEmpty()) {
+			addAll(status, this.status);
+			return new HashSet(unresolved);
+		}
+
+		for (Iterator iter = delta.removed.values().iterator(); iter.hasNext();)
+			index.removeFeature((IFeature) iter.next());
+		for (Iterator iter = delta.added.values().iterator(); iter.hasNext();)
+			index.addFeature((IFeature) iter.next());
+		try {
+			// VersionedIdentifier -> Check, for the features checked again
+			Map rechecked = new HashMap();
+			for (Iterator iter = delta.added.values().iterator(); iter.hasNext();) {
+				IFeature feature = (IFeature) iter.next();
+				Check check = new Check();
+				OperationValidator.checkEnvironment(feature, check.environment);
+				OperationValidator.checkPrereqs(feature, index, check.prereqs, check.unresolved);
+				rechecked.put(feature.getVersionedIdentifier(), check);
+			}
+
+			// configured features can lose a prereq to a removal, and
+			// only the failing ones can gain one from an addition
+			Set affected = new HashSet();
+			for (Iterator iter = failing.iterator(); iter.hasNext();)
+				affected.add(featuresById.get(iter.next()));
+			for (Iterator iter = delta.removed.values().iterator(); iter.hasNext();) {
+				IFeature feature = (IFeature) iter.next();
+				addImporters(feature.getVersionedIdentifier().getIdentifier(), affected);
+				IPluginEntry[] entries = feature.getPluginEntries();
+				for (int i = 0; i < entries.length; i++)
+					addImporters(entries[i].getVersionedIdentifier().getIdentifier(), affected);
+			}
+			for (Iterator iter = affected.iterator(); iter.hasNext();) {
+				IFeature feature = (IFeature) iter.next();
+				VersionedIdentifier vid = feature.getVersionedIdentifier();
+				if (delta.removed.containsKey(vid))
+					continue;
+				Check check = new Check();
+				check.environment = ((Check) checks.get(vid)).environment;
+				OperationValidator.checkPrereqs(feature, index, check.prereqs, check.unresolved);
+				rechecked.put(vid, check);
+			}
+
+			ArrayList after = new ArrayList(features.size() + delta.added.size());
+			for (int i = 0; i < features.size(); i++) {
+				IFeature feature = (IFeature) features.get(i);
+				if (!delta.removed.containsKey(feature.getVersionedIdentifier()))
+					after.add(feature);
+			}
+			after.addAll(delta.added.values());
+			return collectStatus(after, rechecked, status);
+		} finally {
+			for (Iterator iter = delta.added.values().iterator(); iter.hasNext();)
+				index.removeFeature((IFeature) iter.next());
+			for (Iterator iter = delta.removed.values().iterator(); iter.hasNext();)
+				index.addFeature((IFeature) iter.next());
+		}
+	}
+
+	/*
+	 * Adds the status of the features to the list in the order of the
+	 * full validation, and returns their unresolved imports.
+	 */
+	private Set collectStatus(ArrayList features, Map rechecked, ArrayList status) {
+		Set result = new HashSet();
+		for (int i = 0; i < features.size(); i++)
+			addAll(status, getCheck((IFeature) features.get(i), rechecked).environment);
+		OperationValidator.checkPlatformFeature(index, status);
+		OperationValidator.checkPrimaryFeature(features, index, status);
+		for (int i = 0; i < features.size(); i++) {
+			Check check = getCheck((IFeature) features.get(i), rechecked);
+			addAll(status, check.prereqs);
+			result.addAll(check.unresolved);
+		}
+		return result;
+	}
+
+	private Check getCheck(IFeature feature, Map rechecked) {
+		Check check = (Check) rechecked.get(feature.getVersionedIdentifier());
+		if (check == null)
+			check = (Check) checks.get(feature.getVersionedIdentifier());
+		return check;
+	}
+
+	private void addImporters(String id, Set affected) {
+		List list = (List) importers.get(id);
+		if (list != null)
+			affected.addAll(list);
+	}
+
+	private static void addAll(ArrayList status, List list) {
+		for (int i = 0; i < list.size(); i++) {
+			Object s = list.get(i);
+			if (!status.contains(s))
+				status.add(s);
+		}
+	}
+
+	private static void addTo(Map map, Object key, Object value) {
+		List list = (List) map.get(key);
+		if (list == null) {
+			list = new ArrayList(1);
+			map.put(key, list);
+		}
+		list.add(value);
+	}
+
+	private synchronized boolean isCurrent(ILocalSite localSite, IInstallConfiguration config) {
+		if (stale || this.localSite != localSite || this.config != config)
+			return false;
+		if (changeStamp != ConfiguratorUtils.getCurrentPlatformConfiguration().getChangeStamp())
+			return false;
+		// enabling a site does not notify the listeners
+		for (int i = 0; i < sites.length; i++) {
+			if (sites[i].isEnabled() != enabled[i])
+				return false;
+		}
+		return true;
+	}
+
+	private synchronized void markStale() {
+		stale = true;
+	}
+
+	private void dispose() {
+		localSite.removeLocalSiteChangedListener(this);
+		config.removeInstallConfigurationChangedListener(this);
+		for (int i = 0; i < sites.length; i++)
+			sites[i].removeConfiguredSiteChangedListener(this);
+		if (context != null) {
+			try {
+				context.removeBundleListener(this);
+			} catch (IllegalStateException e) {
+				// the bundle is stopping
+			}
+		}
+	}
+
+	/*
+	 * @see ILocalSiteChangedListener#currentInstallConfigurationChanged(IInstallConfiguration)
+	 */
+	public void currentInstallConfigurationChanged(IInstallConfiguration configuration) {
+		markStale();
+	}
+
+	/*
+	 * @see ILocalSiteChangedListener#installConfigurationRemoved(IInstallConfiguration)
+	 */
+	public void installConfigurationRemoved(IInstallConfiguration configuration) {
+		markStale();
+	}
+
+	/*
+	 * @see IInstallConfigurationChangedListener#installSiteAdded(IConfiguredSite)
+	 */
+	public void installSiteAdded(IConfiguredSite site) {
+		markStale();
+	}
+
+	/*
+	 * @see IInstallConfigurationChangedListener#installSiteRemoved(IConfiguredSite)
+	 */
+	public void installSiteRemoved(IConfiguredSite site) {
+		markStale();
+	}
+
+	/*
+	 * @see IConfiguredSiteChangedListener#featureInstalled(IFeature)
+	 */
+	public void featureInstalled(IFeature feature) {
+		markStale();
+	}
+
+	/*
+	 * @see IConfiguredSiteChangedListener#featureRemoved(IFeature)
+	 */
+	public void featureRemoved(IFeature feature) {
+		markStale();
+	}
+
+	/*
+	 * @see IConfiguredSiteChangedListener#featureConfigured(IFeature)
+	 */
+	public void featureConfigured(IFeature feature) {
+		markStale();
+	}
+
+	/*
+	 * @see IConfiguredSiteChangedListener#featureUnconfigured(IFeature)
+	 */
+	public void featureUnconfigured(IFeature feature) {
+		markStale();
+	}
+
+	/*
+	 * The installed bundle index of the prerequisite index
+	 * no longer matches the running platform.
+	 *
+	 * @see BundleListener#bundleChanged(BundleEvent)
+	 */
+	public void bundleChanged(BundleEvent event) {
+		switch (event.getType()) {
+			case BundleEvent.INSTALLED :
+			case BundleEvent.UNINSTALLED :
+			case BundleEvent.UPDATED :
+			case BundleEvent.RESOLVED :
+			case BundleEvent.UNRESOLVED :
+				markStale();
+				break;
+		}
+	}
+}
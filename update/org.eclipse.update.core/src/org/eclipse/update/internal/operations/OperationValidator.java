@@ -15,15 +15,12 @@ package org.eclipse.update.internal.operations;
 //import java.nio.channels.*;
 import org.eclipse.update.core.IUpdateConstants;
 
-import org.eclipse.osgi.service.resolver.PlatformAdmin;
-
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.*;
 import org.eclipse.core.runtime.*;
-import org.eclipse.osgi.service.resolver.*;
 import org.eclipse.osgi.util.NLS;
 import org.eclipse.update.configuration.*;
 import org.eclipse.update.configurator.ConfiguratorUtils;
@@ -207,6 +204,11 @@ public class OperationValidator implements IOperationValidator {
 	 * Check to see if we are not broken even before we start
 	 */
 	private static void validateInitialState(ArrayList status) {
+		ConfigurationSnapshot snapshot = ConfigurationSnapshot.getCurrent();
+		if (snapshot != null) {
+			status.addAll(snapshot.getStatus());
+			return;
+		}
 		try {
 			ArrayList features = computeFeatures();
 			// uncomment this when patch released in boot
@@ -242,7 +244,7 @@ public class OperationValidator implements IOperationValidator {
 			checkSiteReadOnly(feature,status);
 			ArrayList features = computeFeatures();
 			checkOptionalChildConfiguring(feature, status);
-			checkForCycles(feature, null, features);
+			checkForCycles(feature, null, null);
 			features = computeFeaturesAfterOperation(features, feature, null);
 			checkConstraints(features, status);
 
@@ -261,7 +263,7 @@ public class OperationValidator implements IOperationValidator {
 		try {
 			checkSiteReadOnly(feature,status);
 			ArrayList features = computeFeatures();
-			checkForCycles(feature, null, features);
+			checkForCycles(feature, null, null);
 			features =
 				computeFeaturesAfterOperation(
 					features,
@@ -283,7 +285,7 @@ public class OperationValidator implements IOperationValidator {
 		try {
 			checkSiteReadOnly(oldFeature,status);
 			ArrayList features = computeFeatures();
-			checkForCycles(newFeature, null, features);
+			checkForCycles(newFeature, null, null);
 			features =
 				computeFeaturesAfterOperation(features, newFeature, oldFeature);
 			checkConstraints(features, status);
@@ -321,6 +323,9 @@ public class OperationValidator implements IOperationValidator {
 		IInstallFeatureOperation[] jobs,
 		ArrayList status,
 		ArrayList beforeStatus) {
+		ConfigurationSnapshot snapshot = ConfigurationSnapshot.getCurrent();
+		if (snapshot != null)
+			return validatePendingChanges(snapshot, jobs, status, beforeStatus);
 		try {
 			ArrayList features = computeFeatures();
 			ArrayList savedFeatures = features;
@@ -328,6 +333,7 @@ public class OperationValidator implements IOperationValidator {
 
 			// pass 1: see if we can process the entire "batch"
 			ArrayList tmpStatus = new ArrayList();
+			Set checked = new HashSet();
 			for (int i = 0; i < jobs.length; i++) {
 				IInstallFeatureOperation job = jobs[i];
 
@@ -343,7 +349,7 @@ public class OperationValidator implements IOperationValidator {
 							Messages.ActivityConstraints_exclusive));
 					continue;
 				}
-				checkForCycles(newFeature, null, features);
+				checkForCycles(newFeature, null, checked);
 				features =
 					computeFeaturesAfterOperation(
 						features,
@@ -389,6 +395,65 @@ public class OperationValidator implements IOperationValidator {
 		return Collections.EMPTY_SET;
 	}
 	
+	/*
+	 * Handle one-click changes as a batch, checking only the changes
+	 * against a snapshot of the configuration
+	 */
+	private static Set validatePendingChanges(
+		ConfigurationSnapshot snapshot,
+		IInstallFeatureOperation[] jobs,
+		ArrayList status,
+		ArrayList beforeStatus) {
+		try {
+			ConfigurationSnapshot.Delta delta = snapshot.createDelta();
+			int nexclusives = 0;
+
+			// pass 1: see if we can process the entire "batch"
+			ArrayList tmpStatus = new ArrayList();
+			Set checked = new HashSet();
+			for (int i = 0; i < jobs.length; i++) {
+				IInstallFeatureOperation job = jobs[i];
+
+				IFeature newFeature = job.getFeature();
+				IFeature oldFeature = job.getOldFeature();
+				checkLicense(newFeature, status);
+				if (jobs.length > 1 && newFeature.isExclusive()) {
+					nexclusives++;
+					status.add(
+						createStatus(
+							newFeature,
+							FeatureStatus.CODE_EXCLUSIVE,
+							Messages.ActivityConstraints_exclusive));
+					continue;
+				}
+				checkForCycles(newFeature, null, checked);
+				delta.apply(newFeature, oldFeature);
+			}
+			if (nexclusives > 0)
+				return Collections.EMPTY_SET;
+			snapshot.checkConstraints(delta, tmpStatus);
+			if (tmpStatus.size() == 0) // the whole "batch" is OK
+				return Collections.EMPTY_SET;
+
+			// pass 2: we have conflicts
+			delta = snapshot.createDelta();
+			for (int i = 0; i < jobs.length; i++) {
+				IInstallFeatureOperation job = jobs[i];
+				delta.apply(job.getFeature(), job.getOldFeature());
+
+				Set result = snapshot.checkConstraints(delta, status);
+				if (status.size() > 0
+					&& !isBetterStatus(beforeStatus, status)) {
+					return result;
+				}
+			}
+		} catch (CoreException e) {
+			status.add(e.getStatus());
+		}
+		
+		return Collections.EMPTY_SET;
+	}
+
 	private static void checkPlatformWasModified(ArrayList status) {
 		try {
 			// checks if the platform has been modified outside this eclipse instance
@@ -431,7 +496,7 @@ public class OperationValidator implements IOperationValidator {
 	/*
 	 * Compute a list of configured features
 	 */
-	private static ArrayList computeFeatures() throws CoreException {
+	static ArrayList computeFeatures() throws CoreException {
 		return computeFeatures(true);
 	}
 	/*
@@ -617,60 +682,42 @@ public class OperationValidator implements IOperationValidator {
 
 
 
-	/*
-	 * Compute a list of plugin entries for the specified features.
-	 */
-	private static ArrayList computePluginsForFeatures(ArrayList features)
-		throws CoreException {
-		if (features == null)
-			return new ArrayList();
-
-		HashMap plugins = new HashMap();
-		for (int i = 0; i < features.size(); i++) {
-			IFeature feature = (IFeature) features.get(i);
-			IPluginEntry[] entries = feature.getPluginEntries();
-			for (int j = 0; j < entries.length; j++) {
-				IPluginEntry entry = entries[j];
-				plugins.put(entry.getVersionedIdentifier(), entry);
-			}
-		}
-		ArrayList result = new ArrayList();
-		result.addAll(plugins.values());
-		return result;
-	}
-
-
 	/**
 	 * Check for feature cycles:
 	 * - visit feature
-	 * - if feature is in the cycle candidates list, then cycle found, else add it to candidates list
+	 * - if feature is in the cycle candidates set, then cycle found, else add it to candidates set
 	 * - DFS children 
-	 * - when return from DFS remove the feature from the candidates list
+	 * - when return from DFS remove the feature from the candidates set
+	 * Features whose subtree was already checked, in this or an earlier
+	 * call sharing the same checked set, are not visited again.
 	 */
 	private static void checkForCycles(
 			IFeature feature,
-			ArrayList candidates,
-			ArrayList configuredFeatures)
+			Set candidates,
+			Set checked)
 	throws CoreException {
 
 		// check arguments
 		if (feature == null)
 			return;
-		if (configuredFeatures == null)
-			configuredFeatures = new ArrayList();
+		if (checked == null)
+			checked = new HashSet();
 		if (candidates == null)
-			candidates = new ArrayList();
+			candidates = new HashSet();
 		
+		VersionedIdentifier vid = feature.getVersionedIdentifier();
 		// check for <includes> cycle
-		if (candidates.contains(feature)) {
+		if (candidates.contains(vid)) {
 			String msg = NLS.bind(Messages.ActivityConstraints_cycle, (new String[] {feature.getLabel(), 
-            feature.getVersionedIdentifier().toString()}));
+            vid.toString()}));
 			IStatus status = createStatus(feature, FeatureStatus.CODE_CYCLE, msg);
 			throw new CoreException(status);
 		}
+		if (checked.contains(vid))
+			return;
 
 		// potential candidate
-		candidates.add(feature);
+		candidates.add(vid);
 		
 		// recursively, check cycles with children
 		IIncludedFeatureReference[] children =
@@ -678,14 +725,15 @@ public class OperationValidator implements IOperationValidator {
 		for (int i = 0; i < children.length; i++) {
 			try {
 				IFeature child = UpdateUtils.getIncludedFeature(feature, children[i]);
-				checkForCycles(child, candidates, configuredFeatures);
+				checkForCycles(child, candidates, checked);
 			} catch (CoreException e) {
 				if (!children[i].isOptional())
 					throw e;
 			}
 		}
 		// no longer a candidate, because no cycles with children
-		candidates.remove(feature);
+		candidates.remove(vid);
+		checked.add(vid);
 	}
 	
 	/*
@@ -696,12 +744,13 @@ public class OperationValidator implements IOperationValidator {
 		if (features == null)
 			return Collections.EMPTY_SET;
 
-		ArrayList plugins = computePluginsForFeatures(features);
+		// plug-ins and prerequisites are resolved through one index
+		PrereqIndex index = new PrereqIndex(features);
 
 		checkEnvironment(features, status);
-		checkPlatformFeature(features, plugins, status);
-		checkPrimaryFeature(features, plugins, status);
-		return checkPrereqs(features, plugins, status);
+		checkPlatformFeature(index, status);
+		checkPrimaryFeature(features, index, status);
+		return checkPrereqs(features, index, status);
 	}
 
 	/*
@@ -712,44 +761,50 @@ public class OperationValidator implements IOperationValidator {
 		ArrayList features,
 		ArrayList status) {
 
+		for (int i = 0; i < features.size(); i++)
+			checkEnvironment((IFeature) features.get(i), status);
+	}
+
+	/*
+	 * Verify the feature is either portable, or matches the current
+	 * environment
+	 */
+	static void checkEnvironment(IFeature feature, ArrayList status) {
 		String os = Platform.getOS();
 		String ws = Platform.getWS();
 		String arch = Platform.getOSArch();
 
-		for (int i = 0; i < features.size(); i++) {
-			IFeature feature = (IFeature) features.get(i);
-			ArrayList fos = createList(feature.getOS());
-			ArrayList fws = createList(feature.getWS());
-			ArrayList farch = createList(feature.getOSArch());
-
-			if (fos.size() > 0) {
-				if (!fos.contains(os)) {
-					IStatus s =
-						createStatus(feature, FeatureStatus.CODE_ENVIRONMENT, Messages.ActivityConstraints_os);
-					if (!status.contains(s))
-						status.add(s);
-					continue;
-				}
+		ArrayList fos = createList(feature.getOS());
+		ArrayList fws = createList(feature.getWS());
+		ArrayList farch = createList(feature.getOSArch());
+
+		if (fos.size() > 0) {
+			if (!fos.contains(os)) {
+				IStatus s =
+					createStatus(feature, FeatureStatus.CODE_ENVIRONMENT, Messages.ActivityConstraints_os);
+				if (!status.contains(s))
+					status.add(s);
+				return;
 			}
+		}
 
-			if (fws.size() > 0) {
-				if (!fws.contains(ws)) {
-					IStatus s =
-						createStatus(feature, FeatureStatus.CODE_ENVIRONMENT, Messages.ActivityConstraints_ws);
-					if (!status.contains(s))
-						status.add(s);
-					continue;
-				}
+		if (fws.size() > 0) {
+			if (!fws.contains(ws)) {
+				IStatus s =
+					createStatus(feature, FeatureStatus.CODE_ENVIRONMENT, Messages.ActivityConstraints_ws);
+				if (!status.contains(s))
+					status.add(s);
+				return;
 			}
+		}
 
-			if (farch.size() > 0) {
-				if (!farch.contains(arch)) {
-					IStatus s =
-						createStatus(feature, FeatureStatus.CODE_ENVIRONMENT, Messages.ActivityConstraints_arch);
-					if (!status.contains(s))
-						status.add(s);
-					continue;
-				}
+		if (farch.size() > 0) {
+			if (!farch.contains(arch)) {
+				IStatus s =
+					createStatus(feature, FeatureStatus.CODE_ENVIRONMENT, Messages.ActivityConstraints_arch);
+				if (!status.contains(s))
+					status.add(s);
+				return;
 			}
 		}
 	}
@@ -757,9 +812,8 @@ public class OperationValidator implements IOperationValidator {
 	/*
 	 * Verify we end up with a version of platform configured
 	 */
-	private static void checkPlatformFeature(
-		ArrayList features,
-		ArrayList plugins,
+	static void checkPlatformFeature(
+		PrereqIndex index,
 		ArrayList status) {
 
 		// find the plugin that defines the product
@@ -768,16 +822,7 @@ public class OperationValidator implements IOperationValidator {
 			return; // normally this shouldn't happen
 		Bundle primaryBundle = product.getDefiningBundle();
 		// check if that plugin is among the resulting plugins
-		boolean found = false;
-		for (int j = 0; j < plugins.size(); j++) {
-			IPluginEntry plugin = (IPluginEntry) plugins.get(j);
-			if (primaryBundle.getSymbolicName().equals(plugin.getVersionedIdentifier().getIdentifier())) {
-				found = true;
-				break;
-			}
-		}
-		
-		if (!found) {
+		if (!index.containsPlugin(primaryBundle.getSymbolicName())) {
 			IStatus s =
 				createStatus(null, FeatureStatus.CODE_OTHER, Messages.ActivityConstraints_platform);
 			if (!status.contains(s))
@@ -788,9 +833,9 @@ public class OperationValidator implements IOperationValidator {
 	/*
 	 * Verify we end up with a version of primary feature configured
 	 */
-	private static void checkPrimaryFeature(
+	static void checkPrimaryFeature(
 		ArrayList features,
-		ArrayList plugins,
+		PrereqIndex index,
 		ArrayList status) {
 
 		String featureId =
@@ -818,13 +863,8 @@ public class OperationValidator implements IOperationValidator {
 				return; // normally this shouldn't happen
 			Bundle primaryBundle = product.getDefiningBundle();
 			// check if that plugin is among the resulting plugins
-
-			for (int j = 0; j < plugins.size(); j++) {
-				IPluginEntry plugin = (IPluginEntry) plugins.get(j);
-				if (primaryBundle.getSymbolicName().equals(plugin.getVersionedIdentifier().getIdentifier())) {
-					return; // product found
-				}
-			}
+			if (index.containsPlugin(primaryBundle.getSymbolicName()))
+				return; // product found
 			IStatus s =
 				createStatus(null, FeatureStatus.CODE_OTHER, Messages.ActivityConstraints_primary);
 			if (!status.contains(s))
@@ -837,174 +877,103 @@ public class OperationValidator implements IOperationValidator {
 	 */
 	private static Set checkPrereqs(
 		ArrayList features,
-		ArrayList plugins,
+		PrereqIndex index,
 		ArrayList status) {
 		
 		HashSet result = new HashSet();
 
-		for (int i = 0; i < features.size(); i++) {
-			IFeature feature = (IFeature) features.get(i);
-			IImport[] imports = feature.getImports();
-
-			for (int j = 0; j < imports.length; j++) {
-				IImport iimport = imports[j];
-				// for each import determine plugin or feature, version, match
-				// we need
-				VersionedIdentifier iid = iimport.getVersionedIdentifier();
-				String id = iid.getIdentifier();
-				PluginVersionIdentifier version = iid.getVersion();
-				boolean featurePrereq =
-					iimport.getKind() == IImport.KIND_FEATURE;
-				boolean ignoreVersion =
-					version.getMajorComponent() == 0
-						&& version.getMinorComponent() == 0
-						&& version.getServiceComponent() == 0;
-				int rule = iimport.getRule();
-				if (rule == IUpdateConstants.RULE_NONE)
-					rule = IUpdateConstants.RULE_COMPATIBLE;
-
-				boolean found = false;
-
-				ArrayList candidates;
-
-				if (featurePrereq)
-					candidates = features;
-				else
-					candidates = plugins;
-				for (int k = 0; k < candidates.size(); k++) {
-					VersionedIdentifier cid;
-					if (featurePrereq) {
-						// the candidate is a feature
-						IFeature candidate = (IFeature) candidates.get(k);
-						// skip self
-						if (feature.equals(candidate))
-							continue;
-						cid = candidate.getVersionedIdentifier();
-					} else {
-						// the candidate is a plug-in
-						IPluginEntry plugin = (IPluginEntry) candidates.get(k);
-						cid = plugin.getVersionedIdentifier();
-					}
-					PluginVersionIdentifier cversion = cid.getVersion();
-					if (id.equals(cid.getIdentifier())) {
-						// have a candidate
-						if (ignoreVersion)
-							found = true;
-						else if (
-							rule == IUpdateConstants.RULE_PERFECT
-								&& cversion.isPerfect(version))
-							found = true;
-						else if (
-							rule == IUpdateConstants.RULE_EQUIVALENT
-								&& cversion.isEquivalentTo(version))
-							found = true;
-						else if (
-							rule == IUpdateConstants.RULE_COMPATIBLE
-								&& cversion.isCompatibleWith(version))
-							found = true;
-						else if (
-							rule == IUpdateConstants.RULE_GREATER_OR_EQUAL
-								&& cversion.isGreaterOrEqualTo(version))
-							found = true;
-					}
-					if (found)
-						break;
-				}
-				
-				// perhaps the bundle that we are looking for was installed
-				// but isn't a part of a feature
-				if (!found && !featurePrereq)
-					found = isInstalled(iid, rule, ignoreVersion);
-
-				if (!found) {
-					// report status
-					String target =
-						featurePrereq
-							? Messages.ActivityConstaints_prereq_feature
-							: Messages.ActivityConstaints_prereq_plugin;
-					int errorCode = featurePrereq
-							? FeatureStatus.CODE_PREREQ_FEATURE
-							: FeatureStatus.CODE_PREREQ_PLUGIN;
-					String msg =
-						NLS.bind(Messages.ActivityConstraints_prereq, (new String[] { target, id }));
-
-					if (!ignoreVersion) {
-						if (rule == IUpdateConstants.RULE_PERFECT)
-							msg =
-								NLS.bind(Messages.ActivityConstraints_prereqPerfect, (new String[] {
+		for (int i = 0; i < features.size(); i++)
+			checkPrereqs((IFeature) features.get(i), index, status, result);
+		
+		return result;
+	}
+
+	/*
+	 * Verify the prereqs of the feature are met, adding the unresolved
+	 * imports to the result
+	 */
+	static void checkPrereqs(
+		IFeature feature,
+		PrereqIndex index,
+		ArrayList status,
+		Set result) {
+		IImport[] imports = feature.getImports();
+
+		for (int j = 0; j < imports.length; j++) {
+			IImport iimport = imports[j];
+			// for each import determine plugin or feature, version, match
+			// we need
+			VersionedIdentifier iid = iimport.getVersionedIdentifier();
+			String id = iid.getIdentifier();
+			PluginVersionIdentifier version = iid.getVersion();
+			boolean featurePrereq =
+				iimport.getKind() == IImport.KIND_FEATURE;
+			boolean ignoreVersion =
+				version.getMajorComponent() == 0
+					&& version.getMinorComponent() == 0
+					&& version.getServiceComponent() == 0;
+			int rule = iimport.getRule();
+			if (rule == IUpdateConstants.RULE_NONE)
+				rule = IUpdateConstants.RULE_COMPATIBLE;
+
+			boolean found;
+			if (featurePrereq)
+				// skip self
+				found = index.matchesFeature(iid, rule, ignoreVersion, feature);
+			else
+				found = index.matchesPlugin(iid, rule, ignoreVersion);
+			
+			// perhaps the bundle that we are looking for was installed
+			// but isn't a part of a feature
+			if (!found && !featurePrereq)
+				found = index.matchesInstalledBundle(iid, rule, ignoreVersion);
+
+			if (!found) {
+				// report status
+				String target =
+					featurePrereq
+						? Messages.ActivityConstaints_prereq_feature
+						: Messages.ActivityConstaints_prereq_plugin;
+				int errorCode = featurePrereq
+						? FeatureStatus.CODE_PREREQ_FEATURE
+						: FeatureStatus.CODE_PREREQ_PLUGIN;
+				String msg =
+					NLS.bind(Messages.ActivityConstraints_prereq, (new String[] { target, id }));
+
+				if (!ignoreVersion) {
+					if (rule == IUpdateConstants.RULE_PERFECT)
+						msg =
+							NLS.bind(Messages.ActivityConstraints_prereqPerfect, (new String[] {
                                 target,
                                 id,
                                 version.toString()}));
-						else if (rule == IUpdateConstants.RULE_EQUIVALENT)
-							msg =
-								NLS.bind(Messages.ActivityConstraints_prereqEquivalent, (new String[] {
+					else if (rule == IUpdateConstants.RULE_EQUIVALENT)
+						msg =
+							NLS.bind(Messages.ActivityConstraints_prereqEquivalent, (new String[] {
                                 target,
                                 id,
                                 version.toString()}));
-						else if (rule == IUpdateConstants.RULE_COMPATIBLE)
-							msg =
-								NLS.bind(Messages.ActivityConstraints_prereqCompatible, (new String[] {
+					else if (rule == IUpdateConstants.RULE_COMPATIBLE)
+						msg =
+							NLS.bind(Messages.ActivityConstraints_prereqCompatible, (new String[] {
                                 target,
                                 id,
                                 version.toString()}));
-						else if (rule == IUpdateConstants.RULE_GREATER_OR_EQUAL)
-							msg =
-								NLS.bind(Messages.ActivityConstraints_prereqGreaterOrEqual, (new String[] {
+					else if (rule == IUpdateConstants.RULE_GREATER_OR_EQUAL)
+						msg =
+							NLS.bind(Messages.ActivityConstraints_prereqGreaterOrEqual, (new String[] {
                                 target,
                                 id,
                                 version.toString()}));
-					}
-					IStatus s = createStatus(feature, errorCode, msg);
-					result.add(new InternalImport(iimport));
-					if (!status.contains(s))
-						status.add(s);
 				}
+				IStatus s = createStatus(feature, errorCode, msg);
+				result.add(new InternalImport(iimport));
+				if (!status.contains(s))
+					status.add(s);
 			}
 		}
-		
-		return result;
 	}
 	
-	/*
-	 * Return a boolean value indicating whether or not the bundle with the given id and version
-	 * is installed in the system.
-	 */
-	private static boolean isInstalled(VersionedIdentifier vid, int rule, boolean ignoreVersion) {
-		BundleContext context = UpdateCore.getPlugin().getBundleContext();
-		if (context == null)
-			return false;
-		ServiceReference reference = context.getServiceReference(PlatformAdmin.class.getName());
-		if (reference == null)
-			return false;
-		PlatformAdmin admin = (PlatformAdmin) context.getService(reference);
-		try {
-			State state = admin.getState(false);
-			String id = vid.getIdentifier();
-			PluginVersionIdentifier version = vid.getVersion();
-			BundleDescription[] bundles = state.getBundles(id);
-			if (bundles == null || bundles.length == 0)
-				return false;
-			for (int i=0; i<bundles.length; i++) {
-				BundleDescription bundle = bundles[i];
-				PluginVersionIdentifier cversion = new PluginVersionIdentifier(bundle.getVersion().toString());
-				// have a candidate
-				if (ignoreVersion)
-					return true;
-				if (rule == IUpdateConstants.RULE_PERFECT && cversion.isPerfect(version))
-					return true;
-				else if (rule == IUpdateConstants.RULE_EQUIVALENT && cversion.isEquivalentTo(version))
-					return true;
-				else if (rule == IUpdateConstants.RULE_COMPATIBLE && cversion.isCompatibleWith(version))
-					return true;
-				else if (rule == IUpdateConstants.RULE_GREATER_OR_EQUAL && cversion.isGreaterOrEqualTo(version))
-					return true;
-			}
-			return false;
-		} finally {
-			context.ungetService(reference);
-		}
-	}
-
 	/*
 	 * Verify we end up with valid nested features after revert
 	 */
@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.operations;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.PluginVersionIdentifier;
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.PlatformAdmin;
+import org.eclipse.osgi.service.resolver.State;
+import org.eclipse.update.core.IFeature;
+import org.eclipse.update.core.IPluginEntry;
+import org.eclipse.update.core.IUpdateConstants;
+import org.eclipse.update.core.VersionedIdentifier;
+import org.eclipse.update.internal.core.UpdateCore;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Index of the features and plug-ins of a configuration, used to
+ * resolve prerequisites without scanning every candidate.
+ * <p>
+ * Candidates are grouped by identifier and kept sorted by version. The
+ * versions matching a rule form a contiguous range starting at the
+ * requested version: all greater versions for
+ * <code>RULE_GREATER_OR_EQUAL</code>, up to the next major version for
+ * <code>RULE_COMPATIBLE</code>, up to the next minor version for
+ * <code>RULE_EQUIVALENT</code>, and the version itself for
+ * <code>RULE_PERFECT</code>. A lookup is a binary search for the start
+ * of that range. The bundles installed outside of features are indexed
+ * the same way, on first use.
+ * <p>
+ * Features can be added and removed, so one index can follow the
+ * changes of a proposed operation. The installed bundles are not
+ * updated once indexed.
+ */
+public class PrereqIndex {
+
+	private static final Comparator VERSION_ORDER = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			PluginVersionIdentifier v1 = ((Candidate) o1).version;
+			PluginVersionIdentifier v2 = ((Candidate) o2).version;
+			if (v1.isGreaterThan(v2))
+				return 1;
+			if (v2.isGreaterThan(v1))
+				return -1;
+			return 0;
+		}
+	};
+
+	private static class Candidate {
+		PluginVersionIdentifier version;
+		Object owner;
+		// number of indexed features contributing a plug-in
+		int count = 1;
+
+		Candidate(PluginVersionIdentifier version, Object owner) {
+			this.version = version;
+			this.owner = owner;
+		}
+	}
+
+	// id -> List of Candidate, sorted by version
+	private Map featureIndex = new HashMap();
+	private Map pluginIndex = new HashMap();
+	private Map bundleIndex;
+	// VersionedIdentifier -> Candidate
+	private Map pluginCandidates = new HashMap();
+
+	/**
+	 * Indexes the given features and the plug-ins they contain.
+	 *
+	 * @param features list of IFeature
+	 */
+	public PrereqIndex(List features) {
+		for (int i = 0; i < features.size(); i++)
+			addFeature((IFeature) features.get(i));
+	}
+
+	/**
+	 * Adds a feature and its plug-ins to the index.
+	 */
+	public void addFeature(IFeature feature) {
+		VersionedIdentifier vid = feature.getVersionedIdentifier();
+		insert(featureIndex, vid.getIdentifier(), new Candidate(vid.getVersion(), feature));
+
+		// a plug-in shared by several features is listed once
+		IPluginEntry[] entries = feature.getPluginEntries();
+		for (int i = 0; i < entries.length; i++) {
+			VersionedIdentifier pid = entries[i].getVersionedIdentifier();
+			Candidate candidate = (Candidate) pluginCandidates.get(pid);
+			if (candidate != null) {
+				candidate.count++;
+			} else {
+				candidate = new Candidate(pid.getVersion(), pid);
+				pluginCandidates.put(pid, candidate);
+				insert(pluginIndex, pid.getIdentifier(), candidate);
+			}
+		}
+	}
+
+	/**
+	 * Removes a feature added earlier, and the plug-ins no other
+	 * indexed feature contains.
+	 */
+	public void removeFeature(IFeature feature) {
+		VersionedIdentifier vid = feature.getVersionedIdentifier();
+		List candidates = (List) featureIndex.get(vid.getIdentifier());
+		for (int i = 0; candidates != null && i < candidates.size(); i++) {
+			if (feature.equals(((Candidate) candidates.get(i)).owner)) {
+				remove(featureIndex, vid.getIdentifier(), i);
+				break;
+			}
+		}
+
+		IPluginEntry[] entries = feature.getPluginEntries();
+		for (int i = 0; i < entries.length; i++) {
+			VersionedIdentifier pid = entries[i].getVersionedIdentifier();
+			Candidate candidate = (Candidate) pluginCandidates.get(pid);
+			if (candidate == null || --candidate.count > 0)
+				continue;
+			pluginCandidates.remove(pid);
+			candidates = (List) pluginIndex.get(pid.getIdentifier());
+			remove(pluginIndex, pid.getIdentifier(), candidates.indexOf(candidate));
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if one of the indexed features contains
+	 * a plug-in with the given identifier.
+	 */
+	public boolean containsPlugin(String id) {
+		return pluginIndex.containsKey(id);
+	}
+
+	/**
+	 * Returns <code>true</code> if an indexed feature other than the
+	 * given one matches the prerequisite.
+	 *
+	 * @param vid the required feature
+	 * @param rule the match rule
+	 * @param ignoreVersion <code>true</code> if any version matches
+	 * @param self the feature declaring the prerequisite
+	 */
+	public boolean matchesFeature(VersionedIdentifier vid, int rule, boolean ignoreVersion, IFeature self) {
+		return matches(featureIndex, vid, rule, ignoreVersion, self);
+	}
+
+	/**
+	 * Returns <code>true</code> if a plug-in of an indexed feature
+	 * matches the prerequisite.
+	 *
+	 * @param vid the required plug-in
+	 * @param rule the match rule
+	 * @param ignoreVersion <code>true</code> if any version matches
+	 */
+	public boolean matchesPlugin(VersionedIdentifier vid, int rule, boolean ignoreVersion) {
+		return matches(pluginIndex, vid, rule, ignoreVersion, null);
+	}
+
+	/**
+	 * Returns <code>true</code> if a bundle installed in the running
+	 * platform, whether or not it is part of a feature, matches the
+	 * prerequisite.
+	 *
+	 * @param vid the required bundle
+	 * @param rule the match rule
+	 * @param ignoreVersion <code>true</code> if any version matches
+	 */
+	public boolean matchesInstalledBundle(VersionedIdentifier vid, int rule, boolean ignoreVersion) {
+		if (bundleIndex == null)
+			bundleIndex = computeBundleIndex();
+		return matches(bundleIndex, vid, rule, ignoreVersion, null);
+	}
+
+	/*
+	 * Returns true if a candidate other than the excluded owner
+	 * matches the identifier, version and rule.
+	 */
+	private static boolean matches(Map index, VersionedIdentifier vid, int rule, boolean ignoreVersion, Object exclude) {
+		List candidates = (List) index.get(vid.getIdentifier());
+		if (candidates == null)
+			return false;
+		if (ignoreVersion) {
+			for (int i = 0; i < candidates.size(); i++) {
+				Candidate candidate = (Candidate) candidates.get(i);
+				if (exclude == null || !exclude.equals(candidate.owner))
+					return true;
+			}
+			return false;
+		}
+
+		PluginVersionIdentifier version = vid.getVersion();
+		// every candidate from here on is greater or equal to the version
+		for (int i = lowerBound(candidates, version); i < candidates.size(); i++) {
+			Candidate candidate = (Candidate) candidates.get(i);
+			if (!inRange(candidate.version, version, rule))
+				return false;
+			if (exclude == null || !exclude.equals(candidate.owner))
+				return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Returns true if the candidate version, known to be greater or equal
+	 * to the required one, satisfies the rule.
+	 */
+	private static boolean inRange(PluginVersionIdentifier cversion, PluginVersionIdentifier version, int rule) {
+		switch (rule) {
+			case IUpdateConstants.RULE_PERFECT :
+				return cversion.isPerfect(version);
+			case IUpdateConstants.RULE_EQUIVALENT :
+				return cversion.isEquivalentTo(version);
+			case IUpdateConstants.RULE_COMPATIBLE :
+				return cversion.isCompatibleWith(version);
+			case IUpdateConstants.RULE_GREATER_OR_EQUAL :
+				return true;
+			default :
+				return false;
+		}
+	}
+
+	/*
+	 * Returns the index of the first candidate greater or equal
+	 * to the version.
+	 */
+	private static int lowerBound(List candidates, PluginVersionIdentifier version) {
+		int low = 0;
+		int high = candidates.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (version.isGreaterThan(((Candidate) candidates.get(mid)).version))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/*
+	 * Inserts the candidate after the candidates of lower or equal version.
+	 */
+	private static void insert(Map index, String id, Candidate candidate) {
+		List candidates = (List) index.get(id);
+		if (candidates == null) {
+			candidates = new ArrayList(1);
+			index.put(id, candidates);
+		}
+		int i = candidates.size();
+		while (i > 0 && VERSION_ORDER.compare(candidates.get(i - 1), candidate) > 0)
+			i--;
+		candidates.add(i, candidate);
+	}
+
+	private static void remove(Map index, String id, int i) {
+		List candidates = (List) index.get(id);
+		candidates.remove(i);
+		if (candidates.isEmpty())
+			index.remove(id);
+	}
+
+	/*
+	 * Indexes the bundles of the platform state.
+	 */
+	private static Map computeBundleIndex() {
+		Map index = new HashMap();
+		BundleContext context = UpdateCore.getPlugin().getBundleContext();
+		if (context == null)
+			return index;
+		ServiceReference reference = context.getServiceReference(PlatformAdmin.class.getName());
+		if (reference == null)
+			return index;
+		PlatformAdmin admin = (PlatformAdmin) context.getService(reference);
+		try {
+			State state = admin.getState(false);
+			BundleDescription[] bundles = state.getBundles();
+			Set seen = new HashSet();
+			for (int i = 0; i < bundles.length; i++) {
+				String id = bundles[i].getSymbolicName();
+				if (id == null)
+					continue;
+				PluginVersionIdentifier version = new PluginVersionIdentifier(bundles[i].getVersion().toString());
+				if (seen.add(id + '_' + version))
+					insert(index, id, new Candidate(version, null));
+			}
+		} finally {
+			context.ungetService(reference);
+		}
+		return index;
+	}
+}
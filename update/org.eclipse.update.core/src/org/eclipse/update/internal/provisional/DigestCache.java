@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2006, 2007 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.provisional;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.update.internal.core.ArtifactStore;
+
+/**
+ * What the digest builder read from each feature jar and the digest
+ * fragments it rendered, kept in the digest output directory between
+ * runs of the site optimizer with <code>-incremental</code>.
+ * <p>
+ * An entry is returned while the size and modification time of the jar
+ * match those recorded, or else while the hash of its content does, so
+ * only the features added or changed since the previous run are opened
+ * and parsed again. Entries not used by a run are dropped when it saves
+ * the cache.
+ */
+class DigestCache {
+
+	private static final String CACHE_NAME = "digest.cache"; //$NON-NLS-1$
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+	private static final int MAGIC = 0x44494753; // DIGS
+	private static final int VERSION = 1;
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	/**
+	 * A feature jar and what was read from it.
+	 */
+	static class Entry {
+		long length;
+		long lastModified;
+		String hash;
+		// names of the feature*.properties entries of the jar
+		List localeFiles = new ArrayList();
+		// versioned identifiers of the included features
+		String[] included = new String[0];
+		boolean[] optional = new boolean[0];
+		// locale -> rendered digest fragment
+		Map fragments = new HashMap();
+	}
+
+	private File file;
+	// feature jar path -> Entry
+	private Map entries = new HashMap();
+	private Map used = new HashMap();
+
+	/**
+	 * Loads the cache of the given digest output directory.
+	 */
+	DigestCache(File directory) {
+		this.file = new File(directory, CACHE_NAME);
+		load();
+	}
+
+	/**
+	 * Returns the entry of the feature jar, or <code>null</code> if it was
+	 * not read before or its content changed since.
+	 */
+	Entry lookup(String feature) {
+		Entry entry = (Entry) used.get(feature);
+		if (entry != null)
+			return entry;
+		entry = (Entry) entries.get(feature);
+		if (entry == null)
+			return null;
+		File jar = new File(feature);
+		if (jar.length() != entry.length || jar.lastModified() != entry.lastModified) {
+			// touched or copied, the content may still be the same
+			if (jar.length() != entry.length || !entry.hash.equals(ArtifactStore.getDigest(jar)))
+				return null;
+			entry.lastModified = jar.lastModified();
+		}
+		used.put(feature, entry);
+		return entry;
+	}
+
+	/**
+	 * Returns a new entry for the feature jar, replacing its previous one.
+	 */
+	Entry create(String feature) {
+		File jar = new File(feature);
+		Entry entry = new Entry();
+		entry.length = jar.length();
+		entry.lastModified = jar.lastModified();
+		entry.hash = ArtifactStore.getDigest(jar);
+		if (entry.hash == null)
+			entry.hash = ""; //$NON-NLS-1$
+		entries.put(feature, entry);
+		used.put(feature, entry);
+		return entry;
+	}
+
+	/**
+	 * Writes the entries used since the cache was loaded.
+	 */
+	void save() throws IOException {
+		File temp = new File(file.getPath() + TEMP_SUFFIX);
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(used.size());
+			for (Iterator iter = used.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry mapEntry = (Map.Entry) iter.next();
+				Entry entry = (Entry) mapEntry.getValue();
+				out.writeUTF((String) mapEntry.getKey());
+				out.writeLong(entry.length);
+				out.writeLong(entry.lastModified);
+				out.writeUTF(entry.hash);
+				out.writeInt(entry.localeFiles.size());
+				for (int i = 0; i < entry.localeFiles.size(); i++)
+					out.writeUTF((String) entry.localeFiles.get(i));
+				out.writeInt(entry.included.length);
+				for (int i = 0; i < entry.included.length; i++) {
+					out.writeUTF(entry.included[i]);
+					out.writeBoolean(entry.optional[i]);
+				}
+				out.writeInt(entry.fragments.size());
+				for (Iterator fragments = entry.fragments.entrySet().iterator(); fragments.hasNext();) {
+					Map.Entry fragment = (Map.Entry) fragments.next();
+					out.writeUTF((String) fragment.getKey());
+					// fragments with a long license exceed what writeUTF takes
+					byte[] bytes = ((String) fragment.getValue()).getBytes(UTF_8);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+			}
+			out.close();
+			out = null;
+			file.delete();
+			if (!temp.renameTo(file))
+				throw new IOException("Unable to rename " + temp + " to " + file); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+			temp.delete();
+		}
+	}
+
+	private void load() {
+		if (!file.isFile())
+			return;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return;
+			int count = in.readInt();
+			Map loaded = new HashMap(count);
+			for (int i = 0; i < count; i++) {
+				String feature = in.readUTF();
+				Entry entry = new Entry();
+				entry.length = in.readLong();
+				entry.lastModified = in.readLong();
+				entry.hash = in.readUTF();
+				int localeFiles = in.readInt();
+				for (int j = 0; j < localeFiles; j++)
+					entry.localeFiles.add(in.readUTF());
+				int included = in.readInt();
+				entry.included = new String[included];
+				entry.optional = new boolean[included];
+				for (int j = 0; j < included; j++) {
+					entry.included[j] = in.readUTF();
+					entry.optional[j] = in.readBoolean();
+				}
+				int fragments = in.readInt();
+				for (int j = 0; j < fragments; j++) {
+					String locale = in.readUTF();
+					byte[] bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+					entry.fragments.put(locale, new String(bytes, UTF_8));
+				}
+				loaded.put(feature, entry);
+			}
+			entries = loaded;
+		} catch (IOException e) {
+			System.out.println("Unable to read digest cache " + file + ", rebuilding all features."); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
@@ -20,6 +20,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -94,12 +95,19 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 
 	public final static String JAR_PROCESSOR_PROCESS_ALL = "-processAll"; //$NON-NLS-1$
 
+	public final static String JAR_PROCESSOR_THREADS = "-threads"; //$NON-NLS-1$
+
 	public final static String SITE_XML = "-siteXML"; //$NON-NLS-1$
 
 	public final static String SITE_ATTRIBUTES_FILE = "siteAttributes.txt"; //$NON-NLS-1$
 
 	public final static String DIGEST_OUTPUT_DIR = "-digestOutputDir"; //$NON-NLS-1$
 
+	public final static String DIGEST_INCREMENTAL = "-incremental"; //$NON-NLS-1$
+
+	// features read by previous runs, when building incrementally
+	private DigestCache digestCache;
+
 	/*
 	 * private final static String DESCRIPTION = "DESCRIPTION"; private final
 	 * static String LICENCE = "LICENCE"; private final static String COPYRIGHT =
@@ -157,6 +165,15 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 
 		String problem = null;
 
+		String threads = (String) params.get(JAR_PROCESSOR_THREADS);
+		if (threads != null) {
+			try {
+				options.threads = Integer.parseInt(threads);
+			} catch (NumberFormatException e) {
+				problem = "Invalid number of threads: " + threads; //$NON-NLS-1$
+			}
+		}
+
 		String input = (String) params.get(INPUT);
 		if (input == null)
 			problem = Messages.SiteOptimizer_inputNotSpecified;
@@ -192,6 +209,16 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 
 	private boolean runDigestBuilder(Map params) {
 
+		String outputDirectory = (String) params.get(DIGEST_OUTPUT_DIR);
+
+		outputDirectory = outputDirectory.substring(outputDirectory
+				.indexOf("=") + 1); //$NON-NLS-1$
+		if (!outputDirectory.endsWith(File.separator)) {
+			outputDirectory = outputDirectory + File.separator;
+		}
+		if (params.containsKey(DIGEST_INCREMENTAL))
+			digestCache = new DigestCache(new File(outputDirectory));
+
 		List featureList = getFeatureList(params);
 
 		if ((featureList == null) || featureList.isEmpty()) {
@@ -213,13 +240,33 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 
 			String featureJarFileName = (String) featureList.get(i);
 
-			if (featureJarFileName.endsWith("jar")) { //$NON-NLS-1$
-				System.out.println("Processing... " + featureJarFileName); //$NON-NLS-1$
-			} else {
+			if (!featureJarFileName.endsWith("jar")) { //$NON-NLS-1$
 				System.out.println("Skipping... " + featureJarFileName); //$NON-NLS-1$
 				continue;
 			}
 
+			DigestCache.Entry cacheEntry = null;
+			if (digestCache != null) {
+				cacheEntry = digestCache.lookup(featureJarFileName);
+				if (cacheEntry != null && hasFragments(cacheEntry, availableLocales)) {
+					// unchanged since the previous run, splice in its digests
+					System.out.println("Unchanged... " + featureJarFileName); //$NON-NLS-1$
+					try {
+						featureList = addFeaturesToList( (String) params.get(SITE_XML), featureList, cacheEntry.included, cacheEntry.optional, availableLocales, perFeatureLocales);
+					} catch (CoreException e) {
+						e.printStackTrace();
+						return false;
+					}
+					Iterator availableLocalesIterator = availableLocales.values().iterator();
+					while (availableLocalesIterator.hasNext()) {
+						AvailableLocale availableLocale = (AvailableLocale) availableLocalesIterator.next();
+						availableLocale.writeFragment((String) cacheEntry.fragments.get(availableLocale.getLocale()));
+					}
+					continue;
+				}
+			}
+			System.out.println("Processing... " + featureJarFileName); //$NON-NLS-1$
+
 			JarFile featureJar = null;
 			try {
 				featureJar = new JarFile(featureJarFileName);
@@ -239,14 +286,27 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 				FeatureModel featureModel = fmf.parseFeature(featureJar
 						.getInputStream(featureXMLEntry));
 
-				featureList = addFeaturesToList( (String) params.get(SITE_XML), featureList, featureModel.getFeatureIncluded(), availableLocales, perFeatureLocales);
+				IIncludedFeatureReference[] includedFeatures = featureModel.getFeatureIncluded();
+				String[] included = new String[includedFeatures.length];
+				boolean[] optional = new boolean[includedFeatures.length];
+				for (int j = 0; j < includedFeatures.length; j++) {
+					included[j] = includedFeatures[j].getVersionedIdentifier().toString();
+					optional[j] = includedFeatures[j].isOptional();
+				}
+				featureList = addFeaturesToList( (String) params.get(SITE_XML), featureList, included, optional, availableLocales, perFeatureLocales);
 
 				Iterator availableLocalesIterator = availableLocales.values()
 				.iterator();
 				while (availableLocalesIterator.hasNext()) {
-					((AvailableLocale) availableLocalesIterator.next())
-					.writeFeatureDigests(featureModel,
+					AvailableLocale availableLocale = (AvailableLocale) availableLocalesIterator.next();
+					String fragment = availableLocale.writeFeatureDigests(featureModel,
 							featureProperties);
+					if (cacheEntry != null)
+						cacheEntry.fragments.put(availableLocale.getLocale(), fragment);
+				}
+				if (cacheEntry != null) {
+					cacheEntry.included = included;
+					cacheEntry.optional = optional;
 				}
 
 			} catch (SAXException e) {
@@ -262,13 +322,6 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 		}
 		Iterator availableLocalesIterator = availableLocales.values()
 		.iterator();
-		String outputDirectory = (String) params.get(DIGEST_OUTPUT_DIR);
-
-		outputDirectory = outputDirectory.substring(outputDirectory
-				.indexOf("=") + 1); //$NON-NLS-1$
-		if (!outputDirectory.endsWith(File.separator)) {
-			outputDirectory = outputDirectory + File.separator;
-		}
 		while (availableLocalesIterator.hasNext()) {
 			try {
 				((AvailableLocale) availableLocalesIterator.next())
@@ -280,11 +333,32 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 				return false;
 			}
 		}
+		if (digestCache != null) {
+			try {
+				digestCache.save();
+			} catch (IOException e) {
+				System.out.println("Can not write digest cache in digest output directory: " //$NON-NLS-1$
+						+ outputDirectory);
+				e.printStackTrace();
+			}
+		}
 		System.out.println("Done"); //$NON-NLS-1$
 		return true;
 	}
 
-	private List addFeaturesToList( String siteXML, List featureList, IIncludedFeatureReference[] iIncludedFeatureReferences, Map availableLocales, Map perFeatureLocales ) throws CoreException {
+	/*
+	 * Returns true if the cached feature has digests for all the locales.
+	 */
+	private boolean hasFragments(DigestCache.Entry cacheEntry, Map availableLocales) {
+		Iterator locales = availableLocales.keySet().iterator();
+		while (locales.hasNext()) {
+			if (!cacheEntry.fragments.containsKey(locales.next()))
+				return false;
+		}
+		return true;
+	}
+
+	private List addFeaturesToList( String siteXML, List featureList, String[] includedFeatures, boolean[] optional, Map availableLocales, Map perFeatureLocales ) throws CoreException {
 
 		String directoryName = (new File(siteXML)).getParent();
 		if (!directoryName.endsWith(File.separator)) {
@@ -292,14 +366,14 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 		}
 		directoryName = directoryName + "features" + File.separator; //$NON-NLS-1$
 
-		for (int i = 0; i < iIncludedFeatureReferences.length; i++) {
-			String featureURL = directoryName + iIncludedFeatureReferences[i].getVersionedIdentifier() + ".jar"; //$NON-NLS-1$
+		for (int i = 0; i < includedFeatures.length; i++) {
+			String featureURL = directoryName + includedFeatures[i] + ".jar"; //$NON-NLS-1$
 			if (!(isFeatureAlreadyInList(featureList, featureURL))) {
 				try {
 					System.out.println("Extracting locales from included feature " + featureURL); //$NON-NLS-1$
 					processLocalesInJar(availableLocales, featureURL, perFeatureLocales, true);
 				} catch (IOException e) {
-					if (iIncludedFeatureReferences[i].isOptional()) 
+					if (optional[i]) 
 						continue;
 					System.out.println("Error while extracting locales from included feature " + featureURL);//$NON-NLS-1$	
 					e.printStackTrace();
@@ -384,40 +458,62 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 	private void processLocalesInJar(Map locales, String feature,
 			Map perFeatureLocales, boolean ignoreNewLocales) throws IOException {
 
-		JarFile jar = new JarFile(feature);
-		// System.out.println(feature);
-		Enumeration files = jar.entries();
-
 		List localesTemp = new ArrayList();
 		perFeatureLocales.put(feature, localesTemp);
 
-		while (files.hasMoreElements()) {
-			ZipEntry file = (ZipEntry) files.nextElement();
+		Iterator files = getLocaleFiles(feature).iterator();
+		while (files.hasNext()) {
 			String localeString = null;
-			String name = file.getName();
+			String name = (String) files.next();
 			// System.out.println("processLocalesInJar:"+name);
-			if (name.startsWith("feature") && name.endsWith(".properties")) { //$NON-NLS-1$ //$NON-NLS-2$
-				// System.out.println(name);
-				localesTemp.add(name);
-				// System.out.println(name);
-				if (name.endsWith("feature.properties")) { //$NON-NLS-1$
-					localeString = ""; //$NON-NLS-1$
-				} else {
-					localeString = name.substring(8, name.indexOf('.'));
-				}
-				// System.out.println(name +"::::\"" + localeString + "\"");
-				if ( !ignoreNewLocales && !locales.containsKey(localeString)) {
-					locales.put(localeString, new AvailableLocale(localeString));
-				}
-				if (locales.containsKey(localeString)) {
-					AvailableLocale currentLocale = (AvailableLocale) locales.get(localeString);
-					currentLocale.addFeatures(feature);
-				}
+			// System.out.println(name);
+			localesTemp.add(name);
+			// System.out.println(name);
+			if (name.endsWith("feature.properties")) { //$NON-NLS-1$
+				localeString = ""; //$NON-NLS-1$
+			} else {
+				localeString = name.substring(8, name.indexOf('.'));
+			}
+			// System.out.println(name +"::::\"" + localeString + "\"");
+			if ( !ignoreNewLocales && !locales.containsKey(localeString)) {
+				locales.put(localeString, new AvailableLocale(localeString));
+			}
+			if (locales.containsKey(localeString)) {
+				AvailableLocale currentLocale = (AvailableLocale) locales.get(localeString);
+				currentLocale.addFeatures(feature);
 			}
 		}
 
 	}
 
+	/*
+	 * Returns the names of the feature*.properties entries of the feature
+	 * jar, from the digest cache if the jar did not change.
+	 */
+	private List getLocaleFiles(String feature) throws IOException {
+		if (digestCache != null) {
+			DigestCache.Entry cacheEntry = digestCache.lookup(feature);
+			if (cacheEntry != null)
+				return cacheEntry.localeFiles;
+		}
+
+		JarFile jar = new JarFile(feature);
+		List localeFiles = new ArrayList();
+		try {
+			Enumeration files = jar.entries();
+			while (files.hasMoreElements()) {
+				String name = ((ZipEntry) files.nextElement()).getName();
+				if (name.startsWith("feature") && name.endsWith(".properties")) //$NON-NLS-1$ //$NON-NLS-2$
+					localeFiles.add(name);
+			}
+		} finally {
+			jar.close();
+		}
+		if (digestCache != null)
+			digestCache.create(feature).localeFiles = localeFiles;
+		return localeFiles;
+	}
+
 	private List getFeatureList(Map params) {
 		if (params.containsKey(SITE_XML)
 				&& (fileExists((String) params.get(SITE_XML)))) {
@@ -569,6 +665,10 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 			this.locale = locale;
 		}
 
+		public String getLocale() {
+			return locale;
+		}
+
 		public void addFeatures(String feature) {
 			features.put(feature, feature);
 		}
@@ -603,28 +703,40 @@ public class SiteOptimizerApplication implements IPlatformRunnable {
 			return true;
 		}
 
-		public void writeFeatureDigests(FeatureModel featureModel,
+		/**
+		 * Writes the digest of the feature for this locale.
+		 * @return the digest written
+		 */
+		public String writeFeatureDigests(FeatureModel featureModel,
 				Map featureProperties) {
 
+			StringWriter fragment = new StringWriter();
+			PrintWriter fragmentWriter = new PrintWriter(fragment);
 			if (this.locale.equals("")) { //$NON-NLS-1$
-				writeFeatureDigest(localizedPrintWriter, featureModel,
+				writeFeatureDigest(fragmentWriter, featureModel,
 						(Properties) featureProperties.get("")); //$NON-NLS-1$
-				return;
-			}
-			Properties temp = new Properties();
-			if (locale.indexOf("_") < 0) { //$NON-NLS-1$
-				temp = combineProperties(
+			} else if (locale.indexOf("_") < 0) { //$NON-NLS-1$
+				Properties temp = combineProperties(
 						(Properties) featureProperties.get(""), //$NON-NLS-1$
 						(Properties) featureProperties.get(locale), null);
-				writeFeatureDigest(localizedPrintWriter, featureModel, temp);
+				writeFeatureDigest(fragmentWriter, featureModel, temp);
 			} else {
-				temp = combineProperties(
+				Properties temp = combineProperties(
 						(Properties) featureProperties.get(""), //$NON-NLS-1$
 						(Properties) featureProperties.get(locale.substring(0, locale.indexOf("_"))), //$NON-NLS-1$
 						(Properties) featureProperties.get(locale) );
-				writeFeatureDigest(localizedPrintWriter, featureModel, temp);
+				writeFeatureDigest(fragmentWriter, featureModel, temp);
 			}
+			fragmentWriter.flush();
+			writeFragment(fragment.toString());
+			return fragment.toString();
+		}
 
+		/**
+		 * Writes a feature digest rendered before.
+		 */
+		public void writeFragment(String fragment) {
+			localizedPrintWriter.print(fragment);
 		}
 		
 		/**
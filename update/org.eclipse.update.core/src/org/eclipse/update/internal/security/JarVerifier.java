@@ -13,12 +13,14 @@ package org.eclipse.update.internal.security;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
@@ -53,17 +55,42 @@ public class JarVerifier extends Verifier {
 
 	private static final String MANIFEST = "META-INF"; //$NON-NLS-1$
 
+	// result of the last verification
 	private JarVerificationResult result;
+	// guarded by this verifier, the rest of the state of
+	// a verification is local to it
 	private List /*of CertificatePair*/
 	trustedCertificates;
 	private boolean acceptUnsignedFiles;
-	private List /* of KeyStore */
-	listOfKeystores;
-	private IProgressMonitor monitor;
-	private File jarFile;
 
-	private static	byte[] buffer = new byte[8192];
+	// keystores are loaded once and shared by all verifiers, and loaded
+	// again when one of the keystore files changes
+	private static TrustedKeys trustedKeys;
+	// keystore files are checked for changes at most this often
+	private static final long STAMP_CHECK_INTERVAL = 5000;
+
+	// jars with at least this many entries are read by several threads
+	private static final int PARALLEL_THRESHOLD = 256;
+	private static final int BUFFER_SIZE = 8192;
 	
+	/*
+	 * The loaded keystores, with the fingerprint of their certificates
+	 * and the stamp of the files they were loaded from.
+	 */
+	private static class TrustedKeys {
+		List keystores;
+		String fingerprint;
+		String stamp;
+		long checked;
+
+		TrustedKeys(List keystores, String stamp, long checked) {
+			this.keystores = keystores;
+			this.fingerprint = VerificationCache.getTrustFingerprint(keystores);
+			this.stamp = stamp;
+			this.checked = checked;
+		}
+	}
+
 	/*
 	 * Default Constructor
 	 */
@@ -75,62 +102,96 @@ public class JarVerifier extends Verifier {
 	 * Returns the list of the keystores.
 	 */
 	private List getKeyStores() throws CoreException {
-		if (listOfKeystores == null) {
-			listOfKeystores = new ArrayList(0);
-			KeyStores listOfKeystoreHandles = new KeyStores();
-			InputStream in = null;
-			KeyStore keystore = null;
-			KeystoreHandle handle = null;
-			while (listOfKeystoreHandles.hasNext()) {
+		return getTrustedKeys().keystores;
+	}
+
+	/*
+	 * Loads the keystores on first use, and again once one of
+	 * their files changed.
+	 */
+	private static synchronized TrustedKeys getTrustedKeys() throws CoreException {
+		long now = System.currentTimeMillis();
+		if (trustedKeys != null && now - trustedKeys.checked < STAMP_CHECK_INTERVAL)
+			return trustedKeys;
+		String stamp = getKeyStoresStamp();
+		if (trustedKeys != null && trustedKeys.stamp.equals(stamp)) {
+			trustedKeys.checked = now;
+			return trustedKeys;
+		}
+		List listOfKeystores = new ArrayList(0);
+		KeyStores listOfKeystoreHandles = new KeyStores();
+		InputStream in = null;
+		KeyStore keystore = null;
+		KeystoreHandle handle = null;
+		while (listOfKeystoreHandles.hasNext()) {
+			try {
+				handle = listOfKeystoreHandles.next();
+				in = ConnectionFactory.get(handle.getLocation()).getInputStream();
 				try {
-					handle = listOfKeystoreHandles.next();
-					in = ConnectionFactory.get(handle.getLocation()).getInputStream();
-					try {
-						keystore = KeyStore.getInstance(handle.getType());
-						keystore.load(in, null); // no password
-					} catch (NoSuchAlgorithmException e) {
-						throw Utilities.newCoreException(NLS.bind(Messages.JarVerifier_UnableToFindEncryption, (new String[] { handle.getLocation().toExternalForm() })), e);
-					} catch (CertificateException e) {
-						throw Utilities.newCoreException(NLS.bind(Messages.JarVerifier_UnableToLoadCertificate, (new String[] { handle.getLocation().toExternalForm() })), e);
-					} catch (KeyStoreException e) {
-						throw Utilities.newCoreException(NLS.bind(Messages.JarVerifier_UnableToFindProviderForKeystore, (new String[] { handle.getType() })), e);
-					} finally {
-						if (in != null) {
-							try {
-								in.close();
-							} catch (IOException e) {
-							} // nothing
-						}
-					} // try loading a keyStore
+					keystore = KeyStore.getInstance(handle.getType());
+					keystore.load(in, null); // no password
+				} catch (NoSuchAlgorithmException e) {
+					throw Utilities.newCoreException(NLS.bind(Messages.JarVerifier_UnableToFindEncryption, (new String[] { handle.getLocation().toExternalForm() })), e);
+				} catch (CertificateException e) {
+					throw Utilities.newCoreException(NLS.bind(Messages.JarVerifier_UnableToLoadCertificate, (new String[] { handle.getLocation().toExternalForm() })), e);
+				} catch (KeyStoreException e) {
+					throw Utilities.newCoreException(NLS.bind(Messages.JarVerifier_UnableToFindProviderForKeystore, (new String[] { handle.getType() })), e);
+				} finally {
+					if (in != null) {
+						try {
+							in.close();
+						} catch (IOException e) {
+						} // nothing
+					}
+				} // try loading a keyStore
 
-					// keystore was loaded
-					listOfKeystores.add(keystore);
-				} catch (IOException e) {
-					// nothing... if the keystore doesn't exist, continue	
-				}
+				// keystore was loaded
+				listOfKeystores.add(keystore);
+			} catch (IOException e) {
+				// nothing... if the keystore doesn't exist, continue	
+			}
 
-			} // while all key stores
+		} // while all key stores
 
-		}
+		trustedKeys = new TrustedKeys(listOfKeystores, stamp, now);
 
-		return listOfKeystores;
+		return trustedKeys;
+	}
+
+	/*
+	 * Returns the modification times and sizes of the keystore files.
+	 * Keystores that are not local files are only known by location.
+	 */
+	private static String getKeyStoresStamp() {
+		StringBuffer stamp = new StringBuffer();
+		KeyStores listOfKeystoreHandles = new KeyStores();
+		while (listOfKeystoreHandles.hasNext()) {
+			URL location = listOfKeystoreHandles.next().getLocation();
+			stamp.append(location.toExternalForm());
+			if ("file".equals(location.getProtocol())) { //$NON-NLS-1$
+				File file = new File(location.getFile());
+				stamp.append(',').append(file.lastModified()).append(',').append(file.length());
+			}
+			stamp.append(';');
+		}
+		return stamp.toString();
 	}
 
 	/*
 	 * 
 	 */
-	private void initialize() {
+	private synchronized void initialize() {
 		result = null;
 		trustedCertificates = null;
 		acceptUnsignedFiles = false;
-		listOfKeystores = null;
 	}
 
 	/*
-	 * init
+	 * Returns the local jar of the reference, or null if
+	 * the reference is not a jar.
 	 */
-	private void init(IFeature feature, ContentReference contentRef) throws CoreException {
-		jarFile = null;
+	private File init(ContentReference contentRef) throws CoreException {
+		File jarFile = null;
 		if (contentRef instanceof JarContentReference) {
 			JarContentReference jarReference = (JarContentReference) contentRef;
 			try {
@@ -154,12 +215,7 @@ public class JarVerifier extends Verifier {
 				throw Utilities.newCoreException(NLS.bind(Messages.JarVerifier_UnableToAccessJar, (new String[] { jarReference.toString() })), e);
 			}
 		}
-
-		result = new JarVerificationResult();
-		result.setVerificationCode(IVerificationResult.UNKNOWN_ERROR);
-		result.setResultException(null);
-		result.setFeature(feature);
-		result.setContentReference(contentRef);
+		return jarFile;
 	}
 
 	/*
@@ -185,32 +241,76 @@ public class JarVerifier extends Verifier {
 	}
 
 	/*
-	 * 
+	 * Reads every entry of the jar, so the signature of each one is
+	 * checked, and returns the entries in jar order.
 	 */
-	private List readJarFile(JarFile jarFile, String identifier)
+	private List readJarFile(JarFile jarFile, String identifier, JarVerificationResult result, IProgressMonitor monitor)
 		throws IOException, InterruptedException {
 		List list = new ArrayList();
 
 		Enumeration entries = jarFile.entries();
-		JarEntry currentEntry = null;
-		InputStream in = null;
+		while (entries.hasMoreElements())
+			list.add(entries.nextElement());
 		if (monitor != null)
 			monitor.setTaskName(NLS.bind(Messages.JarVerifier_Verify, (new String[] { identifier == null ? jarFile.getName(): identifier }))); 
 
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), list.size() / PARALLEL_THRESHOLD);
+		if (threads <= 1) {
+			IOException e = readEntries(jarFile, list, 0, 1);
+			if (e != null) {
+				result.setVerificationCode(IVerificationResult.UNKNOWN_ERROR);
+				result.setResultException(e);
+			}
+			return list;
+		}
+
+		// each reader works on its own JarFile, as a JarFile
+		// verifies its entries as they are read
+		EntryReader[] readers = new EntryReader[threads];
+		for (int i = 0; i < threads; i++) {
+			readers[i] = new EntryReader(jarFile.getName(), list, i, threads);
+			readers[i].start();
+		}
+		IOException failure = null;
+		for (int i = 0; i < threads; i++) {
+			readers[i].join();
+			if (readers[i].securityException != null)
+				throw readers[i].securityException;
+			if (failure == null)
+				failure = readers[i].ioException;
+		}
+		if (failure != null) {
+			result.setVerificationCode(IVerificationResult.UNKNOWN_ERROR);
+			result.setResultException(failure);
+		}
+		return list;
+	}
+
+	/*
+	 * Reads the entries of the list whose index is congruent to
+	 * <code>start</code> modulo <code>step</code>, replacing them with the
+	 * entries of the given jar. Returns the exception that stopped the
+	 * reading, if any.
+	 */
+	private static IOException readEntries(JarFile jarFile, List list, int start, int step) {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		InputStream in = null;
 		try {
-			while (entries.hasMoreElements()) {
-				currentEntry = (JarEntry) entries.nextElement();
-				list.add(currentEntry);
+			for (int i = start; i < list.size(); i += step) {
+				JarEntry currentEntry = jarFile.getJarEntry(((JarEntry) list.get(i)).getName());
 				in = jarFile.getInputStream(currentEntry);
 				while ((in.read(buffer, 0, buffer.length)) != -1) {
 					// Security error thrown if tempered
 				}
-				if (in!=null)
-					in.close();
+				in.close();
+				in = null;
+				// certificates are only known once the entry is read
+				currentEntry.getCertificates();
+				list.set(i, currentEntry);
 			}
+			return null;
 		} catch (IOException e) {
-			result.setVerificationCode(IVerificationResult.UNKNOWN_ERROR);
-			result.setResultException(e);
+			return e;
 		} finally {
 			try {
 				if (in != null)
@@ -219,15 +319,43 @@ public class JarVerifier extends Verifier {
 				// ignore
 			}
 		}
-
-		return list;
 	}
 
-	/*
-	 * @param newMonitor org.eclipse.core.runtime.IProgressMonitor
-	 */
-	public void setMonitor(IProgressMonitor newMonitor) {
-		monitor = newMonitor;
+	private static class EntryReader extends Thread {
+		private String file;
+		private List list;
+		private int start;
+		private int step;
+		IOException ioException;
+		SecurityException securityException;
+
+		EntryReader(String file, List list, int start, int step) {
+			super("update-verify"); //$NON-NLS-1$
+			setDaemon(true);
+			this.file = file;
+			this.list = list;
+			this.start = start;
+			this.step = step;
+		}
+
+		public void run() {
+			JarFile jar = null;
+			try {
+				jar = new JarFile(file, true);
+				ioException = readEntries(jar, list, start, step);
+			} catch (IOException e) {
+				ioException = e;
+			} catch (SecurityException e) {
+				securityException = e;
+			} finally {
+				if (jar != null) {
+					try {
+						jar.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
 	}
 
 	/*
@@ -252,45 +380,64 @@ public class JarVerifier extends Verifier {
 		}
 
 		// the parent couldn't verify
-		setMonitor(monitor);
-		init(feature, reference);
+		File jarFile = init(reference);
+		JarVerificationResult result = new JarVerificationResult();
+		result.setVerificationCode(IVerificationResult.UNKNOWN_ERROR);
+		result.setResultException(null);
+		result.setFeature(feature);
+		result.setContentReference(reference);
 		result.isFeatureVerification(isFeatureVerification);
 
 		if (jarFile!=null) {
-				result = verify(jarFile.getAbsolutePath(), reference.getIdentifier());
+				verify(result, jarFile.getAbsolutePath(), reference.getIdentifier(), monitor);
 		} else {
 			result.setVerificationCode(IVerificationResult.TYPE_ENTRY_UNRECOGNIZED);
 		}
 
+		this.result = result;
 		return result;
 	}
 
 	/*
 	 * 
 	 */
-	private JarVerificationResult verify(String file, String identifier) {
+	private void verify(JarVerificationResult result, String file, String identifier, IProgressMonitor monitor) {
 
 		try {
 
-			// verify integrity
-			verifyIntegrity(file, identifier);
+			// verify integrity, unless this jar was read before
+			String key = getCacheKey(file);
+			VerificationCache.Entry cached = (key == null) ? null : VerificationCache.lookup(key);
+			if (cached != null) {
+				Certificate[][] chains = cached.getChains();
+				for (int i = 0; i < chains.length; i++)
+					result.addCertificates(chains[i]);
+				result.setVerificationCode(cached.getVerificationCode());
+			} else {
+				List chains = new ArrayList();
+				verifyIntegrity(result, file, identifier, chains, monitor);
+				if (key != null && result.getVerificationException() == null)
+					VerificationCache.store(key, result.getVerificationCode(), chains);
+			}
 
 			// do not close input stream
 			// as verifyIntegrity already did it
 
 			//if user already said yes
-			result.alreadySeen(alreadyValidated());
+			result.alreadySeen(alreadyValidated(result));
 
 			// verify source certificate
 			if (result.getVerificationCode()
 				== IVerificationResult.TYPE_ENTRY_SIGNED_UNRECOGNIZED) {
-				verifyAuthentication();
+				verifyAuthentication(result);
 			}
 
 			// save the fact the file is not signed, so the user will not be prompted again 
 			if (result.getVerificationCode()
 				== IVerificationResult.TYPE_ENTRY_NOT_SIGNED) {
-				acceptUnsignedFiles = true;
+				synchronized (this) {
+					acceptUnsignedFiles = true;
+				}
 			}
 
 		} catch (Exception e) {
@@ -304,8 +451,20 @@ public class JarVerifier extends Verifier {
 				result.setVerificationCode(IVerificationResult.VERIFICATION_CANCELLED);
 			}
 		}
+	}
 
-		return result;
+	/*
+	 * Returns the key of the jar in the verification cache,
+	 * or null if its result cannot be cached.
+	 */
+	private String getCacheKey(String file) {
+		TrustedKeys keys;
+		try {
+			keys = getTrustedKeys();
+		} catch (CoreException e) {
+			return null;
+		}
+		return VerificationCache.getKey(new File(file), keys.fingerprint);
 	}
 
 	/*
@@ -315,7 +474,7 @@ public class JarVerifier extends Verifier {
 	 * At least one certificate from each Certificate Array
 	 * of the Jar file must be found in the known Certificates
 	 */
-	private void verifyAuthentication() throws CoreException {
+	private void verifyAuthentication(JarVerificationResult result) throws CoreException {
 
 		CertificatePair[] entries = result.getRootCertificates();
 		boolean certificateFound = false;
@@ -334,9 +493,10 @@ public class JarVerifier extends Verifier {
 	}
 
 	/*
-	 * Verifies the integrity of the JAR
+	 * Verifies the integrity of the JAR, collecting the
+	 * distinct certificate arrays of its entries
 	 */
-	private void verifyIntegrity(String file, String identifier) {
+	private void verifyIntegrity(JarVerificationResult result, String file, String identifier, List chains, IProgressMonitor monitor) {
 
 		JarFile jarFile = null;
 
@@ -345,7 +505,7 @@ public class JarVerifier extends Verifier {
 			// a security exception will be thrown
 			// while reading it
 			jarFile = new JarFile(file, true);
-			List filesInJar = readJarFile(jarFile, identifier);
+			List filesInJar = readJarFile(jarFile, identifier, result, monitor);
 
 			// you have to read all the files once
 			// before getting the certificates 
@@ -357,7 +517,10 @@ public class JarVerifier extends Verifier {
 					Certificate[] certs = currentJarEntry.getCertificates();
 					if ((certs != null) && (certs.length != 0)) {
 						certificateFound = true;
-						result.addCertificates(certs);
+						if (!containsChain(chains, certs)) {
+							chains.add(certs);
+							result.addCertificates(certs);
+						}
 					} else {
 						String jarEntryName = currentJarEntry.getName();
 						if (!jarEntryName.toUpperCase().startsWith(MANIFEST)
@@ -396,10 +559,22 @@ public class JarVerifier extends Verifier {
 
 	}
 
+	/*
+	 * Returns true if the list holds an array equal to the given one.
+	 * Entries signed by the same signers share equal arrays.
+	 */
+	private static boolean containsChain(List chains, Certificate[] certs) {
+		for (Iterator iter = chains.iterator(); iter.hasNext();) {
+			if (Arrays.equals((Certificate[]) iter.next(), certs))
+				return true;
+		}
+		return false;
+	}
+
 	/*
 	 * 
 	 */
-	private boolean alreadyValidated() {
+	private synchronized boolean alreadyValidated(JarVerificationResult result) {
 
 		if (result.getVerificationCode() == IVerificationResult.TYPE_ENTRY_NOT_SIGNED)
 			return (acceptUnsignedFiles);
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.internal.security;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.update.core.IVerificationResult;
+import org.eclipse.update.internal.core.ArtifactStore;
+import org.eclipse.update.internal.core.UpdateCore;
+
+/**
+ * Persistent cache of jar integrity checks.
+ * <p>
+ * The outcome of reading a signed jar, its verification code and its
+ * distinct signer chains, only depends on the bytes of the jar. It is
+ * kept in the <code>verification</code> directory of the update state
+ * location, under a key of the jar combined with a fingerprint of the
+ * certificates in the trusted keystores, so that a keystore change starts
+ * over. The key of an archive of the artifact store is its digest, known
+ * from its name; the key of any other jar is derived from its canonical
+ * path, size and modification time, so computing it never reads the jar.
+ * A jar verified before, for instance when re-installing or mirroring the
+ * same archives again, is not read again; only the cheap keystore lookups
+ * of the signers are repeated. Results not used for <code>MAX_AGE</code>
+ * are removed on shutdown.
+ */
+public class VerificationCache {
+
+	private static final String CACHE_DIR = "verification"; //$NON-NLS-1$
+	private static final String SUFFIX = ".ser"; //$NON-NLS-1$
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+	// results not used for this long are removed
+	private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+	// a jar modified this recently may still change within the same stamp
+	private static final long STAMP_MARGIN = 2000;
+
+	/**
+	 * A cached integrity check.
+	 */
+	public static class Entry {
+		private int verificationCode;
+		private Certificate[][] chains;
+
+		Entry(int verificationCode, Certificate[][] chains) {
+			this.verificationCode = verificationCode;
+			this.chains = chains;
+		}
+
+		public int getVerificationCode() {
+			return verificationCode;
+		}
+
+		/**
+		 * Returns the distinct certificate arrays of the signed entries.
+		 */
+		public Certificate[][] getChains() {
+			return chains;
+		}
+	}
+
+	/**
+	 * Returns the cache key of the jar, or <code>null</code> if the jar
+	 * cannot be cached.
+	 *
+	 * @param jar the jar file
+	 * @param trustFingerprint fingerprint of the trusted keystores
+	 */
+	public static String getKey(File jar, String trustFingerprint) {
+		if (trustFingerprint == null || getCacheDirectory() == null)
+			return null;
+		String digest = ArtifactStore.getStoredDigest(jar);
+		if (digest == null) {
+			long lastModified = jar.lastModified();
+			if (lastModified == 0 || lastModified >= System.currentTimeMillis() - STAMP_MARGIN)
+				return null;
+			try {
+				String stamp = jar.getCanonicalPath() + "," + jar.length() + "," + lastModified; //$NON-NLS-1$ //$NON-NLS-2$
+				MessageDigest md = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+				// distinct from the digests of archives, which have 64 digits
+				digest = ArtifactStore.toHex(md.digest(stamp.getBytes("UTF-8"))).substring(0, 40); //$NON-NLS-1$
+			} catch (IOException e) {
+				return null;
+			} catch (NoSuchAlgorithmException e) {
+				return null;
+			}
+		}
+		return digest + "-" + trustFingerprint; //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the fingerprint of the certificates in the keystores,
+	 * or <code>null</code> if it cannot be computed.
+	 */
+	public static String getTrustFingerprint(List keystores) {
+		try {
+			List encodings = new ArrayList();
+			for (Iterator iter = keystores.iterator(); iter.hasNext();) {
+				KeyStore keystore = (KeyStore) iter.next();
+				for (Enumeration aliases = keystore.aliases(); aliases.hasMoreElements();) {
+					Certificate cert = keystore.getCertificate((String) aliases.nextElement());
+					if (cert != null)
+						encodings.add(ArtifactStore.toHex(cert.getEncoded()));
+				}
+			}
+			// independent of the keystore and alias order
+			Collections.sort(encodings);
+			MessageDigest digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+			for (Iterator iter = encodings.iterator(); iter.hasNext();)
+				digest.update(((String) iter.next()).getBytes());
+			return ArtifactStore.toHex(digest.digest()).substring(0, 16);
+		} catch (KeyStoreException e) {
+			return null;
+		} catch (CertificateEncodingException e) {
+			return null;
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the cached integrity check, or <code>null</code>.
+	 */
+	public static Entry lookup(String key) {
+		File dir = getCacheDirectory();
+		if (dir == null)
+			return null;
+		File file = new File(dir, key + SUFFIX);
+		if (!file.exists())
+			return null;
+		ObjectInputStream in = null;
+		try {
+			in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+			int code = in.readInt();
+			Certificate[][] chains = (Certificate[][]) in.readObject();
+			// the modification time records the last use
+			file.setLastModified(System.currentTimeMillis());
+			return new Entry(code, chains);
+		} catch (Exception e) {
+			// damaged or written by an incompatible provider
+			file.delete();
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Caches the integrity check of the jar. Only outcomes that depend
+	 * on the jar alone are kept.
+	 *
+	 * @param key the cache key of the jar
+	 * @param verificationCode the verification code of the jar
+	 * @param chains the distinct certificate arrays of the signed entries
+	 */
+	public static void store(String key, int verificationCode, List chains) {
+		if (verificationCode != IVerificationResult.TYPE_ENTRY_NOT_SIGNED
+			&& verificationCode != IVerificationResult.TYPE_ENTRY_SIGNED_UNRECOGNIZED
+			&& verificationCode != IVerificationResult.TYPE_ENTRY_CORRUPTED)
+			return;
+		File dir = getCacheDirectory();
+		if (dir == null)
+			return;
+		File file = new File(dir, key + SUFFIX);
+		File temp = new File(dir, key + TEMP_SUFFIX);
+		ObjectOutputStream out = null;
+		try {
+			out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			out.writeInt(verificationCode);
+			out.writeObject(chains.toArray(new Certificate[chains.size()][]));
+			out.close();
+			out = null;
+			file.delete();
+			if (!temp.renameTo(file))
+				temp.delete();
+		} catch (IOException e) {
+			UpdateCore.warn("Unable to cache verification result " + file, e); //$NON-NLS-1$
+			temp.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Removes the results not used for <code>MAX_AGE</code>, and the
+	 * leftovers of interrupted stores.
+	 */
+	public static void shutdown() {
+		File location = UpdateCore.getUpdateStateLocation();
+		if (location == null)
+			return;
+		File[] files = new File(location, CACHE_DIR).listFiles();
+		long now = System.currentTimeMillis();
+		for (int i = 0; files != null && i < files.length; i++) {
+			String name = files[i].getName();
+			long age = now - files[i].lastModified();
+			if ((name.endsWith(SUFFIX) && age > MAX_AGE) || (name.endsWith(TEMP_SUFFIX) && age > STAMP_MARGIN))
+				files[i].delete();
+		}
+	}
+
+	private static File getCacheDirectory() {
+		File location = UpdateCore.getUpdateStateLocation();
+		if (location == null)
+			return null;
+		File dir = new File(location, CACHE_DIR);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			return null;
+		return dir;
+	}
+}
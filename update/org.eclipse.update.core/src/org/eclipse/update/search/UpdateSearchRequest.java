@@ -14,12 +14,14 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubProgressMonitor;
@@ -30,8 +32,11 @@ import org.eclipse.update.core.ISite;
 import org.eclipse.update.core.ISiteWithMirrors;
 import org.eclipse.update.core.IURLEntry;
 import org.eclipse.update.core.SiteManager;
+import org.eclipse.update.core.Utilities;
 import org.eclipse.update.internal.core.ExtendedSite;
 import org.eclipse.update.internal.core.Messages;
+import org.eclipse.update.internal.core.URLKey;
+import org.eclipse.update.internal.core.UpdateCore;
 import org.eclipse.update.internal.operations.UpdateUtils;
 import org.eclipse.update.internal.search.SiteSearchCategory;
 import org.eclipse.update.internal.search.UpdatePolicy;
@@ -67,6 +72,7 @@ public class UpdateSearchRequest {
 	private UpdateSearchScope scope;
 	private boolean searchInProgress = false;
 	private AggregateFilter aggregateFilter = new AggregateFilter();
+	private SearchThreadPool searchThreads;
 	
 	private static class UpdateSearchSite
 	extends UpdateSiteAdapter
@@ -85,6 +91,315 @@ public class UpdateSearchRequest {
 	}
 }
 
+	/*
+	 * Threads of the site searches of one request, reused from one set
+	 * of sites to the next. A thread left blocked on an abandoned site
+	 * rejoins the pool once the site returns. Idle threads terminate
+	 * after KEEP_ALIVE milliseconds, or when the request is over.
+	 */
+	static class SearchThreadPool {
+		private static final long KEEP_ALIVE = 30000;
+		
+		// guarded by this pool
+		private LinkedList jobs = new LinkedList();
+		private int idleCount;
+		private boolean shutdown;
+		
+		class SearchThread extends Thread {
+			SearchThread() {
+				super("update-search"); //$NON-NLS-1$
+				setDaemon(true);
+			}
+			
+			public void run() {
+				Runnable job;
+				while ((job = nextJob()) != null)
+					job.run();
+			}
+		}
+		
+		synchronized void execute(Runnable job) {
+			shutdown = false;
+			jobs.addLast(job);
+			notifyAll();
+			if (jobs.size() > idleCount)
+				new SearchThread().start();
+		}
+		
+		synchronized void shutdown() {
+			shutdown = true;
+			notifyAll();
+		}
+		
+		private synchronized Runnable nextJob() {
+			long idleSince = System.currentTimeMillis();
+			while (jobs.isEmpty()) {
+				long remaining = KEEP_ALIVE - (System.currentTimeMillis() - idleSince);
+				if (shutdown || remaining <= 0)
+					return null;
+				idleCount++;
+				try {
+					wait(remaining);
+				} catch (InterruptedException e) {
+					// check again
+				} finally {
+					idleCount--;
+				}
+			}
+			return (Runnable) jobs.removeFirst();
+		}
+	}
+
+	/*
+	 * Searches a set of sites with one query on a bounded number
+	 * of threads. Results are passed to the collector under a
+	 * common lock. A site that takes longer than the timeout is
+	 * canceled and reported as a network problem, and its late
+	 * results are dropped, so the remaining sites keep going.
+	 */
+	class ParallelSiteSearch {
+		private static final long POLLING_INTERVAL = 200;
+		
+		private IUpdateSearchSite[] sources;
+		private IUpdateSearchQuery query;
+		private IUpdateSearchResultCollector collector;
+		private List[] associateSites;
+		private int threads;
+		private long siteTimeout;
+		private SearchThreadPool pool;
+		private Object collectorLock = new Object();
+		// mirror prompts are shown one at a time
+		private Object promptLock = new Object();
+		
+		// guarded by this search
+		private SiteSearch[] searches;
+		private int nextToStart;
+		private boolean canceled;
+		// number of sites prompting or waiting to prompt, and since when
+		private int prompting;
+		private long promptingSince;
+		
+		class SiteSearch {
+			private int index;
+			private NullProgressMonitor monitor = new NullProgressMonitor();
+			// guarded by the enclosing search
+			private long started;
+			private boolean done;
+			private boolean abandoned;
+			private IStatus status;
+			private CoreException exception;
+			
+			SiteSearch(int index) {
+				this.index = index;
+			}
+			
+			boolean isAbandoned() {
+				synchronized (ParallelSiteSearch.this) {
+					return abandoned;
+				}
+			}
+		}
+		
+		class SiteCollector implements IUpdateSearchResultCollector {
+			protected SiteSearch search;
+			
+			SiteCollector(SiteSearch search) {
+				this.search = search;
+			}
+			
+			public void accept(IFeature match) {
+				synchronized (collectorLock) {
+					if (!search.isAbandoned())
+						collector.accept(match);
+				}
+			}
+		}
+		
+		class MirrorSiteCollector extends SiteCollector implements IUpdateSearchResultCollectorFromMirror {
+			MirrorSiteCollector(SiteSearch search) {
+				super(search);
+			}
+			
+			public IURLEntry getMirror(ISiteWithMirrors site, String siteName) throws OperationCanceledException {
+				// time spent waiting on the user does not count against any site,
+				// and results of the other sites are still accepted meanwhile
+				promptStarted();
+				try {
+					synchronized (promptLock) {
+						return ((IUpdateSearchResultCollectorFromMirror) collector).getMirror(site, siteName);
+					}
+				} finally {
+					promptEnded();
+				}
+			}
+		}
+		
+		class Worker implements Runnable {
+			public void run() {
+				SiteSearch search;
+				while ((search = nextSearch()) != null) {
+					IUpdateSearchSite source = sources[search.index];
+					SiteCollector siteCollector = (collector instanceof IUpdateSearchResultCollectorFromMirror)
+						? new MirrorSiteCollector(search)
+						: new SiteCollector(search);
+					// only published if the search is not abandoned
+					List found = new ArrayList();
+					IStatus status = null;
+					CoreException exception = null;
+					try {
+						status = searchOneSite(
+							source,
+							source.getCategoriesToSkip(),
+							query,
+							siteCollector,
+							found,
+							new SubProgressMonitor(search.monitor, 1),
+							true);
+					} catch (CoreException e) {
+						exception = e;
+					} catch (RuntimeException e) {
+						exception = Utilities.newCoreException(e.getMessage(), e);
+					}
+					if (!searched(search, status, exception, found))
+						// a replacement thread was started when this search was abandoned
+						return;
+				}
+			}
+		}
+		
+		ParallelSiteSearch(IUpdateSearchSite[] sources, IUpdateSearchQuery query, IUpdateSearchResultCollector collector, List[] associateSites, int threads, long siteTimeout, SearchThreadPool pool) {
+			this.pool = pool;
+			this.sources = sources;
+			this.query = query;
+			this.collector = collector;
+			this.associateSites = associateSites;
+			this.threads = Math.min(Math.max(threads, 1), sources.length);
+			this.siteTimeout = siteTimeout;
+			this.searches = new SiteSearch[sources.length];
+		}
+		
+		void run(List statusList, IProgressMonitor monitor) throws CoreException {
+			for (int i = 0; i < threads; i++)
+				startWorker();
+			
+			synchronized (this) {
+				int reported = 0;
+				String contacting = null;
+				while (reported < sources.length) {
+					if (monitor.isCanceled()) {
+						abandonAll();
+						return;
+					}
+					SiteSearch search = searches[reported];
+					if (search != null && search.done) {
+						reported++;
+						monitor.worked(1);
+						if (search.status != null) {
+							statusList.add(search.status);
+							if (search.status.getSeverity() == IStatus.CANCEL)
+								monitor.setCanceled(true);
+						}
+						if (search.exception != null) {
+							abandonAll();
+							throw search.exception;
+						}
+						continue;
+					}
+					if (search != null && search.started > 0) {
+						String label = sources[search.index].getLabel();
+						if (label != null && !label.equals(contacting)) {
+							contacting = label;
+							monitor.subTask(NLS.bind(Messages.UpdateSearchRequest_contacting, label));
+						}
+					}
+					checkTimeouts();
+					try {
+						wait(POLLING_INTERVAL);
+					} catch (InterruptedException e) {
+						// check again
+					}
+				}
+			}
+		}
+		
+		private void startWorker() {
+			pool.execute(new Worker());
+		}
+		
+		private synchronized void promptStarted() {
+			if (prompting++ == 0)
+				promptingSince = System.currentTimeMillis();
+		}
+		
+		/*
+		 * Moves the start of the running site searches forward by
+		 * the time the prompts were showing.
+		 */
+		private synchronized void promptEnded() {
+			if (--prompting > 0)
+				return;
+			long paused = System.currentTimeMillis() - promptingSince;
+			for (int i = 0; i < nextToStart; i++) {
+				if (!searches[i].done)
+					searches[i].started += paused;
+			}
+		}
+		
+		private synchronized SiteSearch nextSearch() {
+			if (canceled || nextToStart >= sources.length)
+				return null;
+			SiteSearch search = new SiteSearch(nextToStart);
+			search.started = System.currentTimeMillis();
+			searches[nextToStart++] = search;
+			return search;
+		}
+		
+		/*
+		 * Records the outcome of a site search and the associate sites
+		 * it found. Returns false if the search was abandoned, in which
+		 * case its results are dropped and the calling thread must stop.
+		 */
+		private synchronized boolean searched(SiteSearch search, IStatus status, CoreException exception, List found) {
+			if (search.abandoned)
+				return false;
+			associateSites[search.index].addAll(found);
+			search.status = status;
+			search.exception = exception;
+			search.done = true;
+			notifyAll();
+			return true;
+		}
+		
+		private void checkTimeouts() {
+			if (siteTimeout <= 0 || prompting > 0)
+				return;
+			long now = System.currentTimeMillis();
+			for (int i = 0; i < nextToStart; i++) {
+				SiteSearch search = searches[i];
+				if (search.done || now - search.started < siteTimeout)
+					continue;
+				// the thread may stay blocked on the site, replace it
+				search.monitor.setCanceled(true);
+				search.abandoned = true;
+				search.done = true;
+				String label = sources[i].getLabel();
+				if (label == null)
+					label = String.valueOf(sources[i].getURL());
+				search.status = new Status(IStatus.WARNING, UpdateCore.getPlugin().getBundle().getSymbolicName(), ISite.SITE_ACCESS_EXCEPTION, NLS.bind(Messages.UpdateSearchRequest_siteTimeout, label), null);
+				if (!canceled && nextToStart < sources.length)
+					startWorker();
+			}
+		}
+		
+		private void abandonAll() {
+			canceled = true;
+			for (int i = 0; i < nextToStart; i++) {
+				searches[i].monitor.setCanceled(true);
+				searches[i].abandoned = true;
+			}
+		}
+	}
+
 	class MirroredUpdateSiteAdapter extends UpdateSiteAdapter {
 		public MirroredUpdateSiteAdapter(IURLEntry mirror) {
 			super(mirror.getAnnotation(), mirror.getURL());
@@ -240,10 +555,11 @@ public class UpdateSearchRequest {
 		searchInProgress = true;
 		IUpdateSearchQuery[] queries = category.getQueries();
 		IUpdateSearchSite[] candidates = scope.getSearchSites();
+		// keyed by URLKey, URL.equals() would resolve the host names
 		Set visitedSitesURL = new HashSet();
 		Set visitedSites = new HashSet();
 		for(int i = 0; i < candidates.length; i++) {
-			visitedSitesURL.add(candidates[i].getURL());
+			visitedSitesURL.add(new URLKey(candidates[i].getURL()));
 			//visitedSites.add(candidates[i]);
 		}
 		URL updateMapURL = scope.getUpdateMapURL();
@@ -294,72 +610,46 @@ public class UpdateSearchRequest {
 						// when there is no mapped site the feature is not updatable
 						if (mappedSite == null || mappedSite.getURL() == null)
 							continue;
-						SubProgressMonitor subMonitor =
-							new SubProgressMonitor(monitor, 1);
-						List associateSites = new ArrayList();
-						IStatus status =
-							searchOneSite(
-								mappedSite,
-								null,
+						// searched like the other sites, within the site time limit
+						IUpdateSearchSite[] mappedSites = new IUpdateSearchSite[] {
+							new UpdateSearchSite(mappedSite.getLabel(), mappedSite.getURL(), null)};
+						List[] associateSites =
+							searchSites(
+								mappedSites,
 								query,
 								collector,
-								associateSites,
-								subMonitor,
-								true);
-						if (status != null)
-							statusList.add(status);
+								statusList,
+								monitor);
 						if (monitor.isCanceled())
 							break;
-						combinedAssociateSites = combineAssociateSites( combinedAssociateSites, associateSites, visitedSitesURL, visitedSites);
+						combinedAssociateSites = combineAssociateSites( combinedAssociateSites, associateSites[0], visitedSitesURL, visitedSites);
 					}
 					
-					for (int j = 0; j < candidates.length; j++) {
-						if (monitor.isCanceled()) {
-							break;
-						}
-						IUpdateSearchSite source = candidates[j];
-						SubProgressMonitor subMonitor =
-							new SubProgressMonitor(monitor, 1);
-						List associateSites = new ArrayList();
-						IStatus status =
-							searchOneSite(
-								source,
-								source.getCategoriesToSkip(),
-								query,
-								collector,
-								associateSites,
-								subMonitor,
-								true);
-						if (status != null)
-							statusList.add(status);
-						combinedAssociateSites = combineAssociateSites( combinedAssociateSites, associateSites, visitedSitesURL, visitedSites);
-					}
+					List[] associateSites =
+						searchSites(
+							candidates,
+							query,
+							collector,
+							statusList,
+							monitor);
+					for (int j = 0; j < associateSites.length; j++)
+						combinedAssociateSites = combineAssociateSites( combinedAssociateSites, associateSites[j], visitedSitesURL, visitedSites);
 					if (monitor.isCanceled())
 						break;
 					
 					
 					for(int associateSitesDepth = 0; associateSitesDepth < 5; associateSitesDepth++) {
 						List tempCombinedSites = new ArrayList();
-						Iterator combinedAssociateSitesIterator = combinedAssociateSites.iterator();
-						while(combinedAssociateSitesIterator.hasNext()) {
-							
-							IUpdateSearchSite source = (IUpdateSearchSite)combinedAssociateSitesIterator.next();
-							
-							List associateSites = new ArrayList();
-							SubProgressMonitor subMonitor = new SubProgressMonitor(monitor, 1);
-							IStatus status =
-								searchOneSite(
-									source,
-									source.getCategoriesToSkip(),
-									query,
-									collector,
-									associateSites,
-									subMonitor,
-									true);
-							combinedAssociateSites = combineAssociateSites( tempCombinedSites, associateSites, visitedSitesURL, visitedSites);
-							if (status != null)
-								statusList.add(status);
-						}	
+						IUpdateSearchSite[] sources = (IUpdateSearchSite[]) combinedAssociateSites.toArray(new IUpdateSearchSite[combinedAssociateSites.size()]);
+						associateSites =
+							searchSites(
+								sources,
+								query,
+								collector,
+								statusList,
+								monitor);
+						for (int j = 0; j < associateSites.length; j++)
+							combineAssociateSites( tempCombinedSites, associateSites[j], visitedSitesURL, visitedSites);
 						combinedAssociateSites = tempCombinedSites;
 						
 					}
@@ -367,11 +657,13 @@ public class UpdateSearchRequest {
 						break;
 				}
 			} catch (CoreException e) {
+				releaseSearchThreads();
 				searchInProgress = false;
 				monitor.done();
 				throw e;
 			}
 		}
+		releaseSearchThreads();
 		searchInProgress = false;
 		monitor.done();
 		
@@ -399,14 +691,22 @@ public class UpdateSearchRequest {
 	}
 
 
+	private void releaseSearchThreads() {
+		if (searchThreads != null) {
+			searchThreads.shutdown();
+			searchThreads = null;
+		}
+	}
+
 	private List combineAssociateSites(List combinedAssociateSites, List associateSites, Set visitedSitesURL, Set visitedSites) {
 		Iterator iterator = associateSites.iterator();
 
 		while(iterator.hasNext()) {
 			UpdateSearchSite associateSite = (UpdateSearchSite)iterator.next();
-			if ( !visitedSitesURL.contains(associateSite.getURL())) {
+			URLKey key = new URLKey(associateSite.getURL());
+			if ( !visitedSitesURL.contains(key)) {
 				combinedAssociateSites.add(associateSite);
-				visitedSitesURL.add(associateSite.getURL());
+				visitedSitesURL.add(key);
 				visitedSites.add(associateSite);
 			}
 			
@@ -415,6 +715,62 @@ public class UpdateSearchRequest {
 	}
 
 
+/*
+ * Searches the given sites with the query and returns the associate
+ * sites found on each of them, in the order of the sites. The sites
+ * are searched concurrently when more than one search thread is
+ * configured.
+ */
+	private List[] searchSites(
+		IUpdateSearchSite[] sources,
+		IUpdateSearchQuery query,
+		IUpdateSearchResultCollector collector,
+		List statusList,
+		IProgressMonitor monitor)
+		throws CoreException {
+		
+		List[] associateSites = new List[sources.length];
+		for (int j = 0; j < sources.length; j++)
+			associateSites[j] = new ArrayList();
+		
+		int threads = 1;
+		long siteTimeout = 0;
+		UpdateCore plugin = UpdateCore.getPlugin();
+		if (plugin != null) {
+			threads = plugin.getPluginPreferences().getInt(UpdateCore.P_SEARCH_THREADS);
+			siteTimeout = plugin.getPluginPreferences().getInt(UpdateCore.P_SEARCH_SITE_TIMEOUT);
+		}
+		// a single thread also goes through the parallel search when
+		// sites have a time limit, so a stalled site is abandoned
+		if ((threads > 1 && sources.length > 1) || siteTimeout > 0) {
+			if (searchThreads == null)
+				searchThreads = new SearchThreadPool();
+			new ParallelSiteSearch(sources, query, collector, associateSites, threads, siteTimeout, searchThreads).run(statusList, monitor);
+			return associateSites;
+		}
+		
+		for (int j = 0; j < sources.length; j++) {
+			if (monitor.isCanceled()) {
+				break;
+			}
+			IUpdateSearchSite source = sources[j];
+			SubProgressMonitor subMonitor =
+				new SubProgressMonitor(monitor, 1);
+			IStatus status =
+				searchOneSite(
+					source,
+					source.getCategoriesToSkip(),
+					query,
+					collector,
+					associateSites[j],
+					subMonitor,
+					true);
+			if (status != null)
+				statusList.add(status);
+		}
+		return associateSites;
+	}
+
 /*
  * See if this query site adapter is mapped in the map file
  * to a different URL.
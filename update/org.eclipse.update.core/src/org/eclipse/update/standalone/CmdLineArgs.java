@@ -78,7 +78,8 @@ public class CmdLineArgs {
 			|| param.equals("-featureId") //$NON-NLS-1$
 			|| param.equals("-verifyOnly") //$NON-NLS-1$
 			|| param.equals("-mirrorURL") //$NON-NLS-1$
-		    || param.equals("-ignoreMissingPlugins"); //$NON-NLS-1$
+		    || param.equals("-ignoreMissingPlugins") //$NON-NLS-1$
+			|| param.equals("-threads"); //$NON-NLS-1$
 	}
 
 	private boolean isValidCommand(String cmd) {
@@ -135,7 +136,8 @@ public class CmdLineArgs {
 					(String) options.get("-from"), //$NON-NLS-1$
 					(String) options.get("-to"), //$NON-NLS-1$
 					(String) options.get("-mirrorURL"), //$NON-NLS-1$
-					(String) options.get("-ignoreMissingPlugins")); //$NON-NLS-1$
+					(String) options.get("-ignoreMissingPlugins"), //$NON-NLS-1$
+					(String) options.get("-threads")); //$NON-NLS-1$
 			else if (cmd.equals("uninstall")) //$NON-NLS-1$
 				return new UninstallCommand(
 					(String) options.get("-featureId"), //$NON-NLS-1$
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.eclipse.update.tests.core.tests.ConnectionThreadManagerTests;
+import org.eclipse.update.tests.core.tests.DigestIndexTests;
+import org.eclipse.update.tests.core.tests.HttpMetadataCacheTests;
+import org.eclipse.update.tests.core.tests.MirrorJournalTests;
+import org.eclipse.update.tests.core.tests.PrereqIndexTests;
+
+/**
+ * Test the Eclipse Install/Update Core.
+ *
+ * To run this test suite:
+ * <ol>
+ * <li>Create a new JUnit plugin test launch configuration</li>
+ * <li>Set the Test class to "org.eclipse.update.tests.core.AutomatedSuite"</li>
+ * <li>Set the Project to "org.eclipse.update.tests.core"</li>
+ * <li>Run the launch configuration. Output from the tests will be displayed in a JUnit view</li>
+ * </ol>
+ */
+public class AutomatedSuite extends TestSuite {
+
+	/**
+	 * Returns the suite. This is required to use the JUnit Launcher.
+	 */
+	public static Test suite() {
+		return new AutomatedSuite();
+	}
+
+	/**
+	 * Construct the test suite.
+	 */
+	public AutomatedSuite() {
+		addTest(new TestSuite(ConnectionThreadManagerTests.class));
+		addTest(new TestSuite(HttpMetadataCacheTests.class));
+		addTest(new TestSuite(PrereqIndexTests.class));
+		addTest(new TestSuite(MirrorJournalTests.class));
+		addTest(new TestSuite(DigestIndexTests.class));
+	}
+}
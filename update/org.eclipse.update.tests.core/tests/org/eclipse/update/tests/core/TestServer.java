@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+
+/**
+ * Minimal HTTP server on a local port, serving the same content for
+ * every path.
+ * <p>
+ * Each connection is answered on its own thread. The content carries an
+ * entity tag that changes with it, and a conditional request for the
+ * current tag is answered with 304. Requests can be held until released,
+ * to observe how many are served at once.
+ */
+public class TestServer implements Runnable {
+
+	private ServerSocket serverSocket;
+	private byte[] content = new byte[0];
+	private int version;
+	private boolean holding;
+	private int requestCount;
+	private int notModifiedCount;
+	private int activeCount;
+	private int maxActiveCount;
+
+	/**
+	 * Starts a server on a free port of the loopback interface.
+	 */
+	public TestServer() throws IOException {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")); //$NON-NLS-1$
+		Thread thread = new Thread(this, "update-test-server"); //$NON-NLS-1$
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the URL of the given path on this server.
+	 */
+	public URL getURL(String path) throws MalformedURLException {
+		return new URL("http://127.0.0.1:" + serverSocket.getLocalPort() + "/" + path); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Replaces the content served, and its entity tag.
+	 */
+	public synchronized void setContent(String content) throws IOException {
+		this.content = content.getBytes("UTF-8"); //$NON-NLS-1$
+		version++;
+	}
+
+	/**
+	 * Holds the requests received from now on until {@link #release()}.
+	 */
+	public synchronized void hold() {
+		holding = true;
+	}
+
+	/**
+	 * Answers the held requests, and the later ones without delay.
+	 */
+	public synchronized void release() {
+		holding = false;
+		notifyAll();
+	}
+
+	/**
+	 * Waits at most <code>timeout</code> milliseconds until the given
+	 * number of requests are being served.
+	 *
+	 * @return <code>true</code> if that many requests are being served
+	 */
+	public synchronized boolean waitForActive(int count, long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		long remaining;
+		while (activeCount < count && (remaining = end - System.currentTimeMillis()) > 0)
+			wait(remaining);
+		return activeCount >= count;
+	}
+
+	/**
+	 * Returns the number of requests received.
+	 */
+	public synchronized int getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * Returns the number of requests answered with 304.
+	 */
+	public synchronized int getNotModifiedCount() {
+		return notModifiedCount;
+	}
+
+	/**
+	 * Returns the number of requests being served.
+	 */
+	public synchronized int getActiveCount() {
+		return activeCount;
+	}
+
+	/**
+	 * Returns the largest number of requests served at once.
+	 */
+	public synchronized int getMaxActiveCount() {
+		return maxActiveCount;
+	}
+
+	/**
+	 * Stops accepting connections and answers the held requests.
+	 */
+	public void close() throws IOException {
+		release();
+		serverSocket.close();
+	}
+
+	public void run() {
+		for (;;) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				// closed
+				return;
+			}
+			Thread thread = new Thread("update-test-request") { //$NON-NLS-1$
+				public void run() {
+					try {
+						serve(socket);
+					} catch (IOException e) {
+						// the client went away
+					} catch (InterruptedException e) {
+						// the client went away
+					} finally {
+						try {
+							socket.close();
+						} catch (IOException e) {
+						}
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void serve(Socket socket) throws IOException, InterruptedException {
+		InputStream in = new BufferedInputStream(socket.getInputStream());
+		String ifNoneMatch = null;
+		// the request line, the same content is served for any path
+		readLine(in);
+		String line;
+		while ((line = readLine(in)) != null && line.length() > 0) {
+			int colon = line.indexOf(':');
+			if (colon != -1 && line.substring(0, colon).trim().equalsIgnoreCase("If-None-Match")) //$NON-NLS-1$
+				ifNoneMatch = line.substring(colon + 1).trim();
+		}
+
+		byte[] body;
+		String etag;
+		synchronized (this) {
+			requestCount++;
+			activeCount++;
+			maxActiveCount = Math.max(maxActiveCount, activeCount);
+			notifyAll();
+			try {
+				while (holding)
+					wait();
+			} finally {
+				activeCount--;
+			}
+			body = content;
+			etag = "\"" + version + "\""; //$NON-NLS-1$ //$NON-NLS-2$
+			if (etag.equals(ifNoneMatch)) {
+				notModifiedCount++;
+				body = null;
+			}
+		}
+
+		StringBuffer head = new StringBuffer();
+		if (body == null) {
+			head.append("HTTP/1.1 304 Not Modified\r\n"); //$NON-NLS-1$
+		} else {
+			head.append("HTTP/1.1 200 OK\r\n"); //$NON-NLS-1$
+			head.append("Content-Type: application/octet-stream\r\n"); //$NON-NLS-1$
+			head.append("Content-Length: ").append(body.length).append("\r\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		head.append("ETag: ").append(etag).append("\r\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		head.append("Connection: close\r\n\r\n"); //$NON-NLS-1$
+		OutputStream out = socket.getOutputStream();
+		out.write(head.toString().getBytes("ISO-8859-1")); //$NON-NLS-1$
+		if (body != null)
+			out.write(body);
+		out.flush();
+	}
+
+	/*
+	 * Reads a header line, without its terminator. Returns null at the
+	 * end of the stream.
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != -1 && b != '\n') {
+			if (b != '\r')
+				line.write(b);
+		}
+		if (b == -1 && line.size() == 0)
+			return null;
+		return line.toString("ISO-8859-1"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Reads the stream to its end as UTF-8 and closes it.
+	 */
+	public static String read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				bytes.write(buffer, 0, n);
+			return bytes.toString("UTF-8"); //$NON-NLS-1$
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.internal.core.connection.ConnectionThreadManager;
+import org.eclipse.update.internal.core.connection.ConnectionThreadManager.StreamRunnable;
+import org.eclipse.update.tests.core.TestServer;
+
+/**
+ * Tests the pooled connection threads of {@link ConnectionThreadManager}
+ */
+public class ConnectionThreadManagerTests extends TestCase {
+
+	// the number of requests served at once for a host
+	private static final int MAX_PER_HOST = 4;
+	private static final long TIMEOUT = 10000;
+
+	private TestServer server;
+	private ConnectionThreadManager manager;
+
+	/**
+	 * Constructor
+	 */
+	public ConnectionThreadManagerTests() {
+		super("Connection thread manager tests"); //$NON-NLS-1$
+	}
+
+	protected void setUp() throws Exception {
+		server = new TestServer();
+		server.setContent("content"); //$NON-NLS-1$
+		manager = new ConnectionThreadManager();
+	}
+
+	protected void tearDown() throws Exception {
+		manager.shutdown();
+		server.close();
+	}
+
+	public void testExecute() throws Exception {
+		StreamRunnable runnable = execute("a"); //$NON-NLS-1$
+		waitFor(runnable);
+		assertNull("The request should not fail", runnable.getIOException()); //$NON-NLS-1$
+		assertEquals("The content should be read", "content", TestServer.read(runnable.getInputStream())); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testHostLimit() throws Exception {
+		server.hold();
+		StreamRunnable[] runnables = new StreamRunnable[MAX_PER_HOST + 2];
+		for (int i = 0; i < runnables.length; i++)
+			runnables[i] = execute("r" + i); //$NON-NLS-1$
+		assertTrue("The requests should be served", server.waitForActive(MAX_PER_HOST, TIMEOUT)); //$NON-NLS-1$
+		// give the queued requests a chance to exceed the limit
+		Thread.sleep(500);
+		assertEquals("The other requests should be queued", MAX_PER_HOST, server.getActiveCount()); //$NON-NLS-1$
+
+		server.release();
+		for (int i = 0; i < runnables.length; i++) {
+			waitFor(runnables[i]);
+			assertNull("The request should not fail", runnables[i].getIOException()); //$NON-NLS-1$
+			assertEquals("The content should be read", "content", TestServer.read(runnables[i].getInputStream())); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		assertEquals("Every request should be served", runnables.length, server.getRequestCount()); //$NON-NLS-1$
+		assertEquals("The host limit should hold", MAX_PER_HOST, server.getMaxActiveCount()); //$NON-NLS-1$
+	}
+
+	public void testCancelQueued() throws Exception {
+		server.hold();
+		StreamRunnable[] runnables = new StreamRunnable[MAX_PER_HOST];
+		for (int i = 0; i < runnables.length; i++)
+			runnables[i] = execute("r" + i); //$NON-NLS-1$
+		assertTrue("The requests should be served", server.waitForActive(MAX_PER_HOST, TIMEOUT)); //$NON-NLS-1$
+
+		StreamRunnable queued = execute("queued"); //$NON-NLS-1$
+		queued.disconnect();
+		assertTrue("A canceled queued request should be done", queued.isDone()); //$NON-NLS-1$
+		assertNull("A canceled queued request should have no content", queued.getInputStream()); //$NON-NLS-1$
+
+		server.release();
+		for (int i = 0; i < runnables.length; i++) {
+			waitFor(runnables[i]);
+			TestServer.read(runnables[i].getInputStream());
+		}
+		// a request for the canceled one would arrive on the freed slot
+		Thread.sleep(500);
+		assertEquals("The canceled request should never be sent", MAX_PER_HOST, server.getRequestCount()); //$NON-NLS-1$
+	}
+
+	private StreamRunnable execute(String path) throws IOException {
+		StreamRunnable runnable = new StreamRunnable(server.getURL(path).openConnection());
+		manager.execute(runnable);
+		return runnable;
+	}
+
+	private static void waitFor(StreamRunnable runnable) throws InterruptedException {
+		long end = System.currentTimeMillis() + TIMEOUT;
+		long remaining;
+		while (!runnable.isDone() && (remaining = end - System.currentTimeMillis()) > 0)
+			runnable.waitFor(remaining);
+		assertTrue("The request should be done", runnable.isDone()); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.ByteArrayInputStream;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.core.IPluginEntry;
+import org.eclipse.update.core.VersionedIdentifier;
+import org.eclipse.update.internal.core.DigestIndex;
+import org.eclipse.update.internal.core.LiteFeature;
+
+/**
+ * Tests that the features kept by {@link DigestIndex} read back as parsed
+ * from the digest
+ */
+public class DigestIndexTests extends TestCase {
+
+	private static final String DIGEST =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" //$NON-NLS-1$
+		+ "<digest>\n" //$NON-NLS-1$
+		+ "<feature id=\"org.eclipse.first\" version=\"1.0.0\" label=\"Tools &amp; &lt;more&gt; &#233;\" provider-name=\"&quot;Eclipse&quot;\">\n" //$NON-NLS-1$
+		+ "  <description>A &lt;first&gt; feature</description>\n" //$NON-NLS-1$
+		+ "  <plugin id=\"org.eclipse.first.core\" version=\"1.0.1\"/>\n" //$NON-NLS-1$
+		+ "  <plugin id=\"org.eclipse.first.ui\" version=\"1.0.2\"/>\n" //$NON-NLS-1$
+		+ "</feature>\n" //$NON-NLS-1$
+		+ "<feature version=\"1.0.0\" label=\"Nameless\"/>\n" //$NON-NLS-1$
+		+ "<feature id=\"org.eclipse.second\" version=\"2.0.0\" label=\"Second\"/>\n" //$NON-NLS-1$
+		+ "<feature id=\"org.eclipse.first\" version=\"1.0.0\" label=\"Duplicate\"/>\n" //$NON-NLS-1$
+		+ "</digest>\n"; //$NON-NLS-1$
+
+	private static final VersionedIdentifier FIRST = new VersionedIdentifier("org.eclipse.first", "1.0.0"); //$NON-NLS-1$ //$NON-NLS-2$
+	private static final VersionedIdentifier SECOND = new VersionedIdentifier("org.eclipse.second", "2.0.0"); //$NON-NLS-1$ //$NON-NLS-2$
+
+	/**
+	 * Constructor
+	 */
+	public DigestIndexTests() {
+		super("Digest index tests"); //$NON-NLS-1$
+	}
+
+	public void testIdentifiers() throws Exception {
+		VersionedIdentifier[] vids = parse().getVersionedIdentifiers();
+		assertEquals("Every feature but the duplicate should be listed", 3, vids.length); //$NON-NLS-1$
+		assertEquals("The features should be in digest order", FIRST, vids[0]); //$NON-NLS-1$
+		assertNull("A feature without identifier should keep its place", vids[1]); //$NON-NLS-1$
+		assertEquals("The features should be in digest order", SECOND, vids[2]); //$NON-NLS-1$
+	}
+
+	public void testRoundTrip() throws Exception {
+		LiteFeature feature = parse().getFeature(FIRST);
+		assertNotNull("The feature should be parsed", feature); //$NON-NLS-1$
+		assertEquals("The first of duplicate features should win", FIRST, feature.getVersionedIdentifier()); //$NON-NLS-1$
+		assertEquals("The markup should be kept", "Tools & <more> \u00e9", feature.getLabel()); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("The markup should be kept", "\"Eclipse\"", feature.getProvider()); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("The text should be kept", "A <first> feature", feature.getDescription().getAnnotation()); //$NON-NLS-1$ //$NON-NLS-2$
+
+		IPluginEntry[] plugins = feature.getRawPluginEntries();
+		assertEquals("The plug-ins should be kept", 2, plugins.length); //$NON-NLS-1$
+		assertEquals("The plug-ins should be kept", new VersionedIdentifier("org.eclipse.first.core", "1.0.1"), plugins[0].getVersionedIdentifier()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertEquals("The plug-ins should be kept", new VersionedIdentifier("org.eclipse.first.ui", "1.0.2"), plugins[1].getVersionedIdentifier()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	public void testParsedOnce() throws Exception {
+		DigestIndex index = parse();
+		LiteFeature feature = index.getFeature(SECOND);
+		assertEquals("The feature should be parsed", "Second", feature.getLabel()); //$NON-NLS-1$ //$NON-NLS-2$
+		assertSame("The parsed feature should be kept", feature, index.getFeature(SECOND)); //$NON-NLS-1$
+		assertNull("An unknown feature should not be found", index.getFeature(new VersionedIdentifier("org.eclipse.third", "1.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	private static DigestIndex parse() throws Exception {
+		return DigestIndex.parse(new ByteArrayInputStream(DIGEST.getBytes("UTF-8"))); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.internal.core.HttpMetadataCache;
+import org.eclipse.update.internal.core.UpdateCore;
+import org.eclipse.update.internal.core.UpdateSession;
+import org.eclipse.update.tests.core.TestServer;
+
+/**
+ * Tests the revalidation of the resources held in {@link HttpMetadataCache}
+ */
+public class HttpMetadataCacheTests extends TestCase {
+
+	private TestServer server;
+	private UpdateSession session;
+
+	/**
+	 * Constructor
+	 */
+	public HttpMetadataCacheTests() {
+		super("HTTP metadata cache tests"); //$NON-NLS-1$
+	}
+
+	protected void setUp() throws Exception {
+		server = new TestServer();
+		server.setContent("first"); //$NON-NLS-1$
+		session = UpdateCore.getPlugin().getUpdateSession();
+	}
+
+	protected void tearDown() throws Exception {
+		server.close();
+	}
+
+	public void testNotCacheable() throws Exception {
+		assertFalse("A file URL should not be cached", HttpMetadataCache.isCacheable(new URL("file:/site.xml"))); //$NON-NLS-1$ //$NON-NLS-2$
+		assertTrue("An HTTP URL should be cached", HttpMetadataCache.isCacheable(server.getURL("site.xml"))); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testRevalidate() throws Exception {
+		// a path not cached by an earlier run
+		URL url = server.getURL("site" + System.currentTimeMillis() + ".xml"); //$NON-NLS-1$ //$NON-NLS-2$
+		session.reset();
+		HttpMetadataCache.Entry first = HttpMetadataCache.get(url, null);
+		assertEquals("The content should be downloaded", "first", read(first.getFile())); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("One request should be sent", 1, server.getRequestCount()); //$NON-NLS-1$
+
+		HttpMetadataCache.Entry visited = HttpMetadataCache.get(url, null);
+		assertEquals("The cached content should be used", first.getFile(), visited.getFile()); //$NON-NLS-1$
+		assertEquals("A visited URL should not be revalidated", 1, server.getRequestCount()); //$NON-NLS-1$
+
+		session.reset();
+		HttpMetadataCache.Entry revalidated = HttpMetadataCache.get(url, null);
+		assertEquals("The cached content should be revalidated", 2, server.getRequestCount()); //$NON-NLS-1$
+		assertEquals("The server should answer not modified", 1, server.getNotModifiedCount()); //$NON-NLS-1$
+		assertEquals("The cached content should be used", first.getFile(), revalidated.getFile()); //$NON-NLS-1$
+
+		server.setContent("second"); //$NON-NLS-1$
+		session.reset();
+		HttpMetadataCache.Entry changed = HttpMetadataCache.get(url, null);
+		assertEquals("The changed content should be downloaded", "second", read(changed.getFile())); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse("The changed content should be a new file", first.getFile().equals(changed.getFile())); //$NON-NLS-1$
+		assertEquals("The previous content should be kept for its readers", "first", read(first.getFile())); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static String read(File file) throws IOException {
+		return TestServer.read(new FileInputStream(file));
+	}
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.internal.mirror.MirrorJournal;
+
+/**
+ * Tests resuming a mirror from the records of {@link MirrorJournal}
+ */
+public class MirrorJournalTests extends TestCase {
+
+	private static final long LENGTH = 100;
+	private static final long MODIFIED = 1200000000000L;
+	private static final String DIGEST = "0123456789abcdef"; //$NON-NLS-1$
+
+	private File site;
+
+	/**
+	 * Constructor
+	 */
+	public MirrorJournalTests() {
+		super("Mirror journal tests"); //$NON-NLS-1$
+	}
+
+	protected void setUp() throws Exception {
+		site = File.createTempFile("mirror", null); //$NON-NLS-1$
+		site.delete();
+		site.mkdirs();
+	}
+
+	protected void tearDown() throws Exception {
+		delete(site);
+	}
+
+	public void testResume() throws Exception {
+		File archive = createArchive("plugins/org.eclipse.test_1.0.0.jar", 10); //$NON-NLS-1$
+		record(archive);
+
+		MirrorJournal journal = new MirrorJournal(site);
+		assertTrue("An unchanged source should be skipped", journal.isMirrored(archive, LENGTH, MODIFIED)); //$NON-NLS-1$
+		assertFalse("A source of another length should be mirrored", journal.isMirrored(archive, LENGTH + 1, MODIFIED)); //$NON-NLS-1$
+		assertFalse("A modified source should be mirrored", journal.isMirrored(archive, LENGTH, MODIFIED + 1)); //$NON-NLS-1$
+		assertFalse("A source of unknown modification time should be mirrored", journal.isMirrored(archive, LENGTH, 0)); //$NON-NLS-1$
+		assertTrue("The same content should be skipped", journal.isMirrored(archive, DIGEST)); //$NON-NLS-1$
+		assertFalse("Another content should be mirrored", journal.isMirrored(archive, "fedcba9876543210")); //$NON-NLS-1$ //$NON-NLS-2$
+		journal.close();
+	}
+
+	public void testChangedTarget() throws Exception {
+		File archive = createArchive("features/org.eclipse.test_1.0.0.jar", 10); //$NON-NLS-1$
+		record(archive);
+		createArchive("features/org.eclipse.test_1.0.0.jar", 5); //$NON-NLS-1$
+
+		MirrorJournal journal = new MirrorJournal(site);
+		assertFalse("A changed archive should be mirrored again", journal.isMirrored(archive, LENGTH, MODIFIED)); //$NON-NLS-1$
+		archive.delete();
+		assertFalse("A deleted archive should be mirrored again", journal.isMirrored(archive, LENGTH, MODIFIED)); //$NON-NLS-1$
+		journal.close();
+	}
+
+	public void testInterruptedRecord() throws Exception {
+		File archive = createArchive("plugins/org.eclipse.test_1.0.0.jar", 10); //$NON-NLS-1$
+		File other = createArchive("plugins/org.eclipse.other_1.0.0.jar", 10); //$NON-NLS-1$
+		record(archive);
+		// a record cut short by an interruption
+		OutputStream out = new FileOutputStream(new File(site, "mirror.journal"), true); //$NON-NLS-1$
+		try {
+			out.write("10 100 ".getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			out.close();
+		}
+
+		MirrorJournal journal = new MirrorJournal(site);
+		assertTrue("The complete record should be kept", journal.isMirrored(archive, LENGTH, MODIFIED)); //$NON-NLS-1$
+		assertFalse("The archive of the cut record should be mirrored", journal.isMirrored(other, LENGTH, MODIFIED)); //$NON-NLS-1$
+		journal.close();
+	}
+
+	public void testLaterRecord() throws Exception {
+		File archive = createArchive("features/org.eclipse.test_1.0.0/my data.zip", 10); //$NON-NLS-1$
+		record(archive);
+		MirrorJournal journal = new MirrorJournal(site);
+		journal.mirrored(archive, LENGTH, MODIFIED + 1, DIGEST);
+		journal.close();
+
+		journal = new MirrorJournal(site);
+		assertTrue("The later record should win", journal.isMirrored(archive, LENGTH, MODIFIED + 1)); //$NON-NLS-1$
+		assertFalse("The earlier record should be replaced", journal.isMirrored(archive, LENGTH, MODIFIED)); //$NON-NLS-1$
+		journal.close();
+	}
+
+	public void testMovedSite() throws Exception {
+		File archive = createArchive("plugins/org.eclipse.test_1.0.0.jar", 10); //$NON-NLS-1$
+		record(archive);
+		File moved = new File(site.getParentFile(), site.getName() + ".moved"); //$NON-NLS-1$
+		assertTrue("The site should be moved", site.renameTo(moved)); //$NON-NLS-1$
+		site = moved;
+
+		MirrorJournal journal = new MirrorJournal(site);
+		assertTrue("The records should follow the site", journal.isMirrored(new File(site, "plugins/org.eclipse.test_1.0.0.jar"), LENGTH, MODIFIED)); //$NON-NLS-1$ //$NON-NLS-2$
+		journal.close();
+	}
+
+	private void record(File archive) {
+		MirrorJournal journal = new MirrorJournal(site);
+		journal.mirrored(archive, LENGTH, MODIFIED, DIGEST);
+		journal.close();
+	}
+
+	private File createArchive(String path, int length) throws IOException {
+		File file = new File(site, path);
+		file.getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[length]);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		for (int i = 0; children != null && i < children.length; i++)
+			delete(children[i]);
+		file.delete();
+	}
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.update.tests.core.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.eclipse.update.core.Feature;
+import org.eclipse.update.core.IUpdateConstants;
+import org.eclipse.update.core.PluginEntry;
+import org.eclipse.update.core.VersionedIdentifier;
+import org.eclipse.update.internal.operations.PrereqIndex;
+
+/**
+ * Tests the version range lookups of {@link PrereqIndex}
+ */
+public class PrereqIndexTests extends TestCase {
+
+	private static final String FEATURE_ID = "org.eclipse.test.feature"; //$NON-NLS-1$
+	private static final String PLUGIN_ID = "org.eclipse.test.plugin"; //$NON-NLS-1$
+
+	/**
+	 * Constructor
+	 */
+	public PrereqIndexTests() {
+		super("Prerequisite index tests"); //$NON-NLS-1$
+	}
+
+	public void testPerfect() throws Exception {
+		PrereqIndex index = createIndex();
+		assertTrue("1.2.0 should match", matches(index, "1.2.0", IUpdateConstants.RULE_PERFECT)); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse("1.1.0 should not match", matches(index, "1.1.0", IUpdateConstants.RULE_PERFECT)); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testEquivalent() throws Exception {
+		PrereqIndex index = createIndex();
+		assertTrue("1.2.0 should match 1.2.0", matches(index, "1.2.0", IUpdateConstants.RULE_EQUIVALENT)); //$NON-NLS-1$ //$NON-NLS-2$
+		assertTrue("1.0.0 should match 1.0.5", matches(index, "1.0.0", IUpdateConstants.RULE_EQUIVALENT)); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse("1.1.0 should not match 1.2.0", matches(index, "1.1.0", IUpdateConstants.RULE_EQUIVALENT)); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testCompatible() throws Exception {
+		PrereqIndex index = createIndex();
+		assertTrue("1.1.0 should match 1.2.0", matches(index, "1.1.0", IUpdateConstants.RULE_COMPATIBLE)); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse("1.3.0 should not match 2.0.0", matches(index, "1.3.0", IUpdateConstants.RULE_COMPATIBLE)); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse("2.1.0 should not match", matches(index, "2.1.0", IUpdateConstants.RULE_COMPATIBLE)); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testGreaterOrEqual() throws Exception {
+		PrereqIndex index = createIndex();
+		assertTrue("0.5.0 should match", matches(index, "0.5.0", IUpdateConstants.RULE_GREATER_OR_EQUAL)); //$NON-NLS-1$ //$NON-NLS-2$
+		assertTrue("1.5.0 should match 2.0.0", matches(index, "1.5.0", IUpdateConstants.RULE_GREATER_OR_EQUAL)); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse("2.1.0 should not match", matches(index, "2.1.0", IUpdateConstants.RULE_GREATER_OR_EQUAL)); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testIgnoreVersion() throws Exception {
+		PrereqIndex index = createIndex();
+		VersionedIdentifier vid = new VersionedIdentifier(FEATURE_ID, "9.0.0"); //$NON-NLS-1$
+		assertTrue("Any version should match", index.matchesFeature(vid, IUpdateConstants.RULE_PERFECT, true, null)); //$NON-NLS-1$
+		vid = new VersionedIdentifier("org.eclipse.test.other", "1.0.0"); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse("Another identifier should not match", index.matchesFeature(vid, IUpdateConstants.RULE_PERFECT, true, null)); //$NON-NLS-1$
+	}
+
+	public void testExcludeSelf() throws Exception {
+		Feature self = createFeature(FEATURE_ID, "1.0.0", new String[0]); //$NON-NLS-1$
+		PrereqIndex index = new PrereqIndex(Arrays.asList(new Feature[] {self}));
+		VersionedIdentifier vid = new VersionedIdentifier(FEATURE_ID, "1.0.0"); //$NON-NLS-1$
+		assertFalse("A feature should not satisfy itself", index.matchesFeature(vid, IUpdateConstants.RULE_GREATER_OR_EQUAL, false, self)); //$NON-NLS-1$
+		assertFalse("A feature should not satisfy itself", index.matchesFeature(vid, IUpdateConstants.RULE_GREATER_OR_EQUAL, true, self)); //$NON-NLS-1$
+
+		index.addFeature(createFeature(FEATURE_ID, "1.1.0", new String[0])); //$NON-NLS-1$
+		assertTrue("Another version should satisfy it", index.matchesFeature(vid, IUpdateConstants.RULE_GREATER_OR_EQUAL, false, self)); //$NON-NLS-1$
+		assertTrue("Another version should satisfy it", index.matchesFeature(vid, IUpdateConstants.RULE_GREATER_OR_EQUAL, true, self)); //$NON-NLS-1$
+	}
+
+	public void testSharedPlugin() throws Exception {
+		Feature first = createFeature(FEATURE_ID, "1.0.0", new String[] {PLUGIN_ID, "3.0.0"}); //$NON-NLS-1$ //$NON-NLS-2$
+		Feature second = createFeature("org.eclipse.test.other", "1.0.0", new String[] {PLUGIN_ID, "3.0.0"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		PrereqIndex index = new PrereqIndex(Arrays.asList(new Feature[] {first, second}));
+		VersionedIdentifier pid = new VersionedIdentifier(PLUGIN_ID, "3.0.0"); //$NON-NLS-1$
+
+		index.removeFeature(first);
+		assertTrue("The plug-in of the remaining feature should match", index.matchesPlugin(pid, IUpdateConstants.RULE_PERFECT, false)); //$NON-NLS-1$
+		assertFalse("The removed feature should not match", index.matchesFeature(new VersionedIdentifier(FEATURE_ID, "1.0.0"), IUpdateConstants.RULE_PERFECT, false, null)); //$NON-NLS-1$ //$NON-NLS-2$
+
+		index.removeFeature(second);
+		assertFalse("The plug-in should be removed with its last feature", index.containsPlugin(PLUGIN_ID)); //$NON-NLS-1$
+		assertFalse("The plug-in should be removed with its last feature", index.matchesPlugin(pid, IUpdateConstants.RULE_PERFECT, false)); //$NON-NLS-1$
+	}
+
+	/*
+	 * Indexes versions 1.0.5, 1.2.0 and 2.0.0 of the feature, out of order.
+	 */
+	private static PrereqIndex createIndex() {
+		PrereqIndex index = new PrereqIndex(new ArrayList());
+		index.addFeature(createFeature(FEATURE_ID, "2.0.0", new String[0])); //$NON-NLS-1$
+		index.addFeature(createFeature(FEATURE_ID, "1.0.5", new String[0])); //$NON-NLS-1$
+		index.addFeature(createFeature(FEATURE_ID, "1.2.0", new String[0])); //$NON-NLS-1$
+		return index;
+	}
+
+	private static boolean matches(PrereqIndex index, String version, int rule) {
+		return index.matchesFeature(new VersionedIdentifier(FEATURE_ID, version), rule, false, null);
+	}
+
+	/*
+	 * Creates a feature with the plug-ins given as identifier and version pairs.
+	 */
+	private static Feature createFeature(String id, String version, String[] plugins) {
+		Feature feature = new Feature();
+		feature.setFeatureIdentifier(id);
+		feature.setFeatureVersion(version);
+		for (int i = 0; i < plugins.length; i += 2) {
+			PluginEntry entry = new PluginEntry();
+			entry.setPluginIdentifier(plugins[i]);
+			entry.setPluginVersion(plugins[i + 1]);
+			feature.addPluginEntryModel(entry);
+		}
+		return feature;
+	}
+}